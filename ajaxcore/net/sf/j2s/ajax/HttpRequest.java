@@ -541,10 +541,19 @@ public class HttpRequest {
 			connection.setUseCaches(false);
 			if (checkAbort()) return; // not yet send out a byte
 			if ("post".equalsIgnoreCase(method)) {
+				byte[] contentBytes = null;
+				if (content != null) {
+					// same bytes as DataOutputStream#writeBytes, in one array
+					int length = content.length();
+					contentBytes = new byte[length];
+					for (int i = 0; i < length; i++) {
+						contentBytes[i] = (byte) content.charAt(i);
+					}
+				}
 				DataOutputStream dos = new DataOutputStream(connection.getOutputStream());
 				activeOS = dos;
-				if (content != null) {
-					dos.writeBytes(content);
+				if (contentBytes != null) {
+					dos.write(contentBytes);
 				}
 				if (checkAbort()) return; // do not flush anything and close the connection
 				dos.flush();
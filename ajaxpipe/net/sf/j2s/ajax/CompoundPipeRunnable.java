@@ -63,8 +63,9 @@ return key;
 	@Override
 	public boolean pipeDestroy() {
 		for (int i = 0; i < pipes.length; i++) {
-			if (pipes[i] != null) {
-				pipes[i].pipeDestroy();
+			CompoundPipeSession p = pipes[i]; // may be unweaved by other threads
+			if (p != null) {
+				p.pipeDestroy();
 			}
 		}
 		//pipeKey = null;
@@ -107,14 +108,17 @@ return key;
 
 	@Override
 	public void pipeClosed() {
-		for (int i = 0; i < pipes.length; i++) {
-			if (pipes[i] != null) {
-				if (pipes[i].closer != null) {
-					pipes[i].closer.helpClosing(pipes[i]);
-				} else {
-					pipes[i].pipeClosed();
+		synchronized (pipes) { // sessions may be destroyed by other threads
+			for (int i = 0; i < pipes.length; i++) {
+				CompoundPipeSession p = pipes[i];
+				if (p != null) {
+					if (p.closer != null) {
+						p.closer.helpClosing(p);
+					} else {
+						p.pipeClosed();
+					}
+					pipes[i] = null;
 				}
-				pipes[i] = null;
 			}
 		}
 		super.pipeClosed();
@@ -122,10 +126,13 @@ return key;
 
 	@Override
 	public void pipeLost() {
-		for (int i = 0; i < pipes.length; i++) {
-			if (pipes[i] != null) {
-				pipes[i].pipeLost();
-				pipes[i] = null;
+		synchronized (pipes) {
+			for (int i = 0; i < pipes.length; i++) {
+				CompoundPipeSession p = pipes[i];
+				if (p != null) {
+					p.pipeLost();
+					pipes[i] = null;
+				}
 			}
 		}
 		super.pipeLost();
@@ -218,13 +225,15 @@ return key;
 			return false;
 		}
 		//*/
-		for (int i = 0; i < pipes.length; i++) {
-			if (pipe == pipes[i] || (pipe.session != null && pipes[i] != null
-					&& pipe.session.equals(pipes[i].session))) {
-				pipes[i] = null;
-				lastSetup = System.currentTimeMillis();
-				pipe.pipeKey = null;
-				return true;
+		synchronized (pipes) {
+			for (int i = 0; i < pipes.length; i++) {
+				if (pipe == pipes[i] || (pipe.session != null && pipes[i] != null
+						&& pipe.session.equals(pipes[i].session))) {
+					pipes[i] = null;
+					lastSetup = System.currentTimeMillis();
+					pipe.pipeKey = null;
+					return true;
+				}
 			}
 		}
 		return false;
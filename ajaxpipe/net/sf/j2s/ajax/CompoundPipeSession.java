@@ -45,11 +45,13 @@ public abstract class CompoundPipeSession extends SimplePipeRunnable {
 	
 	@Override
 	public boolean pipeDestroy() {
-		if (destroyed) {
-			return false; // already destroyed, no further destroy actions
+		synchronized (this) { // may be destroyed by killers of both session and its parent
+			if (destroyed) {
+				return false; // already destroyed, no further destroy actions
+			}
+			destroyed = true;
 		}
 		pipeAlive = false;
-		destroyed = true;
 		
 		/**
 		 * @j2sNative
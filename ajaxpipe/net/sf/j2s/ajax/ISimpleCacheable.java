@@ -1,5 +1,10 @@
 package net.sf.j2s.ajax;
 
+/**
+ * Event which is merged into the pending equal event in pipe data, instead
+ * of being piped again. Equal events are found by #equals and #hashCode,
+ * so implementations overriding #equals must override #hashCode too.
+ */
 public interface ISimpleCacheable {
 
 	public boolean isCached();
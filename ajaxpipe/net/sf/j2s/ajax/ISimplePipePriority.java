@@ -12,6 +12,10 @@
 package net.sf.j2s.ajax;
 
 /**
+ * Priority of piped event. When more events than
+ * SimplePipeHelper#MAX_ITEMS_PER_QUERY are waiting to be appended into
+ * pipe data, events of higher priorities are appended first by weighted
+ * round robin, otherwise events are appended in piped in order.
  * 
  * @author Zhou Renjian (http://zhourenjian.com)
  *
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2007 java2script.org and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Zhou Renjian - initial API and implementation
+ *******************************************************************************/
+
+package net.sf.j2s.ajax;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+import net.sf.j2s.annotation.J2SIgnore;
+
+/**
+ * Index of ISimpleCacheable events in pipe data, for finding the pending
+ * event which is equal to a new event without scanning pipe data.
+ * 
+ * Each appended event gets a sequence number. Writer removes sent events
+ * from the head of pipe data, so the index of an event in pipe data is
+ * its sequence number minus the number of removed events, which is known
+ * from the size of pipe data. Event is pending if its index is not less
+ * than SimplePipeRunnable#getLastBufferedIndex.
+ * 
+ * Writer may also insert SimplePipeSequence markers or remove events in
+ * other ways, so the event at the computed index is verified, and pending
+ * events are scanned if it is not the indexed event. Index must be rebuilt
+ * after events are added into pipe data without this index. Events are
+ * matched by #equals and #hashCode, as ISimpleCacheable requires. Index is
+ * used with the lock of pipe data.
+ */
+@J2SIgnore
+final class SimplePipeCacheIndex {
+
+	private static final class Entry {
+
+		SimpleSerializable event;
+
+		long sequence;
+
+		Entry(SimpleSerializable event, long sequence) {
+			this.event = event;
+			this.sequence = sequence;
+		}
+
+	}
+
+	private Map<SimpleSerializable, Entry> entries = new HashMap<SimpleSerializable, Entry>();
+
+	/**
+	 * Number of events appended into pipe data.
+	 */
+	private long appended;
+
+	/**
+	 * Pipe data which is indexed.
+	 */
+	private List<SimpleSerializable> list;
+
+	/**
+	 * @param ss
+	 * @param list pipe data
+	 * @param bufferedIndex
+	 * @return the last pending event equal to the given event, or null
+	 */
+	SimpleSerializable findPending(SimpleSerializable ss, List<SimpleSerializable> list, int bufferedIndex) {
+		if (list != this.list) {
+			rebuild(list, bufferedIndex);
+		}
+		Entry entry = entries.get(ss);
+		if (entry == null) {
+			return null;
+		}
+		int size = list.size();
+		long index = entry.sequence - (appended - size);
+		if (index >= bufferedIndex && index < size && list.get((int) index) == entry.event) {
+			return entry.event;
+		}
+		// sent, or pipe data is modified in other ways, scan pending events
+		for (ListIterator<SimpleSerializable> itr = list.listIterator(size); itr.previousIndex() >= bufferedIndex;) {
+			SimpleSerializable s = itr.previous();
+			if (s instanceof ISimpleCacheable && ss.equals(s)) {
+				entry.event = s;
+				entry.sequence = appended - size + itr.nextIndex();
+				return s;
+			}
+		}
+		entries.remove(ss); // sent
+		return null;
+	}
+
+	/**
+	 * Record event which is appended into pipe data.
+	 * 
+	 * @param ss
+	 * @param list pipe data, after the event is appended
+	 * @param bufferedIndex
+	 */
+	void add(SimpleSerializable ss, List<SimpleSerializable> list, int bufferedIndex) {
+		long sequence = appended++;
+		if (!(ss instanceof ISimpleCacheable)) {
+			return;
+		}
+		Entry entry = entries.get(ss);
+		if (entry != null) {
+			entry.event = ss; // the last one wins
+			entry.sequence = sequence;
+		} else {
+			entries.put(ss, new Entry(ss, sequence));
+			if (entries.size() > (list.size() << 1) + 64) {
+				rebuild(list, bufferedIndex); // drop entries of sent events
+			}
+		}
+	}
+
+	/**
+	 * Rebuild index from pending events of pipe data.
+	 * 
+	 * @param list pipe data
+	 * @param bufferedIndex
+	 */
+	void rebuild(List<SimpleSerializable> list, int bufferedIndex) {
+		entries.clear();
+		appended = 0;
+		this.list = list;
+		for (Iterator<SimpleSerializable> itr = list.iterator(); itr.hasNext();) {
+			SimpleSerializable ss = itr.next();
+			long sequence = appended++;
+			if (sequence >= bufferedIndex && ss instanceof ISimpleCacheable) {
+				Entry entry = entries.get(ss);
+				if (entry != null) {
+					entry.event = ss;
+					entry.sequence = sequence;
+				} else {
+					entries.put(ss, new Entry(ss, sequence));
+				}
+			}
+		}
+	}
+
+}
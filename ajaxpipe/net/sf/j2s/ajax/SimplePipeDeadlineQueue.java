@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2007 java2script.org and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Zhou Renjian - initial API and implementation
+ *******************************************************************************/
+
+package net.sf.j2s.ajax;
+
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import net.sf.j2s.annotation.J2SIgnore;
+
+/**
+ * Deadlines of monitored pipes, so the monitor only checks pipes which
+ * are due, instead of scanning all pipes in each interval.
+ * 
+ * Pipes are added by any thread, and are polled and scheduled again by
+ * the monitor thread only.
+ */
+@J2SIgnore
+final class SimplePipeDeadlineQueue {
+
+	private static final class Deadline implements Comparable<Deadline> {
+
+		final SimplePipeRunnable pipe;
+
+		final long time;
+
+		Deadline(SimplePipeRunnable pipe, long time) {
+			this.pipe = pipe;
+			this.time = time;
+		}
+
+		public int compareTo(Deadline o) {
+			return time < o.time ? -1 : (time == o.time ? 0 : 1);
+		}
+
+	}
+
+	private final Queue<Deadline> added = new ConcurrentLinkedQueue<Deadline>();
+
+	private final PriorityQueue<Deadline> deadlines = new PriorityQueue<Deadline>();
+
+	/**
+	 * Add pipe to be checked at the given time. For any thread.
+	 * 
+	 * @param pipe
+	 * @param time
+	 */
+	void add(SimplePipeRunnable pipe, long time) {
+		added.offer(new Deadline(pipe, time));
+	}
+
+	/**
+	 * Schedule polled pipe to be checked again. For the monitor thread.
+	 * 
+	 * @param pipe
+	 * @param time
+	 */
+	void schedule(SimplePipeRunnable pipe, long time) {
+		deadlines.offer(new Deadline(pipe, time));
+	}
+
+	/**
+	 * Poll pipe which is due. For the monitor thread.
+	 * 
+	 * @param now
+	 * @return pipe, or null if no pipes are due
+	 */
+	SimplePipeRunnable poll(long now) {
+		moveAdded();
+		Deadline d = deadlines.peek();
+		if (d == null || d.time > now) {
+			return null;
+		}
+		deadlines.poll();
+		return d.pipe;
+	}
+
+	/**
+	 * @return time of the earliest deadline, or Long.MAX_VALUE if there are
+	 * no pipes
+	 */
+	long nextDeadline() {
+		moveAdded();
+		Deadline d = deadlines.peek();
+		return d == null ? Long.MAX_VALUE : d.time;
+	}
+
+	private void moveAdded() {
+		Deadline d;
+		while ((d = added.poll()) != null) {
+			deadlines.offer(d);
+		}
+	}
+
+}
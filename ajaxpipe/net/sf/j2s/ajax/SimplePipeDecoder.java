@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2007 java2script.org and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Zhou Renjian - initial API and implementation
+ *******************************************************************************/
+
+package net.sf.j2s.ajax;
+
+import net.sf.j2s.annotation.J2SIgnore;
+
+/**
+ * Resumable decoder of received pipe bytes.
+ * 
+ * Received chunks are appended into the decoder's buffer, and parsed
+ * bytes are not parsed again. Once the header of an incomplete event is
+ * received, its end is known from its size, and later chunks are only
+ * appended until the event is completed. So each event is deserialized
+ * once, no matter how many chunks it is received in.
+ * 
+ * Decoder is not thread safe, one decoder is used for one pipe stream.
+ */
+@J2SIgnore
+public final class SimplePipeDecoder {
+
+	/**
+	 * Buffer larger than this size is released on reset.
+	 */
+	private static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+	private byte[] buffer = new byte[1024];
+
+	private int count;
+
+	/**
+	 * Index of bytes which are not parsed yet.
+	 */
+	private int position;
+
+	/**
+	 * End index of the incomplete event, or -1 if it is not known yet.
+	 */
+	private int pendingEnd = -1;
+
+	/**
+	 * Append received bytes and parse completed events.
+	 * 
+	 * @param b
+	 * @param off
+	 * @param len
+	 * @return false if received bytes are invalid
+	 */
+	public boolean receive(byte[] b, int off, int len) {
+		append(b, off, len);
+		if (pendingEnd > count) {
+			return true; // incomplete event
+		}
+		int index = SimplePipeRequest.parseReceivedBytes(buffer, position, count);
+		if (index < 0) {
+			reset();
+			return false;
+		}
+		if (index >= count) {
+			reset();
+			return true;
+		}
+		position = index;
+		pendingEnd = -1;
+		int objectStart = position + SimplePipeRequest.PIPE_KEY_LENGTH;
+		if (objectStart < count) {
+			pendingEnd = SimplePipeRequest.bytesObjectEnd(buffer, objectStart, count);
+			if (pendingEnd == Integer.MAX_VALUE) {
+				pendingEnd = -1; // header is not completed yet
+			}
+		}
+		return true;
+	}
+
+	private void append(byte[] b, int off, int len) {
+		if (count + len > buffer.length && position > 0) {
+			// drop parsed bytes before growing
+			count -= position;
+			System.arraycopy(buffer, position, buffer, 0, count);
+			if (pendingEnd > 0) {
+				pendingEnd -= position;
+			}
+			position = 0;
+		}
+		if (count + len > buffer.length) {
+			int newLength = buffer.length << 1;
+			if (newLength < count + len) {
+				newLength = count + len;
+			}
+			byte[] newBuffer = new byte[newLength];
+			System.arraycopy(buffer, 0, newBuffer, 0, count);
+			buffer = newBuffer;
+		}
+		System.arraycopy(b, off, buffer, count, len);
+		count += len;
+	}
+
+	/**
+	 * @return number of received bytes which are not parsed yet
+	 */
+	public int remaining() {
+		return count - position;
+	}
+
+	/**
+	 * Drop all received bytes.
+	 */
+	public void reset() {
+		count = 0;
+		position = 0;
+		pendingEnd = -1;
+		if (buffer.length > MAX_RETAINED_SIZE) {
+			buffer = new byte[1024];
+		}
+	}
+
+}
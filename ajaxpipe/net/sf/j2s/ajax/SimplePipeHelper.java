@@ -10,8 +10,6 @@
  *******************************************************************************/
 package net.sf.j2s.ajax;
 
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -21,6 +19,7 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 //import net.sf.j2s.ajax.SimpleSerializable;
 import net.sf.j2s.annotation.J2SIgnore;
@@ -43,6 +42,14 @@ public class SimplePipeHelper {
 	@J2SIgnore
 	public static int MAX_ITEMS_PER_QUERY = 100;
 	
+	/**
+	 * Weights of important, normal and trivial events, which are numbers
+	 * of events of each priority appended into pipe data in a round, when
+	 * events of different priorities are piped in together.
+	 */
+	@J2SIgnore
+	public static int[] PRIORITY_WEIGHTS = new int[] { 4, 2, 1 };
+	
 //	@J2SIgnore
 //	private static Map<String, List<SimpleSerializable>> pipeMap = null;
 	
@@ -52,6 +59,12 @@ public class SimplePipeHelper {
 	@J2SIgnore
 	private static long monitoringInterval = 10000; // 10s
 	
+	@J2SIgnore
+	private static final long MIN_MONITORING_DELAY = 100;
+	
+	@J2SIgnore
+	private static SimplePipeDeadlineQueue monitoredPipes = new SimplePipeDeadlineQueue();
+	
 	// allPipes is for JavaScript, as pipes is for Java
 	static Object allPipes = null;
 	
@@ -64,6 +77,15 @@ public class SimplePipeHelper {
 	@J2SIgnore
 	private static BlockingQueue<SimplePipeRunnable> toBeDestroyedPipes = new LinkedBlockingQueue<SimplePipeRunnable>();
 	
+	@J2SIgnore
+	private static final AtomicIntegerFieldUpdater<SimplePipeRunnable> monitoring = AtomicIntegerFieldUpdater.newUpdater(SimplePipeRunnable.class, "pipeMonitored");
+	
+	@J2SIgnore
+	private static final AtomicIntegerFieldUpdater<SimplePipeRunnable> destroying = AtomicIntegerFieldUpdater.newUpdater(SimplePipeRunnable.class, "pipeDestroying");
+	
+	@J2SIgnore
+	private static int killingThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+	
 	@J2SIgnore
 	private SimplePipeHelper() {
 		//
@@ -111,6 +133,7 @@ public class SimplePipeHelper {
 		
 		if (pipe.pipeData == null) {
 			pipe.pipeData = new LinkedList<SimpleSerializable>();
+			pipe.pipeInbox = new SimplePipeInbox();
 		}
 		return key;
 	}
@@ -195,74 +218,129 @@ public class SimplePipeHelper {
 //		return pipeMap.get(key);
 //	}
 
+	/**
+	 * Pipe events in through the pipe's inbox. The thread which marks the
+	 * inbox notifying drains the inbox into pipe data before notifying the
+	 * pipe, so events are in pipe data when the pipe is waken up. Events
+	 * piped in by other threads meanwhile are drained by that thread.
+	 * 
+	 * @param key
+	 * @param ss
+	 */
 	@J2SIgnore
 	public static void pipeIn(String key, SimpleSerializable[] ss) {
 		SimplePipeRunnable pipe = getPipe(key, true);
-		List<SimpleSerializable> list = pipe != null ? pipe.pipeData : null; //getPipeDataList(key);
-		if (pipe == null || list == null) {
-			System.out.println("There are no pipe listening?!!!!");
-			return; // throw exception?
+		SimplePipeInbox inbox;
+		while (true) {
+			List<SimpleSerializable> list = pipe != null ? pipe.pipeData : null; //getPipeDataList(key);
+			if (pipe == null || list == null) {
+				System.out.println("There are no pipe listening?!!!!");
+				return; // throw exception?
+			}
+			inbox = pipe.pipeInbox;
+			if (inbox == null) {
+				synchronized (list) {
+					appendPipeData(pipe, list, ss);
+				}
+				break;
+			}
+			SimpleSerializable[] events = ss.clone(); // given array may be reused
+			while (!inbox.offer(events) && !inbox.isClosed()) {
+				// inbox is full, help draining, so events are still in order
+				pipe.drainPipeData();
+				Thread.yield();
+			}
+			if (!inbox.isClosed()) {
+				break;
+			}
+			// pipe data is cleared while offering, try pipe data of now
 		}
+		if (inbox == null || inbox.markNotifying()) {
+			if (inbox != null) {
+				// drain events before notifying, so writer will not miss them
+				pipe.drainPipeData();
+			}
+			synchronized (pipe) {
+				// Notify pipe in!
+				pipe.notify();
+			}
+		}
+	}
+
+	/**
+	 * Append piped in events into pipe data, holding lock of pipe data.
+	 */
+	@J2SIgnore
+	static void appendPipeData(SimplePipeRunnable pipe, List<SimpleSerializable> list, SimpleSerializable[] ss) {
+		queuePipeData(pipe, ss);
+		flushPipeData(pipe, list);
+	}
+
+	/**
+	 * Queue piped in events into lanes of their priorities, holding lock
+	 * of pipe data.
+	 */
+	@J2SIgnore
+	static void queuePipeData(SimplePipeRunnable pipe, SimpleSerializable[] ss) {
 		int v = pipe.getSimpleVersion();
-		synchronized (list) {
-			boolean hasNewPriority = false;
-			for (int i = 0; i < ss.length; i++) {
-				SimpleSerializable s = ss[i];
-				if (v >= 202) {
-					s.setSimpleVersion(v);
+		SimplePipeLanes lanes = pipe.pipeLanes;
+		if (lanes == null) {
+			lanes = new SimplePipeLanes();
+			pipe.pipeLanes = lanes;
+		}
+		for (int i = 0; i < ss.length; i++) {
+			SimpleSerializable s = ss[i];
+			if (v >= 202) {
+				s.setSimpleVersion(v);
+			}
+			if (s instanceof ISimpleCacheable) {
+				ISimpleCacheable c = (ISimpleCacheable) s;
+				if (c.isCached()) {
+					// in buffer and not sent yet
+					continue;
 				}
-				if (s instanceof ISimpleCacheable) {
-					ISimpleCacheable c = (ISimpleCacheable) s;
-					if (c.isCached()) {
-						// in buffer and not sent yet
-						continue;
-					} else {
-						int idx = list.indexOf(s);
-						if (idx != -1 && idx >= pipe.getLastBufferedIndex()) {
-							// same object but with updated properties maybe!
-							SimpleSerializable existed = list.get(idx);
-							if (existed instanceof ISimpleCacheable) {
-								ISimpleCacheable ec = (ISimpleCacheable) existed;
-								ec.synchronizeFrom(c);
-							}
-							continue;
-						}
-					}
-					c.setCached(true);
+				c.setCached(true);
+			}
+			lanes.add(s);
+		}
+	}
+
+	/**
+	 * Append queued events into pipe data by their priorities, holding lock
+	 * of pipe data. Cacheable events are merged into pending equal events.
+	 */
+	@J2SIgnore
+	static void flushPipeData(SimplePipeRunnable pipe, List<SimpleSerializable> list) {
+		SimplePipeLanes lanes = pipe.pipeLanes;
+		if (lanes == null) {
+			return;
+		}
+		SimplePipeCacheIndex index = pipe.pipeCacheIndex;
+		SimpleSerializable s;
+		while ((s = lanes.poll()) != null) {
+			if (s instanceof ISimpleCacheable) {
+				ISimpleCacheable c = (ISimpleCacheable) s;
+				if (index == null) {
+					index = new SimplePipeCacheIndex();
+					index.rebuild(list, pipe.getLastBufferedIndex());
+					pipe.pipeCacheIndex = index;
 				}
-				list.add(s);
-				if (!hasNewPriority && s instanceof ISimplePipePriority) {
-					hasNewPriority = true;
+				SimpleSerializable existed = index.findPending(s, list, pipe.getLastBufferedIndex());
+				if (existed != null) {
+					// same object but with updated properties maybe!
+					if (existed instanceof ISimpleCacheable) {
+						ISimpleCacheable ec = (ISimpleCacheable) existed;
+						ec.synchronizeFrom(c);
+					}
+					c.setCached(false); // not in buffer
+					continue;
 				}
 			}
-			if (hasNewPriority && ss.length > MAX_ITEMS_PER_QUERY) { // 100 by default
-				// sort list!
-				Collections.sort(list, new Comparator<SimpleSerializable>() {
-					
-					public int compare(SimpleSerializable o1, SimpleSerializable o2) {
-						boolean v1 = o1 instanceof ISimplePipePriority;
-						boolean v2 = o2 instanceof ISimplePipePriority;
-						if (v1 && v2) {
-							ISimplePipePriority sp1 = (ISimplePipePriority) o1;
-							ISimplePipePriority sp2 = (ISimplePipePriority) o2;
-							return sp2.getPriority() - sp1.getPriority();
-						} else if (v1) {
-							ISimplePipePriority sp1 = (ISimplePipePriority) o1;
-							return ISimplePipePriority.IMPORTANT - sp1.getPriority();
-						} else if (v2) {
-							ISimplePipePriority sp2 = (ISimplePipePriority) o2;
-							return sp2.getPriority() - ISimplePipePriority.IMPORTANT;
-						}
-						return 0;
-					}
-					
-				});
+			list.add(s);
+			if (index != null) {
+				index.add(s, list, pipe.getLastBufferedIndex());
 			}
 		}
-		synchronized (pipe) {
-			// Notify pipe in!
-			pipe.notify();
-		}
 	}
 
 	@J2SIgnore
@@ -365,54 +443,102 @@ public class SimplePipeHelper {
 		SimplePipeHelper.monitoringInterval = monitoringInterval;
 	}
 
+	@J2SIgnore
+	public static int getKillingThreads() {
+		return killingThreads;
+	}
+
+	/**
+	 * Set number of threads which destroy expired pipes in parallel. It
+	 * should be set before any pipes are monitored.
+	 * 
+	 * @param killingThreads
+	 */
+	@J2SIgnore
+	public static void setKillingThreads(int killingThreads) {
+		SimplePipeHelper.killingThreads = Math.max(1, killingThreads);
+	}
+
 	@J2SIgnore
 	private static void monitoringAllPipes() {
 		while (true) {
-			try {
-				Thread.sleep(monitoringInterval);
-			} catch (InterruptedException e) {
+			long interval = monitoringInterval;
+			long now = System.currentTimeMillis();
+			long delay = monitoredPipes.nextDeadline() - now;
+			if (delay > 0) {
+				try {
+					Thread.sleep(Math.max(Math.min(delay, interval), MIN_MONITORING_DELAY));
+				} catch (InterruptedException e) {
+				}
+				now = System.currentTimeMillis();
 			}
-			Object[] allPipes = pipes.values().toArray();
-			for (int i = 0; i < allPipes.length; i++) {
-				final SimplePipeRunnable pipe = (SimplePipeRunnable) allPipes[i];
-				if (!pipe.pipeManaged) {
+			SimplePipeRunnable pipe;
+			while ((pipe = monitoredPipes.poll(now)) != null) {
+				long deadline = checkMonitoredPipe(pipe, now, interval);
+				if (deadline > 0) {
+					monitoredPipes.schedule(pipe, deadline);
 					continue;
 				}
-				long now = System.currentTimeMillis();
-				try {
-					if (!pipe.isPipeLive() || (pipe instanceof CompoundPipeRunnable
-							&& ((CompoundPipeRunnable) pipe).isEmpty()
-							&& now - ((CompoundPipeRunnable) pipe).lastSetup > 30000)) {
-						//System.out.println("Pipe " + pipe.pipeKey + " live status is " + pipe.isPipeLive());
-						if (now - pipe.lastLiveDetected > pipe.pipeWaitClosingInterval()) {
-							String pipeKey = pipe.pipeKey;
-							asyncDestroyPipe(pipe);
-							if (pipeKey != null && pipeKey.length() > 0) {
-								removePipe(pipeKey, true);
-							}
+				monitoring.set(pipe, 0);
+				if (pipe.lastLiveDetected >= now && monitoring.compareAndSet(pipe, 0, 1)) {
+					// monitored again while being checked
+					monitoredPipes.schedule(pipe, now + interval);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Check pipe which is due.
+	 * 
+	 * @return time of next checking, or 0 if pipe is no longer monitored
+	 */
+	@J2SIgnore
+	private static long checkMonitoredPipe(final SimplePipeRunnable pipe, long now, long interval) {
+		String key = pipe.pipeKey;
+		if (key == null && pipe.destroyed) {
+			return 0; // destroyed and removed
+		}
+		if (!pipe.pipeManaged || key == null || pipes.get(key) != pipe) {
+			return 0; // removed, monitored again by #monitoringPipe if needed
+		}
+		if (!(pipe instanceof CompoundPipeRunnable) && pipe.lastLiveDetected + interval > now) {
+			// status is updated since last checking
+			return pipe.lastLiveDetected + interval;
+		}
+		try {
+			if (!pipe.isPipeLive() || (pipe instanceof CompoundPipeRunnable
+					&& ((CompoundPipeRunnable) pipe).isEmpty()
+					&& now - ((CompoundPipeRunnable) pipe).lastSetup > 30000)) {
+				//System.out.println("Pipe " + pipe.pipeKey + " live status is " + pipe.isPipeLive());
+				if (now - pipe.lastLiveDetected > pipe.pipeWaitClosingInterval()) {
+					asyncDestroyPipe(pipe);
+					if (key.length() > 0) {
+						removePipe(key, true);
+					}
+					return 0;
+				}
+			} else {
+				if (pipe instanceof CompoundPipeRunnable) {
+					CompoundPipeRunnable cp = (CompoundPipeRunnable) pipe;
+					for (int j = 0; j < cp.pipes.length; j++) {
+						CompoundPipeSession ps = cp.pipes[j];
+						if (ps == null) {
+							continue;
 						}
-					} else {
-						if (pipe instanceof CompoundPipeRunnable) {
-							CompoundPipeRunnable cp = (CompoundPipeRunnable) pipe;
-							for (int j = 0; j < cp.pipes.length; j++) {
-								CompoundPipeSession ps = cp.pipes[j];
-								if (ps == null) {
-									continue;
-								}
-								if (ps.isPipeLive()) {
-									ps.lastLiveDetected = now;
-								} else if (now - ps.lastLiveDetected > SimplePipeRequest.pipeLiveNotifyInterval * 3 + monitoringInterval + ps.pipeWaitClosingInterval()) {
-									asyncDestroyPipe(ps);
-								}
-							}
+						if (ps.isPipeLive()) {
+							ps.lastLiveDetected = now;
+						} else if (now - ps.lastLiveDetected > SimplePipeRequest.pipeLiveNotifyInterval * 3 + interval + ps.pipeWaitClosingInterval()) {
+							asyncDestroyPipe(ps);
 						}
-						pipe.lastLiveDetected = now;
 					}
-				} catch (Throwable e) {
-					e.printStackTrace();
 				}
+				pipe.lastLiveDetected = now;
 			}
+		} catch (Throwable e) {
+			e.printStackTrace();
 		}
+		return now + interval;
 	}
 	
 	@J2SIgnore
@@ -434,6 +560,8 @@ public class SimplePipeHelper {
 					}
 				} catch (Throwable e) {
 					e.printStackTrace();
+				} finally {
+					destroying.set(pipe, 0); // only one killer destroys the pipe at a time
 				}
 				//System.out.println("Killed pipe " + pipe + " :// " + System.currentTimeMillis());
 			} else {
@@ -445,7 +573,7 @@ public class SimplePipeHelper {
 	@J2SIgnore
 	static void asyncDestroyPipe(final SimplePipeRunnable pipe) {
 		//System.out.println("To destroy pipe " + pipe);
-		if (!toBeDestroyedPipes.contains(pipe)) {
+		if (destroying.compareAndSet(pipe, 0, 1)) {
 			toBeDestroyedPipes.offer(pipe);
 		}
 		/*
@@ -470,6 +598,9 @@ public class SimplePipeHelper {
 	static void monitoringPipe(SimplePipeRunnable pipe) {
 		long now = System.currentTimeMillis();
 		pipe.lastLiveDetected = now;
+		if (monitoring.compareAndSet(pipe, 0, 1)) {
+			monitoredPipes.add(pipe, now + monitoringInterval);
+		}
 		if (monitored) {
 			return;
 		}
@@ -483,13 +614,15 @@ public class SimplePipeHelper {
 		monitorThread.setDaemon(true);
 		monitorThread.start();
 		
-		Thread killThread = new Thread(new Runnable() {
-			public void run() {
-				killingPipes();
-			}
-		}, "Simple Pipe Managed Session Killer");
-		killThread.setDaemon(true);
-		killThread.start();
+		for (int i = 0; i < killingThreads; i++) {
+			Thread killThread = new Thread(new Runnable() {
+				public void run() {
+					killingPipes();
+				}
+			}, i == 0 ? "Simple Pipe Managed Session Killer" : "Simple Pipe Managed Session Killer " + i);
+			killThread.setDaemon(true);
+			killThread.start();
+		}
 	}
 	
 }
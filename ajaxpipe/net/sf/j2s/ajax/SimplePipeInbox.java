@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2007 java2script.org and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Zhou Renjian - initial API and implementation
+ *******************************************************************************/
+
+package net.sf.j2s.ajax;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.sf.j2s.annotation.J2SIgnore;
+
+/**
+ * Bounded lock-free inbox of a pipe, for events which are piped in by many
+ * threads and drained into pipe data by the pipe's writer.
+ * 
+ * Each slot keeps the events of one SimplePipeHelper#pipeIn call, so no
+ * node is allocated for each event. Producers claim slots by CAS, and
+ * only the writer polls slots, holding the lock of pipe data. If all
+ * slots are taken, #offer fails and the producer helps draining before
+ * offering again, so events of a producer are kept in order.
+ * 
+ * Inbox is closed when pipe data is cleared. Producers check it after
+ * offering, so events are not left in an inbox which is never drained.
+ */
+@J2SIgnore
+final class SimplePipeInbox {
+
+	static final int CAPACITY = 1024; // power of 2
+
+	private static final int MASK = CAPACITY - 1;
+
+	private final AtomicReferenceArray<SimpleSerializable[]> batches = new AtomicReferenceArray<SimpleSerializable[]>(CAPACITY);
+
+	private final AtomicLong tail = new AtomicLong();
+
+	private volatile long head;
+
+	private final AtomicBoolean notifying = new AtomicBoolean();
+
+	private volatile boolean closed;
+
+	/**
+	 * @param events
+	 * @return false if the inbox is full or closed
+	 */
+	boolean offer(SimpleSerializable[] events) {
+		while (true) {
+			if (closed) {
+				return false;
+			}
+			long t = tail.get();
+			if (t - head >= CAPACITY) {
+				return false;
+			}
+			if (tail.compareAndSet(t, t + 1)) {
+				batches.set((int) t & MASK, events);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Poll events of the next slot. For the writer only, holding the lock
+	 * of pipe data.
+	 * 
+	 * @return events, or null if the next slot is not filled yet
+	 */
+	SimpleSerializable[] poll() {
+		long h = head;
+		int index = (int) h & MASK;
+		SimpleSerializable[] events = batches.get(index);
+		if (events == null) {
+			return null;
+		}
+		batches.set(index, null);
+		head = h + 1;
+		return events;
+	}
+
+	boolean isEmpty() {
+		return batches.get((int) head & MASK) == null;
+	}
+
+	/**
+	 * Producers only notify the pipe when it is not notified since the
+	 * last drain, so producers do not contend on the pipe's monitor.
+	 * 
+	 * @return whether the pipe should be notified or not
+	 */
+	boolean markNotifying() {
+		return !notifying.get() && notifying.compareAndSet(false, true);
+	}
+
+	/**
+	 * Called by the writer before polling, so events offered later are
+	 * notified again.
+	 */
+	void clearNotifying() {
+		notifying.set(false);
+	}
+
+	/**
+	 * Reject later offers, as the inbox is no longer drained.
+	 */
+	void close() {
+		closed = true;
+	}
+
+	boolean isClosed() {
+		return closed;
+	}
+
+}
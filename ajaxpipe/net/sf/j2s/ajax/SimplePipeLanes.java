@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2007 java2script.org and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Zhou Renjian - initial API and implementation
+ *******************************************************************************/
+
+package net.sf.j2s.ajax;
+
+import java.util.ArrayDeque;
+
+import net.sf.j2s.annotation.J2SIgnore;
+
+/**
+ * FIFO lanes of piped in events for ISimplePipePriority#IMPORTANT,
+ * #NORMAL and #TRIVIAL priorities, which events are polled into pipe data
+ * by weighted round robin, see SimplePipeHelper#PRIORITY_WEIGHTS. Events
+ * without priorities are important ones.
+ * 
+ * Events are kept in piped in order, until there are more queued events
+ * than SimplePipeHelper#MAX_ITEMS_PER_QUERY, as events were sorted by
+ * priorities only for such large batches before. Then queued events are
+ * split into lanes until lanes are empty.
+ * 
+ * Lanes are used with the lock of pipe data.
+ */
+@J2SIgnore
+final class SimplePipeLanes {
+
+	private static final int LANES = 3;
+
+	private final ArrayDeque<SimpleSerializable>[] lanes;
+
+	private final int[] credits = new int[LANES];
+
+	/**
+	 * Events in piped in order, before they are split into lanes.
+	 */
+	private final ArrayDeque<SimpleSerializable> ordered = new ArrayDeque<SimpleSerializable>();
+
+	private boolean split;
+
+	private int size;
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	SimplePipeLanes() {
+		lanes = new ArrayDeque[LANES];
+		for (int i = 0; i < LANES; i++) {
+			lanes[i] = new ArrayDeque<SimpleSerializable>();
+		}
+	}
+
+	static int laneOf(SimpleSerializable ss) {
+		if (!(ss instanceof ISimplePipePriority)) {
+			return 0;
+		}
+		int priority = ((ISimplePipePriority) ss).getPriority();
+		if (priority >= ISimplePipePriority.IMPORTANT) {
+			return 0;
+		}
+		return priority >= ISimplePipePriority.NORMAL ? 1 : 2;
+	}
+
+	void add(SimpleSerializable ss) {
+		size++;
+		if (split) {
+			lanes[laneOf(ss)].add(ss);
+			return;
+		}
+		ordered.add(ss);
+		if (size > SimplePipeHelper.MAX_ITEMS_PER_QUERY) {
+			SimpleSerializable s;
+			while ((s = ordered.poll()) != null) {
+				lanes[laneOf(s)].add(s);
+			}
+			split = true;
+		}
+	}
+
+	/**
+	 * Poll event in piped in order, or from lanes if events are split.
+	 * Each lane is polled by its weight in a round, and lanes are polled
+	 * in the order of priorities.
+	 * 
+	 * @return event, or null if lanes are empty
+	 */
+	SimpleSerializable poll() {
+		if (size == 0) {
+			return null;
+		}
+		if (!split) {
+			size--;
+			return ordered.poll();
+		}
+		while (true) {
+			for (int i = 0; i < LANES; i++) {
+				if (credits[i] > 0 && !lanes[i].isEmpty()) {
+					credits[i]--;
+					if (--size == 0) {
+						split = false;
+					}
+					return lanes[i].poll();
+				}
+			}
+			int[] weights = SimplePipeHelper.PRIORITY_WEIGHTS;
+			for (int i = 0; i < LANES; i++) {
+				credits[i] = i < weights.length && weights[i] > 0 ? weights[i] : 1;
+			}
+		}
+	}
+
+}
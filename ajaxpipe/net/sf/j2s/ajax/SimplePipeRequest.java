@@ -809,6 +809,7 @@ document.body.appendChild (ifr);
 						parseReceived(pipeRequest.getResponseText());
 					} else {
 						byte[] bytes = pipeRequest.getResponseBytes();
+						runnable.resetPipeDictionary(); // each response is a new stream
 						try {
 							parseReceivedBytes(bytes);
 						} catch (RuntimeException e) { // invalid simple format
@@ -957,15 +958,8 @@ window.setTimeout (fun, spr.pipeLiveNotifyInterval);
 			
 			public boolean receiving(ByteArrayOutputStream baos, byte b[], int off, int len) {
 				runnable.updateStatus(true);
-				baos.write(b, off, len);
-				byte[] bytes = baos.toByteArray();
-				int resetIndex = parseReceivedBytes(bytes);
-				if (resetIndex > 0) {
-					baos.reset();
-					if (resetIndex < bytes.length) {
-						baos.write(bytes, resetIndex, bytes.length - resetIndex);
-					}
-				} else if (resetIndex < 0) { // Error
+				// bytes are kept by the decoder instead of the given stream
+				if (!runnable.getPipeDecoder().receive(b, off, len)) { // Error
 					String key = runnable.pipeKey;
 					if (pipeKey != null && pipeKey.equals(key)) {
 						runnable.pipeLost();
@@ -1004,6 +998,10 @@ window.setTimeout (fun, spr.pipeLiveNotifyInterval);
 
 		String pipeRequestData = constructRequest(pipeKey, PIPE_TYPE_CONTINUUM, runnable.pipeSequence);
 		lastPipeRequestURL = pipeRequestData;
+		/** @j2sNative */ {
+			runnable.resetPipeDictionary(); // new connection is a new stream
+			runnable.resetPipeDecoder();
+		}
 		sendRequest(pipeRequest, pipeMethod, pipeURL, pipeRequestData, true);
 	}
 	
@@ -1167,10 +1165,24 @@ for (var i = 0; i < iframes.length; i++) {
 		if (bytes == null) {
 			return -1;
 		}
+		return parseReceivedBytes(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Parse received bytes between the given start index and the given
+	 * limit index. Serialized object is only parsed after all its bytes
+	 * are received, as its size is known from its header.
+	 * 
+	 * @param bytes
+	 * @param start
+	 * @param limit
+	 * @return index of the rest of bytes after being parsed, which is the
+	 * given start index if no bytes are parsed, or -1 for errors
+	 */
+	static int parseReceivedBytes(final byte[] bytes, int start, int limit) {
 		SimpleSerializable ss = null;
-		int start = 0;
 		long now = System.currentTimeMillis();
-		while (bytes.length > start + PIPE_KEY_LENGTH) { // should be bigger than 48 ( 32 + 6 + 1 + 8 + 1)
+		while (limit > start + PIPE_KEY_LENGTH) { // should be bigger than 48 ( 32 + 6 + 1 + 8 + 1)
 			int end = start + PIPE_KEY_LENGTH;
 			String key = new String(bytes, start, PIPE_KEY_LENGTH);
 			SimplePipeRunnable pipe = SimplePipeHelper.getPipe(key, false);
@@ -1189,7 +1201,7 @@ for (var i = 0; i < iframes.length; i++) {
 			}
 			if (PIPE_STATUS_OK == bytes[end]) {
 				start = end + 1;
-				if (start == bytes.length) {
+				if (start == limit) {
 					return start;
 				}
 				continue;
@@ -1210,25 +1222,30 @@ for (var i = 0; i < iframes.length; i++) {
 					return end + 1;
 				}
 			}
-			ss = SimpleSerializable.parseInstance(bytes, end);
+			int objectEnd = bytesObjectEnd(bytes, end, limit);
+			if (objectEnd > limit) {
+				break; // not completed yet, wait for more bytes without parsing
+			}
+			// names are added into dictionary only once, even if bytes are parsed again
+			SimpleNameDictionary dictionary = pipe != null ? pipe.getPipeDictionary() : null;
+			ss = SimpleSerializable.parseInstance(bytes, end, null, dictionary);
 			if (ss == null) {
 				break;
 			}
 			if (ss == SimpleSerializable.ERROR) {
 				return -1; // error
 			}
-			List<SimpleSerializable> ssObjs = new LinkedList<SimpleSerializable>();
-			ssObjs.add(ss);
-			int result = ss.deserializeBytes(bytes, end, ssObjs);
+			List<SimpleSerializable> ssObjs = SimpleSerializable.newObjectList(ss);
+			int result = ss.deserializeBytes(bytes, end, limit, null, dictionary, ssObjs);
 			if (result == SimpleSerializable.SIMPLE_MISSING_DATA) {
 				break;
 			}
 			if (result < SimpleSerializable.SIMPLE_MISSING_DATA) { // Other errors
-				int length = bytes.length;
+				int length = limit - start;
 				if (length < 1024) {
-					System.out.println("[ERROR]: " + new String(bytes));
+					System.out.println("[ERROR]: " + new String(bytes, start, length));
 				} else {
-					System.out.println("[ERROR]: " + new String(bytes, 0, 1024) + " ...");
+					System.out.println("[ERROR]: " + new String(bytes, start, 1024) + " ...");
 				}
 				return -1; // error
 			}
@@ -1245,12 +1262,48 @@ for (var i = 0; i < iframes.length; i++) {
 				} // else ignore unknown event silently?
 			}
 			
-			start = restBytesIndex(bytes, start);
+			start = objectEnd > 0 ? objectEnd : restBytesIndex(bytes, start);
 		}
-		if (start != 0) {
-			return start;
+		return start;
+	}
+
+	/**
+	 * Return end index of the serialized object starting at the given
+	 * index, from the size in its header.
+	 * 
+	 * Format: WLL101ClassName#NNNNNN$SerializedData...
+	 * 
+	 * @param bytes
+	 * @param start
+	 * @param limit
+	 * @return end index, which may be greater than the given limit index
+	 * if the object is not completed yet, or Integer.MAX_VALUE if its
+	 * header is not completed yet, or -1 if its header has no size
+	 */
+	static int bytesObjectEnd(final byte[] bytes, int start, int limit) {
+		int idx1 = SimpleSerializable.bytesIndexOf(bytes, (byte) '#', start, limit) + 1;
+		if (idx1 <= 0 || idx1 >= limit) {
+			return Integer.MAX_VALUE;
+		}
+		if (bytes[idx1] < '0' || bytes[idx1] > '9') {
+			return -1;
+		}
+		int idx2 = SimpleSerializable.bytesIndexOf(bytes, (byte) '$', idx1, limit);
+		if (idx2 == -1) {
+			return limit - idx1 > 9 ? -1 : Integer.MAX_VALUE;
+		}
+		if (idx2 - idx1 > 9) {
+			return -1;
+		}
+		int size = 0;
+		for (int i = idx1; i < idx2; i++) {
+			byte b = bytes[i];
+			if (b < '0' || b > '9') {
+				return -1; // let deserializer report the invalid size
+			}
+			size = ((size << 3) + (size << 1)) + (b - '0'); // size * 10
 		}
-		return 0;
+		return idx2 + size + 1;
 	}
 
 	/*
@@ -57,6 +57,12 @@ public abstract class SimplePipeRunnable extends SimpleRPCRunnable {
 	@J2SIgnore
 	long lastLiveDetected;
 	
+	@J2SIgnore
+	volatile int pipeMonitored; // 1 if scheduled in SimplePipeHelper's monitor
+	
+	@J2SIgnore
+	volatile int pipeDestroying; // 1 if queued in SimplePipeHelper's killers
+	
 	@J2SIgnore
 	long lastPipeNotified;
 	
@@ -76,6 +82,15 @@ public abstract class SimplePipeRunnable extends SimpleRPCRunnable {
 	@J2SIgnore
 	List<SimpleSerializable> pipeData;
 	
+	@J2SIgnore
+	SimplePipeInbox pipeInbox;
+	
+	@J2SIgnore
+	SimplePipeCacheIndex pipeCacheIndex; // guarded by pipeData
+	
+	@J2SIgnore
+	SimplePipeLanes pipeLanes; // guarded by pipeData
+	
 	@J2SIgnore
 	int pipeMode;
 	
@@ -85,6 +100,12 @@ public abstract class SimplePipeRunnable extends SimpleRPCRunnable {
 	@J2SIgnore
 	Set<String> nonExistedDeals;
 	
+	@J2SIgnore
+	SimpleNameDictionary pipeDictionary;
+	
+	@J2SIgnore
+	SimplePipeDecoder pipeDecoder;
+	
 	@J2SIgnore
 	public int getPipeMode() {
 		return pipeMode;
@@ -106,11 +127,47 @@ public abstract class SimplePipeRunnable extends SimpleRPCRunnable {
 		return false;
 	}
 	
+	/**
+	 * Get pipe data, after events piped in are drained into it.
+	 * 
+	 * @return
+	 */
 	@J2SIgnore
 	public List<SimpleSerializable> getPipeData() {
+		drainPipeData();
 		return pipeData;
 	}
 
+	/**
+	 * Drain events piped in by SimplePipeHelper#pipeIn into pipe data, in
+	 * batches. Writer of the pipe should call this or #getPipeData before
+	 * reading pipe data, and indexes like #getLastBufferedIndex are indexes
+	 * of pipe data as before.
+	 * 
+	 * @return number of events appended into pipe data
+	 */
+	@J2SIgnore
+	public int drainPipeData() {
+		SimplePipeInbox inbox = pipeInbox;
+		List<SimpleSerializable> list = pipeData;
+		if (inbox == null || list == null) {
+			return 0;
+		}
+		inbox.clearNotifying();
+		if (inbox.isEmpty()) {
+			return 0;
+		}
+		synchronized (list) {
+			int size = list.size();
+			SimpleSerializable[] events;
+			while ((events = inbox.poll()) != null) {
+				SimplePipeHelper.queuePipeData(this, events);
+			}
+			SimplePipeHelper.flushPipeData(this, list);
+			return list.size() - size;
+		}
+	}
+
 	@J2SIgnore
 	public void setFirstPipeSequenceIndex(int index) {
 		sequenceIndex = index;
@@ -141,6 +198,53 @@ public abstract class SimplePipeRunnable extends SimpleRPCRunnable {
 		pipeSequence = sequence;
 	}
 
+	/**
+	 * Names dictionary of the current pipe stream, for serializing events
+	 * into or deserializing events from bytes since version 206. Server
+	 * sets it to SimpleOutputBuffer#setDictionary before serializing events
+	 * of this pipe.
+	 * 
+	 * @return
+	 */
+	@J2SIgnore
+	public SimpleNameDictionary getPipeDictionary() {
+		if (pipeDictionary == null) {
+			pipeDictionary = new SimpleNameDictionary();
+		}
+		return pipeDictionary;
+	}
+	
+	/**
+	 * Reset names dictionary, on starting a new pipe stream, as names
+	 * written into former streams are not known by the new stream.
+	 */
+	@J2SIgnore
+	public void resetPipeDictionary() {
+		pipeDictionary = new SimpleNameDictionary();
+	}
+	
+	/**
+	 * Decoder of received bytes of the current pipe stream, which keeps
+	 * bytes of incomplete events across received chunks.
+	 * 
+	 * @return
+	 */
+	@J2SIgnore
+	public SimplePipeDecoder getPipeDecoder() {
+		if (pipeDecoder == null) {
+			pipeDecoder = new SimplePipeDecoder();
+		}
+		return pipeDecoder;
+	}
+	
+	/**
+	 * Reset decoder, on starting a new pipe stream.
+	 */
+	@J2SIgnore
+	public void resetPipeDecoder() {
+		pipeDecoder = null;
+	}
+	
 	/**
 	 * Monitoring to see if all events has been received and call #pipeDataOK.
 	 * 
@@ -228,6 +332,12 @@ public abstract class SimplePipeRunnable extends SimpleRPCRunnable {
 		if (pipeData != null) {
 			pipeData = null;
 		}
+		if (pipeInbox != null) {
+			pipeInbox.close();
+			pipeInbox = null;
+		}
+		pipeCacheIndex = null;
+		pipeLanes = null;
 	}
 	
 	/**
@@ -239,7 +349,7 @@ public abstract class SimplePipeRunnable extends SimpleRPCRunnable {
 		if (pipeData == null) {
 			return false;
 		}
-		return !pipeData.isEmpty();
+		return !pipeData.isEmpty() || pipeInbox != null && !pipeInbox.isEmpty();
 	}
 	
 	@J2SIgnore
@@ -247,6 +357,9 @@ public abstract class SimplePipeRunnable extends SimpleRPCRunnable {
 		if (anotherPipe == this) {
 			return;
 		}
+		if (anotherPipe != null) {
+			anotherPipe.drainPipeData();
+		}
 		if (anotherPipe != null && anotherPipe.pipeData != null && anotherPipe.pipeData.size() > 0) {
 			if (pipeData == null) {
 				List<SimpleSerializable> data = new LinkedList<SimpleSerializable>();
@@ -270,6 +383,7 @@ public abstract class SimplePipeRunnable extends SimpleRPCRunnable {
 					if (clearOriginalData) {
 						anotherPipe.pipeData.clear();
 					}
+					pipeCacheIndex = null; // rebuilt on next piping in
 				}
 			}
 			synchronized (this) {
@@ -283,11 +397,13 @@ public abstract class SimplePipeRunnable extends SimpleRPCRunnable {
 	 * After pipe is destroyed, {@link #isPipeLive()} must be false
 	 */
 	public boolean pipeDestroy() {
-		if (destroyed) {
-			return false; // already destroyed, no further destroy actions
+		synchronized (this) {
+			if (destroyed) {
+				return false; // already destroyed, no further destroy actions
+			}
+			destroyed = true;
 		}
 		pipeAlive = false;
-		destroyed = true;
 		if (pipeKey != null) {
 			SimplePipeHelper.removePipe(pipeKey, pipeData != null);
 			pipeKey = null;
@@ -468,6 +584,9 @@ public abstract class SimplePipeRunnable extends SimpleRPCRunnable {
 		if (live) {
 			keepPipeLive();
 			pipeAlive = true;
+			/** @j2sNative */ {
+				lastLiveDetected = System.currentTimeMillis(); // monitor checks it later
+			}
 		} else if (isPipeLive()) {
 			pipeDestroy();
 			pipeAlive = false;
@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2007 java2script.org and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Zhou Renjian - initial API and implementation
+ *******************************************************************************/
+
+package net.sf.j2s.ajax;
+
+import net.sf.j2s.annotation.J2SIgnore;
+
+/**
+ * Direct field accessor of a SimpleSerializable class.
+ *
+ * Accessors are generated at compile time by SimpleAccessorProcessor as
+ * class "&lt;class name&gt;$SimpleAccessor" in the same package. If there
+ * is such an accessor, serializable fields are read and written through it
+ * instead of reflection. Fields are still found by reflection.
+ *
+ * Fields are addressed by their indexes in #fieldNames.
+ */
+@J2SIgnore
+public interface ISimpleFieldAccessor {
+
+	public String[] fieldNames();
+
+	public Object get(Object o, int index);
+
+	public void set(Object o, int index, Object value);
+
+	public int getInt(Object o, int index);
+
+	public void setInt(Object o, int index, int value);
+
+	public long getLong(Object o, int index);
+
+	public void setLong(Object o, int index, long value);
+
+	public boolean getBoolean(Object o, int index);
+
+	public void setBoolean(Object o, int index, boolean value);
+
+	public float getFloat(Object o, int index);
+
+	public void setFloat(Object o, int index, float value);
+
+	public double getDouble(Object o, int index);
+
+	public void setDouble(Object o, int index, double value);
+
+	public short getShort(Object o, int index);
+
+	public void setShort(Object o, int index, short value);
+
+	public byte getByte(Object o, int index);
+
+	public void setByte(Object o, int index, byte value);
+
+	public char getChar(Object o, int index);
+
+	public void setChar(Object o, int index, char value);
+
+}
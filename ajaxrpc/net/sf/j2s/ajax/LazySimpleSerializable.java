@@ -0,0 +1,260 @@
+/*******************************************************************************
+ * Copyright (c) 2007 java2script.org and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Zhou Renjian - initial API and implementation
+ *******************************************************************************/
+
+package net.sf.j2s.ajax;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.j2s.annotation.J2SIgnore;
+
+/**
+ * Lazy view over serialized bytes of a SimpleSerializable object.
+ *
+ * Parsing only records offsets of fields in one pass, without creating
+ * strings, arrays or collections. A field is decoded into the underlying
+ * SimpleSerializable instance in place when it is read for the first
+ * time. Fields containing nested objects or references may reference
+ * other objects or strings of the same message, so reading such a field
+ * decodes the whole object.
+ *
+ * Reading a field of corrupt or truncated data throws RuntimeException,
+ * instead of returning its default value.
+ *
+ * Given bytes must not be modified while the view is in use.
+ */
+@J2SIgnore
+public class LazySimpleSerializable {
+
+	private static final char BASE_CHAR = 'B';
+
+	private static final String EXCEPTION_INVALID_DATA = "Invalid data of Java2Script Simple RPC!";
+
+	private byte[] bytes;
+	private int start;
+	private int end;
+	private int version;
+
+	private SimpleSerializable instance;
+	private SimpleCodecPlan.AliasTable aliasTable;
+
+	private int count;
+	private SimpleCodecPlan.FieldHandler[] handlers = new SimpleCodecPlan.FieldHandler[8];
+	/**
+	 * Indexes of values' type chars, after field names.
+	 */
+	private int[] valueStarts = new int[8];
+	private int[] fieldEnds = new int[8];
+	private boolean[] objectFields = new boolean[8];
+	private boolean[] decoded = new boolean[8];
+	private Map<String, Integer> slots = new HashMap<String, Integer>();
+
+	private boolean allDecoded;
+	private boolean invalid;
+
+	private LazySimpleSerializable() {
+	}
+
+	public static LazySimpleSerializable parse(byte[] bytes) {
+		if (bytes == null) return null;
+		return parse(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Index fields of the serialized object between start (inclusive) and
+	 * end (exclusive).
+	 *
+	 * @param bytes
+	 * @param start
+	 * @param end
+	 * @return lazy view, or null if bytes are not completed or invalid
+	 */
+	public static LazySimpleSerializable parse(byte[] bytes, int start, int end) {
+		if (bytes == null || start < 0 || end > bytes.length || end - start <= 7) return null;
+		SimpleSerializable ss = SimpleSerializable.parseInstance(bytes, start);
+		if (ss == null || ss == SimpleSerializable.ERROR) return null;
+		LazySimpleSerializable lazy = new LazySimpleSerializable();
+		lazy.bytes = bytes;
+		lazy.start = start;
+		lazy.instance = ss;
+		return lazy.index(end) ? lazy : null;
+	}
+
+	private boolean index(int limit) {
+		if ('W' != bytes[start] || 'L' != bytes[start + 1] || 'L' != bytes[start + 2]) return false;
+		version = 100 * bytes[start + 3] + 10 * bytes[start + 4] + bytes[start + 5] - '0' * 111;
+		instance.setSimpleVersion(version);
+		int index = SimpleSerializable.bytesIndexOf(bytes, (byte) '#', start, limit);
+		if (index == -1) return false;
+		index++;
+		if (index >= limit) return false;
+		int size = 0;
+		char nextChar = (char) bytes[index];
+		if (nextChar >= '0' && nextChar <= '9') {
+			int last = index;
+			index = SimpleSerializable.bytesIndexOf(bytes, (byte) '$', last, limit);
+			if (index == -1) return false;
+			for (int i = last; i < index; i++) {
+				char c = (char) bytes[i];
+				if (c < '0' || c > '9') return false;
+				size = size * 10 + (c - '0');
+			}
+			index++;
+			if (index + size > limit) return false;
+		}
+		end = index + size;
+
+		SimpleCodecPlan plan = SimpleCodecPlan.getPlan(instance.getClass());
+		Map<String, String> fieldAliasMap = version >= 202 ? instance.fieldAliasMapping() : null;
+		String[] fMap = fieldAliasMap == null ? instance.fieldMapping() : null;
+		aliasTable = plan.getAliasTable(fieldAliasMap, fMap);
+		int[] counts = new int[4];
+		while (index < end) {
+			int l1 = bytes[index++] - BASE_CHAR;
+			if (l1 < 0 || index + l1 > end) return false;
+			int nameStart = index;
+			index += l1;
+			int valueStart = index;
+			counts[0] = 0;
+			counts[1] = 0;
+			index = SimpleSerializable.skipBytesValue(bytes, index, end, version, counts, null);
+			if (index < 0) return false;
+			SimpleCodecPlan.FieldHandler field = plan.getHandler(aliasTable, bytes, nameStart, l1);
+			if (field == null) continue; // unknown field, ignore it
+			addField(field, valueStart, index, counts[0] > 0 || counts[1] > 0);
+		}
+		return true;
+	}
+
+	private void addField(SimpleCodecPlan.FieldHandler field, int valueStart, int fieldEnd, boolean hasObjects) {
+		if (count == handlers.length) {
+			int length = count * 2;
+			SimpleCodecPlan.FieldHandler[] newHandlers = new SimpleCodecPlan.FieldHandler[length];
+			System.arraycopy(handlers, 0, newHandlers, 0, count);
+			handlers = newHandlers;
+			int[] newStarts = new int[length];
+			System.arraycopy(valueStarts, 0, newStarts, 0, count);
+			valueStarts = newStarts;
+			int[] newEnds = new int[length];
+			System.arraycopy(fieldEnds, 0, newEnds, 0, count);
+			fieldEnds = newEnds;
+			boolean[] newObjects = new boolean[length];
+			System.arraycopy(objectFields, 0, newObjects, 0, count);
+			objectFields = newObjects;
+			boolean[] newDecoded = new boolean[length];
+			System.arraycopy(decoded, 0, newDecoded, 0, count);
+			decoded = newDecoded;
+		}
+		handlers[count] = field;
+		valueStarts[count] = valueStart;
+		fieldEnds[count] = fieldEnd;
+		objectFields[count] = hasObjects;
+		slots.put(field.name, Integer.valueOf(count)); // later one wins, as deserializing does
+		count++;
+	}
+
+	/**
+	 * @return index after the serialized object
+	 */
+	public int getEnd() {
+		return end;
+	}
+
+	/**
+	 * @return instance which fields are decoded into, fields which are not
+	 * read yet are not decoded
+	 */
+	public SimpleSerializable getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @param name field name
+	 * @return whether the field is in the serialized bytes or not. Fields of
+	 * default values are not serialized.
+	 */
+	public boolean hasField(String name) {
+		return slots.containsKey(name);
+	}
+
+	/**
+	 * Get field value, decoding the field if it is not decoded yet.
+	 *
+	 * @param name field name
+	 * @return field value, or null if there is no such field
+	 * @throws RuntimeException if data of the field are invalid
+	 */
+	public Object get(String name) {
+		SimpleCodecPlan.FieldHandler field = SimpleCodecPlan.getPlan(instance.getClass()).handlerMap.get(name);
+		if (field == null) {
+			return null;
+		}
+		Integer slot = slots.get(name);
+		if (slot != null && !decode(slot.intValue())) {
+			throw new RuntimeException(EXCEPTION_INVALID_DATA);
+		}
+		try {
+			return field.get(instance);
+		} catch (IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Decode all fields, in one pass over the whole object. Fields which
+	 * are read already are decoded again.
+	 *
+	 * @return deserialized object, or null if data are invalid
+	 */
+	public SimpleSerializable toSimpleSerializable() {
+		return decodeAll() ? instance : null;
+	}
+
+	private boolean decodeAll() {
+		if (!allDecoded && !invalid) {
+			// object and string references are indexed through the whole object
+			List<SimpleSerializable> ssObjs = new SimpleObjectList(instance);
+			if (instance.deserializeBytes(bytes, start, end, ssObjs) == SimpleSerializable.SIMPLE_OK) {
+				allDecoded = true;
+			} else {
+				invalid = true;
+			}
+		}
+		return !invalid;
+	}
+
+	/**
+	 * @param slot
+	 * @return false if data are invalid
+	 */
+	private boolean decode(int slot) {
+		if (allDecoded || decoded[slot]) {
+			return true;
+		}
+		if (invalid) {
+			return false;
+		}
+		if (objectFields[slot]) {
+			return decodeAll();
+		}
+		List<SimpleSerializable> ssObjs = new SimpleObjectList(instance);
+		int index = instance.deserializeBytesField(bytes, valueStarts[slot], fieldEnds[slot],
+				handlers[slot], version >= 204, ssObjs);
+		if (index != fieldEnds[slot]) {
+			invalid = true;
+			return false;
+		}
+		decoded[slot] = true;
+		return true;
+	}
+
+}
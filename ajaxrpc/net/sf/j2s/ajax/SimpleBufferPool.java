@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2007 java2script.org and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Zhou Renjian - initial API and implementation
+ *******************************************************************************/
+
+package net.sf.j2s.ajax;
+
+import net.sf.j2s.annotation.J2SIgnore;
+
+/**
+ * Thread local buffers for serializing, reused across calls.
+ *
+ * Buffers are acquired and released in stack order, so nested objects
+ * which are serialized into their own builders get builders of their own
+ * depth. Buffers grown larger than #MAX_RETAINED_SIZE are released
+ * instead of being kept, and buffers deeper than #MAX_DEPTH are not
+ * pooled.
+ */
+@J2SIgnore
+final class SimpleBufferPool {
+
+	/**
+	 * Buffers larger than this size are not kept for reusing.
+	 */
+	static final int MAX_RETAINED_SIZE = 256 * 1024;
+
+	private static final int MAX_DEPTH = 8;
+
+	private static final int INITIAL_SIZE = 1024;
+
+	private static final ThreadLocal<SimpleBufferPool> pools = new ThreadLocal<SimpleBufferPool>() {
+
+		@Override
+		protected SimpleBufferPool initialValue() {
+			return new SimpleBufferPool();
+		}
+
+	};
+
+	private SimpleOutputBuffer[] buffers = new SimpleOutputBuffer[MAX_DEPTH];
+
+	private int bufferDepth;
+
+	private StringBuilder[] builders = new StringBuilder[MAX_DEPTH];
+
+	private int builderDepth;
+
+	private SimpleBufferPool() {
+	}
+
+	/**
+	 * @return buffers of current thread
+	 */
+	static SimpleBufferPool get() {
+		return pools.get();
+	}
+
+	/**
+	 * @return empty buffer, which should be released by #releaseBuffer
+	 */
+	SimpleOutputBuffer acquireBuffer() {
+		int depth = bufferDepth++;
+		if (depth >= MAX_DEPTH) {
+			return new SimpleOutputBuffer(INITIAL_SIZE);
+		}
+		SimpleOutputBuffer buffer = buffers[depth];
+		if (buffer == null) {
+			buffer = new SimpleOutputBuffer(INITIAL_SIZE);
+			buffers[depth] = buffer;
+		}
+		return buffer;
+	}
+
+	void releaseBuffer(SimpleOutputBuffer buffer) {
+		int depth = --bufferDepth;
+		if (depth >= MAX_DEPTH) {
+			return;
+		}
+		if (buffer.array().length > MAX_RETAINED_SIZE) {
+			buffers[depth] = null;
+			return;
+		}
+		buffer.reset();
+		buffer.setDictionary(null);
+	}
+
+	/**
+	 * @return empty builder, which should be released by #releaseBuilder
+	 */
+	StringBuilder acquireBuilder() {
+		int depth = builderDepth++;
+		if (depth >= MAX_DEPTH) {
+			return new StringBuilder(INITIAL_SIZE);
+		}
+		StringBuilder builder = builders[depth];
+		if (builder == null) {
+			builder = new StringBuilder(INITIAL_SIZE);
+			builders[depth] = builder;
+		}
+		return builder;
+	}
+
+	void releaseBuilder(StringBuilder builder) {
+		int depth = --builderDepth;
+		if (depth >= MAX_DEPTH) {
+			return;
+		}
+		if (builder.capacity() > MAX_RETAINED_SIZE) {
+			builders[depth] = null;
+			return;
+		}
+		builder.setLength(0);
+	}
+
+}
@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * Copyright (c) 2007 java2script.org and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Zhou Renjian - initial API and implementation
+ *******************************************************************************/
+
+package net.sf.j2s.ajax;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.sf.j2s.annotation.J2SIgnore;
+
+/**
+ * Cache of classes resolved from serialized class names.
+ *
+ * Entries are looked up by the raw class name bytes or chars in the
+ * serialized header, without creating strings. Each entry keeps a bound
+ * default constructor handle, or no handle if the class is missing or can
+ * not be instantiated, so missing classes are not loaded again for every
+ * object.
+ *
+ * Cache is cleared when class loaders, class shorten names or missed
+ * classes are changed.
+ */
+@J2SIgnore
+final class SimpleClassCache {
+
+	/**
+	 * Resolved class of a serialized class name.
+	 */
+	static final class Entry {
+
+		/**
+		 * Class name in serialized data, may be a shorten name.
+		 */
+		final String name;
+
+		final String className;
+
+		/**
+		 * Whether class name is mapped from a shorten name or not.
+		 */
+		final boolean aliased;
+
+		private final int hash;
+
+		/**
+		 * Default constructor, or null if class is missing or can not be
+		 * instantiated.
+		 */
+		private final MethodHandle constructor;
+
+		private final Entry next;
+
+		Entry(String name, String className, int hash, MethodHandle constructor, Entry next) {
+			this.name = name;
+			this.className = className;
+			this.aliased = !className.equals(name);
+			this.hash = hash;
+			this.constructor = constructor;
+			this.next = next;
+		}
+
+		boolean isMissing() {
+			return constructor == null;
+		}
+
+		/**
+		 * @return new instance, or null if class is missing or constructor
+		 * fails
+		 */
+		Object newInstance() {
+			if (constructor == null) {
+				return null;
+			}
+			try {
+				return (Object) constructor.invokeExact();
+			} catch (Error e) {
+				throw e;
+			} catch (Throwable e) {
+				//e.printStackTrace();
+			}
+			return null;
+		}
+
+	}
+
+	/**
+	 * Limit number of entries, so that random class names from bad requests
+	 * do not fill up the memory.
+	 */
+	private static final int MAX_ENTRIES = 4096;
+
+	private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+
+	private static final Object NO_CLASS = new Object();
+
+	private static final Object mutex = new Object();
+
+	/**
+	 * Hash tables of entries, tables[1] for class names with shorten name
+	 * mappings, tables[0] for class names without. Tables are copied on
+	 * writing.
+	 */
+	private static volatile Entry[][] tables = new Entry[][] { new Entry[64], new Entry[64] };
+
+	private static int size;
+
+	private static int generation;
+
+	private static Map<Type, Object> genericClasses = new ConcurrentHashMap<Type, Object>();
+
+	private SimpleClassCache() {
+	}
+
+	/**
+	 * @param name
+	 * @param alias whether to map shorten name to full class name or not
+	 * @return entry for given class name
+	 */
+	static Entry getEntry(String name, boolean alias) {
+		return getEntry(name, 0, name.length(), alias);
+	}
+
+	/**
+	 * @param str
+	 * @param start start index of class name
+	 * @param end end index of class name
+	 * @param alias whether to map shorten name to full class name or not
+	 * @return entry for given class name
+	 */
+	static Entry getEntry(String str, int start, int end, boolean alias) {
+		int length = end - start;
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + str.charAt(i);
+		}
+		Entry[] table = tables[alias ? 1 : 0];
+		for (Entry e = table[hash & (table.length - 1)]; e != null; e = e.next) {
+			if (e.hash == hash && e.name.length() == length && str.regionMatches(start, e.name, 0, length)) {
+				return e;
+			}
+		}
+		return resolve(str.substring(start, end), hash, alias, true);
+	}
+
+	/**
+	 * @param bytes
+	 * @param start start index of class name
+	 * @param end end index of class name
+	 * @param alias whether to map shorten name to full class name or not
+	 * @return entry for given class name
+	 */
+	static Entry getEntry(byte[] bytes, int start, int end, boolean alias) {
+		int length = end - start;
+		int hash = 0;
+		boolean ascii = true;
+		for (int i = start; i < end; i++) {
+			byte b = bytes[i];
+			if (b < 0) {
+				ascii = false;
+			}
+			hash = 31 * hash + b;
+		}
+		if (!ascii) { // not a valid class name, not cached
+			String name = new String(bytes, start, length);
+			return resolve(name, name.hashCode(), alias, false);
+		}
+		Entry[] table = tables[alias ? 1 : 0];
+		for (Entry e = table[hash & (table.length - 1)]; e != null; e = e.next) {
+			if (e.hash == hash && e.name.length() == length && matches(e.name, bytes, start, length)) {
+				return e;
+			}
+		}
+		return resolve(new String(bytes, start, length, SimpleSerializable.ISO_8859_1), hash, alias, true);
+	}
+
+	private static boolean matches(String name, byte[] bytes, int start, int length) {
+		for (int i = 0; i < length; i++) {
+			if (name.charAt(i) != bytes[start + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Entry resolve(String name, int hash, boolean alias, boolean cached) {
+		int gen;
+		synchronized (mutex) {
+			gen = generation;
+		}
+		String className = name;
+		if (alias) {
+			String fullName = SimpleSerializable.getClassFullName(name);
+			if (fullName != null) {
+				className = fullName;
+			}
+		}
+		MethodHandle constructor = null;
+		Class<?> clazz = SimpleSerializable.loadSimpleClass(className);
+		if (clazz != null) {
+			try {
+				constructor = MethodHandles.lookup().unreflectConstructor(clazz.getDeclaredConstructor()).asType(CONSTRUCTOR_TYPE);
+			} catch (Exception e) {
+				//e.printStackTrace();
+			}
+		}
+		if (!cached) {
+			return new Entry(name, className, hash, constructor, null);
+		}
+		synchronized (mutex) {
+			int index = alias ? 1 : 0;
+			Entry[] table = tables[index];
+			for (Entry e = table[hash & (table.length - 1)]; e != null; e = e.next) {
+				if (e.hash == hash && e.name.equals(name)) {
+					return e; // resolved by other thread
+				}
+			}
+			if (gen != generation || size >= MAX_ENTRIES) {
+				return new Entry(name, className, hash, constructor, null);
+			}
+			int length = table.length;
+			Entry[] newTable;
+			if (size * 2 >= length) {
+				length <<= 1;
+				newTable = new Entry[length];
+				for (int i = 0; i < table.length; i++) {
+					for (Entry e = table[i]; e != null; e = e.next) {
+						int slot = e.hash & (length - 1);
+						newTable[slot] = new Entry(e.name, e.className, e.hash, e.constructor, newTable[slot]);
+					}
+				}
+			} else {
+				newTable = table.clone(); // chains are immutable, and can be shared
+			}
+			int slot = hash & (length - 1);
+			Entry entry = new Entry(name, className, hash, constructor, newTable[slot]);
+			newTable[slot] = entry;
+			Entry[][] newTables = tables.clone();
+			newTables[index] = newTable;
+			tables = newTables;
+			size++;
+			return entry;
+		}
+	}
+
+	/**
+	 * Get class of given generic type, as Class#forName by type name.
+	 *
+	 * @param type
+	 * @return class or null
+	 */
+	static Class<?> getGenericClass(Type type) {
+		Object clazz = genericClasses.get(type);
+		if (clazz == null) {
+			String typeName = type.toString();
+			if (typeName.startsWith("class ")) {
+				typeName = typeName.substring(6);
+			}
+			try {
+				clazz = Class.forName(typeName);
+			} catch (Exception e) {
+				clazz = NO_CLASS;
+			}
+			genericClasses.put(type, clazz);
+		}
+		return clazz == NO_CLASS ? null : (Class<?>) clazz;
+	}
+
+	/**
+	 * Clear all resolved classes.
+	 */
+	static void clear() {
+		synchronized (mutex) {
+			generation++;
+			size = 0;
+			tables = new Entry[][] { new Entry[64], new Entry[64] };
+		}
+		genericClasses.clear();
+	}
+
+}
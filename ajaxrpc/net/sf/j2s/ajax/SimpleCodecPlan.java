@@ -0,0 +1,996 @@
+/*******************************************************************************
+ * Copyright (c) 2007 java2script.org and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Zhou Renjian - initial API and implementation
+ *******************************************************************************/
+
+package net.sf.j2s.ajax;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.sf.j2s.annotation.J2SIgnore;
+
+/**
+ * Compiled serialization plan of a SimpleSerializable class.
+ *
+ * Field list, type tags, generic information and alias tables are
+ * computed once per class, so serializing or deserializing an object
+ * only switches on the precomputed tag instead of walking the type
+ * if-chain and the alias mappings for every field. Fields are accessed
+ * through the generated ISimpleFieldAccessor if there is one, or else
+ * through method handles with primitive signatures, so reading or
+ * writing primitive fields does not box values. Serializing code is not
+ * generated per class, all classes are serialized by SimpleSerializable
+ * through their plans.
+ */
+@J2SIgnore
+final class SimpleCodecPlan {
+
+	static final int TYPE_UNKNOWN = 0;
+	static final int TYPE_STRING = 1;
+	static final int TYPE_INT = 2;
+	static final int TYPE_OBJECT = 3;
+	static final int TYPE_LONG = 4;
+	static final int TYPE_BOOLEAN = 5;
+	static final int TYPE_FLOAT = 6;
+	static final int TYPE_DOUBLE = 7;
+	static final int TYPE_SHORT = 8;
+	static final int TYPE_BYTE = 9;
+	static final int TYPE_CHAR = 10;
+	static final int TYPE_ENUM = 11;
+	static final int TYPE_BYTES = 12;
+	static final int TYPE_STRINGS = 13;
+	static final int TYPE_OBJECTS = 14;
+	static final int TYPE_INTS = 15;
+	static final int TYPE_LONGS = 16;
+	static final int TYPE_BOOLEANS = 17;
+	static final int TYPE_FLOATS = 18;
+	static final int TYPE_DOUBLES = 19;
+	static final int TYPE_SHORTS = 20;
+	static final int TYPE_CHARS = 21;
+	static final int TYPE_ENUMS = 22;
+	static final int TYPE_LIST = 23;
+	static final int TYPE_SET = 24;
+	static final int TYPE_QUEUE = 25;
+	static final int TYPE_COLLECTION = 26;
+	static final int TYPE_MAP = 27;
+
+	private static final int MAX_CACHED_TABLES = 4;
+
+	/**
+	 * Number of "$" prefixed names indexed for each field.
+	 */
+	private static final int MAX_PREFIXED_NAMES = 3;
+
+	private static Map<Class<?>, SimpleCodecPlan> plans = new ConcurrentHashMap<Class<?>, SimpleCodecPlan>();
+
+	private static Map<Class<?>, Integer> itemTypes = new ConcurrentHashMap<Class<?>, Integer>();
+
+	/**
+	 * Field handler, with type tag, generic information and accessors.
+	 */
+	static final class FieldHandler {
+
+		final String name;
+		final Field field;
+		final Class<?> fieldType;
+		final Type genericType;
+		final int type;
+		/**
+		 * Generic type arguments of collection or map fields, may be null.
+		 */
+		final Type[] typeArguments;
+		/**
+		 * Component type of array fields, may be null.
+		 */
+		final Class<?> componentType;
+		/**
+		 * Enum constants by names, for enum and enum array fields.
+		 */
+		final Map<String, Enum<?>> enumConstants;
+		/**
+		 * JSON item type of List or Set fields: TYPE_STRING, TYPE_OBJECT
+		 * or TYPE_UNKNOWN. -1 means that the field is not a List or Set.
+		 */
+		final int jsonItemType;
+		/**
+		 * ByteBuffer field, which is serialized as byte[] and deserialized
+		 * as read-only buffer.
+		 */
+		final boolean byteBuffer;
+		/**
+		 * Field getter of type (Object)T, may be null.
+		 */
+		private final MethodHandle getter;
+		/**
+		 * Field setter of type (Object, T)void, may be null.
+		 */
+		private final MethodHandle setter;
+		/**
+		 * Generated accessor, may be null.
+		 */
+		private final ISimpleFieldAccessor accessor;
+		private final int accessorIndex;
+		private final boolean accessorWritable;
+
+		FieldHandler(Field field, ISimpleFieldAccessor accessor, int accessorIndex) {
+			this.name = field.getName();
+			this.field = field;
+			this.fieldType = field.getType();
+			this.genericType = field.getGenericType();
+			this.type = fieldTypeOf(fieldType);
+			Type[] args = null;
+			if (genericType instanceof ParameterizedType) {
+				args = ((ParameterizedType) genericType).getActualTypeArguments();
+			}
+			this.typeArguments = args;
+			this.componentType = fieldType.getComponentType();
+			Class<?> enumType = null;
+			if (type == TYPE_ENUM) {
+				enumType = fieldType;
+			} else if (type == TYPE_ENUMS) {
+				enumType = componentType;
+			}
+			this.enumConstants = enumType == null ? null : enumMap(enumType);
+			int jsonType = -1;
+			if (List.class.isAssignableFrom(fieldType) || Set.class.isAssignableFrom(fieldType)) {
+				Class<?> itemClass = fieldType;
+				if (args != null && args.length > 0) {
+					itemClass = SimpleSerializable.getRawType(args[0]);
+				}
+				if (itemClass == String.class) {
+					jsonType = TYPE_STRING;
+				} else if (SimpleSerializable.isSubclassOf(itemClass, SimpleSerializable.class)
+						|| itemClass == SimpleSerializable.class) {
+					jsonType = TYPE_OBJECT;
+				} else {
+					jsonType = TYPE_UNKNOWN;
+				}
+			}
+			this.jsonItemType = jsonType;
+			this.byteBuffer = fieldType == ByteBuffer.class;
+			MethodHandle fieldGetter = null;
+			MethodHandle fieldSetter = null;
+			Class<?> handleType = fieldType.isPrimitive() ? fieldType : Object.class;
+			try {
+				MethodHandles.Lookup lookup = MethodHandles.lookup();
+				fieldGetter = lookup.unreflectGetter(field).asType(MethodType.methodType(handleType, Object.class));
+				if (!Modifier.isFinal(field.getModifiers())) {
+					fieldSetter = lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, handleType));
+				}
+			} catch (Exception e) {
+				// fall back to reflection
+			}
+			this.getter = fieldGetter;
+			this.setter = fieldSetter;
+			this.accessor = accessorIndex >= 0 ? accessor : null;
+			this.accessorIndex = accessorIndex;
+			this.accessorWritable = this.accessor != null && !Modifier.isFinal(field.getModifiers());
+		}
+
+		Object get(Object o) throws IllegalAccessException {
+			if (accessor != null && !fieldType.isPrimitive()) {
+				return accessor.get(o, accessorIndex);
+			}
+			if (getter != null && !fieldType.isPrimitive()) {
+				try {
+					return (Object) getter.invokeExact(o);
+				} catch (Throwable e) {
+					throw unchecked(e);
+				}
+			}
+			return field.get(o);
+		}
+
+		void set(Object o, Object value) throws IllegalAccessException {
+			if (byteBuffer && value instanceof byte[]) {
+				value = ByteBuffer.wrap((byte[]) value).asReadOnlyBuffer();
+			}
+			if (accessorWritable && !fieldType.isPrimitive()) {
+				try {
+					accessor.set(o, accessorIndex, value);
+					return;
+				} catch (ClassCastException e) {
+					throw new IllegalArgumentException(e);
+				}
+			}
+			if (setter != null && !fieldType.isPrimitive()) {
+				try {
+					setter.invokeExact(o, value);
+					return;
+				} catch (ClassCastException e) {
+					throw new IllegalArgumentException(e);
+				} catch (Throwable e) {
+					throw unchecked(e);
+				}
+			}
+			field.set(o, value);
+		}
+
+		int getInt(Object o) throws IllegalAccessException {
+			if (accessor != null && type == TYPE_INT) {
+				return accessor.getInt(o, accessorIndex);
+			}
+			if (getter != null && type == TYPE_INT) {
+				try {
+					return (int) getter.invokeExact(o);
+				} catch (Throwable e) {
+					throw unchecked(e);
+				}
+			}
+			return field.getInt(o);
+		}
+
+		void setInt(Object o, int value) throws IllegalAccessException {
+			if (accessorWritable && type == TYPE_INT) {
+				accessor.setInt(o, accessorIndex, value);
+				return;
+			}
+			if (setter != null && type == TYPE_INT) {
+				try {
+					setter.invokeExact(o, value);
+					return;
+				} catch (Throwable e) {
+					throw unchecked(e);
+				}
+			}
+			field.setInt(o, value);
+		}
+
+		long getLong(Object o) throws IllegalAccessException {
+			if (accessor != null && type == TYPE_LONG) {
+				return accessor.getLong(o, accessorIndex);
+			}
+			if (getter != null && type == TYPE_LONG) {
+				try {
+					return (long) getter.invokeExact(o);
+				} catch (Throwable e) {
+					throw unchecked(e);
+				}
+			}
+			return field.getLong(o);
+		}
+
+		void setLong(Object o, long value) throws IllegalAccessException {
+			if (accessorWritable && type == TYPE_LONG) {
+				accessor.setLong(o, accessorIndex, value);
+				return;
+			}
+			if (setter != null && type == TYPE_LONG) {
+				try {
+					setter.invokeExact(o, value);
+					return;
+				} catch (Throwable e) {
+					throw unchecked(e);
+				}
+			}
+			field.setLong(o, value);
+		}
+
+		boolean getBoolean(Object o) throws IllegalAccessException {
+			if (accessor != null && type == TYPE_BOOLEAN) {
+				return accessor.getBoolean(o, accessorIndex);
+			}
+			if (getter != null && type == TYPE_BOOLEAN) {
+				try {
+					return (boolean) getter.invokeExact(o);
+				} catch (Throwable e) {
+					throw unchecked(e);
+				}
+			}
+			return field.getBoolean(o);
+		}
+
+		void setBoolean(Object o, boolean value) throws IllegalAccessException {
+			if (accessorWritable && type == TYPE_BOOLEAN) {
+				accessor.setBoolean(o, accessorIndex, value);
+				return;
+			}
+			if (setter != null && type == TYPE_BOOLEAN) {
+				try {
+					setter.invokeExact(o, value);
+					return;
+				} catch (Throwable e) {
+					throw unchecked(e);
+				}
+			}
+			field.setBoolean(o, value);
+		}
+
+		float getFloat(Object o) throws IllegalAccessException {
+			if (accessor != null && type == TYPE_FLOAT) {
+				return accessor.getFloat(o, accessorIndex);
+			}
+			if (getter != null && type == TYPE_FLOAT) {
+				try {
+					return (float) getter.invokeExact(o);
+				} catch (Throwable e) {
+					throw unchecked(e);
+				}
+			}
+			return field.getFloat(o);
+		}
+
+		void setFloat(Object o, float value) throws IllegalAccessException {
+			if (accessorWritable && type == TYPE_FLOAT) {
+				accessor.setFloat(o, accessorIndex, value);
+				return;
+			}
+			if (setter != null && type == TYPE_FLOAT) {
+				try {
+					setter.invokeExact(o, value);
+					return;
+				} catch (Throwable e) {
+					throw unchecked(e);
+				}
+			}
+			field.setFloat(o, value);
+		}
+
+		double getDouble(Object o) throws IllegalAccessException {
+			if (accessor != null && type == TYPE_DOUBLE) {
+				return accessor.getDouble(o, accessorIndex);
+			}
+			if (getter != null && type == TYPE_DOUBLE) {
+				try {
+					return (double) getter.invokeExact(o);
+				} catch (Throwable e) {
+					throw unchecked(e);
+				}
+			}
+			return field.getDouble(o);
+		}
+
+		void setDouble(Object o, double value) throws IllegalAccessException {
+			if (accessorWritable && type == TYPE_DOUBLE) {
+				accessor.setDouble(o, accessorIndex, value);
+				return;
+			}
+			if (setter != null && type == TYPE_DOUBLE) {
+				try {
+					setter.invokeExact(o, value);
+					return;
+				} catch (Throwable e) {
+					throw unchecked(e);
+				}
+			}
+			field.setDouble(o, value);
+		}
+
+		short getShort(Object o) throws IllegalAccessException {
+			if (accessor != null && type == TYPE_SHORT) {
+				return accessor.getShort(o, accessorIndex);
+			}
+			if (getter != null && type == TYPE_SHORT) {
+				try {
+					return (short) getter.invokeExact(o);
+				} catch (Throwable e) {
+					throw unchecked(e);
+				}
+			}
+			return field.getShort(o);
+		}
+
+		void setShort(Object o, short value) throws IllegalAccessException {
+			if (accessorWritable && type == TYPE_SHORT) {
+				accessor.setShort(o, accessorIndex, value);
+				return;
+			}
+			if (setter != null && type == TYPE_SHORT) {
+				try {
+					setter.invokeExact(o, value);
+					return;
+				} catch (Throwable e) {
+					throw unchecked(e);
+				}
+			}
+			field.setShort(o, value);
+		}
+
+		byte getByte(Object o) throws IllegalAccessException {
+			if (accessor != null && type == TYPE_BYTE) {
+				return accessor.getByte(o, accessorIndex);
+			}
+			if (getter != null && type == TYPE_BYTE) {
+				try {
+					return (byte) getter.invokeExact(o);
+				} catch (Throwable e) {
+					throw unchecked(e);
+				}
+			}
+			return field.getByte(o);
+		}
+
+		void setByte(Object o, byte value) throws IllegalAccessException {
+			if (accessorWritable && type == TYPE_BYTE) {
+				accessor.setByte(o, accessorIndex, value);
+				return;
+			}
+			if (setter != null && type == TYPE_BYTE) {
+				try {
+					setter.invokeExact(o, value);
+					return;
+				} catch (Throwable e) {
+					throw unchecked(e);
+				}
+			}
+			field.setByte(o, value);
+		}
+
+		char getChar(Object o) throws IllegalAccessException {
+			if (accessor != null && type == TYPE_CHAR) {
+				return accessor.getChar(o, accessorIndex);
+			}
+			if (getter != null && type == TYPE_CHAR) {
+				try {
+					return (char) getter.invokeExact(o);
+				} catch (Throwable e) {
+					throw unchecked(e);
+				}
+			}
+			return field.getChar(o);
+		}
+
+		void setChar(Object o, char value) throws IllegalAccessException {
+			if (accessorWritable && type == TYPE_CHAR) {
+				accessor.setChar(o, accessorIndex, value);
+				return;
+			}
+			if (setter != null && type == TYPE_CHAR) {
+				try {
+					setter.invokeExact(o, value);
+					return;
+				} catch (Throwable e) {
+					throw unchecked(e);
+				}
+			}
+			field.setChar(o, value);
+		}
+
+		/**
+		 * @param name
+		 * @return enum constant of the given name, or null
+		 */
+		Enum<?> enumOf(String name) {
+			if (enumConstants == null || name == null) {
+				return null;
+			}
+			return enumConstants.get(name);
+		}
+
+		private static RuntimeException unchecked(Throwable e) {
+			if (e instanceof RuntimeException) {
+				return (RuntimeException) e;
+			}
+			if (e instanceof Error) {
+				throw (Error) e;
+			}
+			return new RuntimeException(e);
+		}
+
+	}
+
+	/**
+	 * Field names in the wire format, in the order of handlers.
+	 */
+	static final class NameTable {
+
+		final Object nameMapping;
+		final Object arrayMapping;
+		final String[] names;
+		/**
+		 * Length char and name, ready to be written into bytes stream.
+		 */
+		final byte[][] nameBytes;
+
+		NameTable(Object nameMapping, Object arrayMapping, String[] names) {
+			this.nameMapping = nameMapping;
+			this.arrayMapping = arrayMapping;
+			this.names = names;
+			this.nameBytes = new byte[names.length][];
+			for (int i = 0; i < names.length; i++) {
+				String name = names[i];
+				int length = name.length();
+				byte[] bs = new byte[length + 1];
+				bs[0] = (byte) ('B' + length);
+				for (int j = 0; j < length; j++) {
+					bs[j + 1] = (byte) name.charAt(j);
+				}
+				nameBytes[i] = bs;
+			}
+		}
+
+	}
+
+	/**
+	 * Field handlers by names in the wire format.
+	 *
+	 * Besides the map by names, handlers are also indexed by the ASCII bytes
+	 * of names in an open addressing hash table, so that field names in
+	 * bytes are resolved without creating strings.
+	 */
+	static final class AliasTable {
+
+		final Object aliasMapping;
+		final Object arrayMapping;
+		final Map<String, FieldHandler> handlers;
+
+		private final byte[][] keys;
+		private final FieldHandler[] values;
+		private final int mask;
+
+		AliasTable(Object aliasMapping, Object arrayMapping, Map<String, FieldHandler> handlers) {
+			this.aliasMapping = aliasMapping;
+			this.arrayMapping = arrayMapping;
+			this.handlers = handlers;
+			int capacity = 16;
+			while (capacity < handlers.size() * 2) {
+				capacity <<= 1;
+			}
+			this.keys = new byte[capacity][];
+			this.values = new FieldHandler[capacity];
+			this.mask = capacity - 1;
+			for (Map.Entry<String, FieldHandler> entry : handlers.entrySet()) {
+				String name = entry.getKey();
+				int length = name.length();
+				byte[] key = new byte[length];
+				int hash = 0;
+				for (int i = 0; i < length; i++) {
+					char c = name.charAt(i);
+					if (c >= 0x80) {
+						key = null; // not in bytes format, resolved by name
+						break;
+					}
+					key[i] = (byte) c;
+					hash = 31 * hash + c;
+				}
+				if (key == null) {
+					continue;
+				}
+				int slot = hash & mask;
+				while (keys[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = key;
+				values[slot] = entry.getValue();
+			}
+		}
+
+		/**
+		 * @return handler, or null if name is not in the table
+		 */
+		FieldHandler get(byte[] bytes, int start, int length, int hash) {
+			int slot = hash & mask;
+			byte[] key;
+			while ((key = keys[slot]) != null) {
+				if (key.length == length) {
+					int i = 0;
+					while (i < length && key[i] == bytes[start + i]) {
+						i++;
+					}
+					if (i == length) {
+						return values[slot];
+					}
+				}
+				slot = (slot + 1) & mask;
+			}
+			return null;
+		}
+
+	}
+
+	final Class<?> clazz;
+
+	final FieldHandler[] handlers;
+
+	final Map<String, Field> fields;
+
+	final Map<String, FieldHandler> handlerMap;
+
+	private volatile NameTable[] nameTables;
+
+	private volatile AliasTable[] aliasTables;
+
+	private SimpleCodecPlan(Class<?> clazz) {
+		this.clazz = clazz;
+		// Use LinkedHashMap so that we preserve insertion order
+		Map<String, Field> allFields = new LinkedHashMap<String, Field>();
+		Class<?> oClazz = clazz;
+		while (oClazz != null && !"net.sf.j2s.ajax.SimpleSerializable".equals(oClazz.getName())) {
+			Field[] clazzFields = oClazz.getDeclaredFields();
+			for (int i = 0; i < clazzFields.length; i++) {
+				Field f = clazzFields[i];
+				int modifiers = f.getModifiers();
+				if ((modifiers & Modifier.PUBLIC) != 0
+						&& (modifiers & (Modifier.TRANSIENT | Modifier.STATIC)) == 0) {
+					allFields.put(f.getName(), f);
+				}
+			}
+			oClazz = oClazz.getSuperclass();
+		}
+		this.fields = allFields;
+		this.handlers = new FieldHandler[allFields.size()];
+		this.handlerMap = new HashMap<String, FieldHandler>(allFields.size() * 2);
+		ISimpleFieldAccessor accessor = loadAccessor(clazz);
+		Map<String, Integer> accessorIndexes = new HashMap<String, Integer>();
+		if (accessor != null) {
+			String[] accessorFields = accessor.fieldNames();
+			for (int i = 0; i < accessorFields.length; i++) {
+				accessorIndexes.put(accessorFields[i], Integer.valueOf(i));
+			}
+		}
+		int index = 0;
+		for (Field f : allFields.values()) {
+			Integer accessorIndex = accessorIndexes.get(f.getName());
+			FieldHandler handler = new FieldHandler(f, accessor, accessorIndex == null ? -1 : accessorIndex.intValue());
+			handlers[index++] = handler;
+			handlerMap.put(handler.name, handler);
+		}
+		String[] plainNames = new String[handlers.length];
+		for (int i = 0; i < handlers.length; i++) {
+			plainNames[i] = handlers[i].name;
+		}
+		this.nameTables = new NameTable[] { new NameTable(null, null, plainNames) };
+		this.aliasTables = new AliasTable[] { new AliasTable(null, null, handlerMap) };
+	}
+
+	/**
+	 * Load accessor generated by SimpleAccessorProcessor.
+	 *
+	 * @param clazz
+	 * @return accessor, or null if there is no generated accessor
+	 */
+	private static ISimpleFieldAccessor loadAccessor(Class<?> clazz) {
+		try {
+			Class<?> accessorClass = Class.forName(clazz.getName() + "$SimpleAccessor", true, clazz.getClassLoader());
+			if (ISimpleFieldAccessor.class.isAssignableFrom(accessorClass)) {
+				return (ISimpleFieldAccessor) accessorClass.newInstance();
+			}
+		} catch (Throwable e) {
+			// no generated accessor
+		}
+		return null;
+	}
+
+	static SimpleCodecPlan getPlan(Class<?> clazz) {
+		SimpleCodecPlan plan = plans.get(clazz);
+		if (plan == null) {
+			plan = new SimpleCodecPlan(clazz);
+			plans.put(clazz, plan);
+		}
+		return plan;
+	}
+
+	/**
+	 * Get field names in the wire format, in the order of handlers.
+	 *
+	 * @param fieldNameMap field name -> alias, see SimpleSerializable#fieldNameMapping
+	 * @param fMap field, alias, field, alias ..., see SimpleSerializable#fieldMapping
+	 * @return
+	 */
+	NameTable getNameTable(Map<String, String> fieldNameMap, String[] fMap) {
+		if (fieldNameMap != null) {
+			fMap = null; // fieldNameMap takes precedence
+		} else if (fMap != null && fMap.length <= 1) {
+			fMap = null;
+		}
+		NameTable[] tables = nameTables;
+		for (int i = 0; i < tables.length; i++) {
+			NameTable t = tables[i];
+			if (t.nameMapping == fieldNameMap && t.arrayMapping == fMap) {
+				return t;
+			}
+		}
+		String[] names = new String[handlers.length];
+		for (int i = 0; i < handlers.length; i++) {
+			String name = handlers[i].name;
+			if (fieldNameMap != null) {
+				String alias = fieldNameMap.get(name);
+				if (alias != null && alias.length() > 0) {
+					name = alias;
+				}
+			} else if (fMap != null) {
+				for (int j = 0; j < fMap.length / 2; j++) {
+					if (name.equals(fMap[j + j])) {
+						String newName = fMap[j + j + 1];
+						if (newName != null && newName.length() > 0) {
+							name = newName;
+						}
+						break;
+					}
+				}
+			}
+			names[i] = name;
+		}
+		NameTable table = new NameTable(fieldNameMap, fMap, names);
+		nameTables = append(tables, table, new NameTable[Math.min(tables.length + 1, MAX_CACHED_TABLES)]);
+		return table;
+	}
+
+	/**
+	 * Get handlers by field names in the wire format.
+	 *
+	 * @param fieldAliasMap alias -> field name, see SimpleSerializable#fieldAliasMapping
+	 * @param fMap field, alias, field, alias ..., see SimpleSerializable#fieldMapping
+	 * @return
+	 */
+	AliasTable getAliasTable(Map<String, String> fieldAliasMap, String[] fMap) {
+		if (fieldAliasMap != null) {
+			fMap = null; // fieldAliasMap takes precedence
+		} else if (fMap != null && fMap.length <= 1) {
+			fMap = null;
+		}
+		AliasTable[] tables = aliasTables;
+		for (int i = 0; i < tables.length; i++) {
+			AliasTable t = tables[i];
+			if (t.aliasMapping == fieldAliasMap && t.arrayMapping == fMap) {
+				return t;
+			}
+		}
+		Map<String, FieldHandler> wireHandlers = new HashMap<String, FieldHandler>(handlerMap);
+		if (fieldAliasMap != null) {
+			for (String alias : fieldAliasMap.keySet()) {
+				putAlias(wireHandlers, alias, fieldAliasMap, null);
+			}
+		} else if (fMap != null) {
+			for (int j = 0; j < fMap.length / 2; j++) {
+				String alias = fMap[j + j + 1];
+				if (alias != null) {
+					putAlias(wireHandlers, alias, null, fMap);
+				}
+			}
+		}
+		// Names prefixed with "$" are resolved to fields without "$"
+		for (int i = 0; i < handlers.length; i++) {
+			String name = handlers[i].name;
+			for (int j = 0; j < MAX_PREFIXED_NAMES; j++) {
+				name = "$" + name;
+				if (!wireHandlers.containsKey(name)) {
+					FieldHandler handler = resolve(name, fieldAliasMap, fMap);
+					if (handler != null) {
+						wireHandlers.put(name, handler);
+					}
+				}
+			}
+		}
+		AliasTable table = new AliasTable(fieldAliasMap, fMap, wireHandlers);
+		aliasTables = append(tables, table, new AliasTable[Math.min(tables.length + 1, MAX_CACHED_TABLES)]);
+		return table;
+	}
+
+	private void putAlias(Map<String, FieldHandler> wireHandlers, String alias,
+			Map<String, String> fieldAliasMap, String[] fMap) {
+		FieldHandler handler = resolve(alias, fieldAliasMap, fMap);
+		if (handler != null) {
+			wireHandlers.put(alias, handler);
+		} else {
+			wireHandlers.remove(alias);
+		}
+	}
+
+	/**
+	 * Find handler for the given field name in the wire format.
+	 *
+	 * @param table
+	 * @param wireName
+	 * @return handler or null if there is no such field
+	 */
+	FieldHandler getHandler(AliasTable table, String wireName) {
+		FieldHandler handler = table.handlers.get(wireName);
+		if (handler == null && wireName.startsWith("$")) {
+			Map<String, String> fieldAliasMap = null;
+			if (table.aliasMapping instanceof Map<?, ?>) {
+				@SuppressWarnings("unchecked")
+				Map<String, String> aliasMap = (Map<String, String>) table.aliasMapping;
+				fieldAliasMap = aliasMap;
+			}
+			handler = resolve(wireName, fieldAliasMap, (String[]) table.arrayMapping);
+		}
+		return handler;
+	}
+
+	/**
+	 * Find handler for the given field name bytes in the wire format.
+	 *
+	 * @param table
+	 * @param bytes
+	 * @param start
+	 * @param length
+	 * @return handler or null if there is no such field
+	 */
+	FieldHandler getHandler(AliasTable table, byte[] bytes, int start, int length) {
+		int hash = 0;
+		boolean ascii = true;
+		for (int i = start; i < start + length; i++) {
+			byte b = bytes[i];
+			if (b < 0) {
+				ascii = false;
+			}
+			hash = 31 * hash + b;
+		}
+		if (ascii) {
+			FieldHandler handler = table.get(bytes, start, length, hash);
+			if (handler != null || length == 0 || bytes[start] != '$') {
+				return handler;
+			}
+		}
+		return getHandler(table, new String(bytes, start, length));
+	}
+
+	private FieldHandler resolve(String fieldName, Map<String, String> fieldAliasMap, String[] fMap) {
+		if (fieldAliasMap != null) {
+			String trueName = fieldAliasMap.get(fieldName);
+			if (trueName != null && trueName.length() > 0) {
+				fieldName = trueName;
+			}
+		} else if (fMap != null && fMap.length > 1) {
+			for (int i = 0; i < fMap.length / 2; i++) {
+				if (fieldName.equals(fMap[i + i + 1])) {
+					String trueName = fMap[i + i];
+					if (trueName != null && trueName.length() > 0) {
+						fieldName = trueName;
+					}
+					break;
+				}
+			}
+		}
+		while (fieldName.startsWith("$")) {
+			if (handlerMap.containsKey(fieldName)) {
+				break;
+			}
+			fieldName = fieldName.substring(1);
+		}
+		return handlerMap.get(fieldName);
+	}
+
+	private static <T> T[] append(T[] tables, T table, T[] newTables) {
+		// Keep the latest tables only
+		int length = newTables.length;
+		newTables[0] = table;
+		System.arraycopy(tables, 0, newTables, 1, length - 1);
+		return newTables;
+	}
+
+	static Map<String, Enum<?>> enumMap(Class<?> enumType) {
+		Object[] constants = enumType.getEnumConstants();
+		if (constants == null) {
+			return null;
+		}
+		Map<String, Enum<?>> map = new HashMap<String, Enum<?>>(constants.length * 2);
+		for (int i = 0; i < constants.length; i++) {
+			Enum<?> e = (Enum<?>) constants[i];
+			map.put(e.name(), e);
+		}
+		return map;
+	}
+
+	/**
+	 * Type tag of a declared field type. Boxed types are not supported.
+	 *
+	 * @param type
+	 * @return
+	 */
+	static int fieldTypeOf(Class<?> type) {
+		if (type == String.class) {
+			return TYPE_STRING;
+		} else if (type == int.class) {
+			return TYPE_INT;
+		} else if (SimpleSerializable.isSubclassOf(type, SimpleSerializable.class) || type == SimpleSerializable.class) {
+			return TYPE_OBJECT;
+		} else if (type == long.class) {
+			return TYPE_LONG;
+		} else if (type == boolean.class) {
+			return TYPE_BOOLEAN;
+		} else if (type.isArray()) {
+			if (type == byte[].class) {
+				return TYPE_BYTES;
+			} else if (type == String[].class) {
+				return TYPE_STRINGS;
+			} else if (SimpleSerializable.isSubclassOf(type, SimpleSerializable[].class) || type == SimpleSerializable[].class) {
+				return TYPE_OBJECTS;
+			} else if (type == int[].class) {
+				return TYPE_INTS;
+			} else if (type == long[].class) {
+				return TYPE_LONGS;
+			} else if (type == boolean[].class) {
+				return TYPE_BOOLEANS;
+			} else if (type == float[].class) {
+				return TYPE_FLOATS;
+			} else if (type == double[].class) {
+				return TYPE_DOUBLES;
+			} else if (type == short[].class) {
+				return TYPE_SHORTS;
+			} else if (type == char[].class) {
+				return TYPE_CHARS;
+			} else if (type.getComponentType().isEnum()) {
+				return TYPE_ENUMS;
+			}
+			return TYPE_UNKNOWN; // others unknown or unsupported types!
+		} else if (type == ByteBuffer.class) {
+			return TYPE_BYTES;
+		} else if (SimpleSerializable.isSubInterfaceOf(type, Collection.class)) {
+			if (SimpleSerializable.isSubInterfaceOf(type, List.class)) {
+				return TYPE_LIST;
+			} else if (SimpleSerializable.isSubInterfaceOf(type, Set.class)) {
+				return TYPE_SET;
+			} else if (SimpleSerializable.isSubInterfaceOf(type, Queue.class)) {
+				return TYPE_QUEUE;
+			}
+			return TYPE_COLLECTION; // Other collections
+		} else if (SimpleSerializable.isSubInterfaceOf(type, Map.class)) {
+			return TYPE_MAP;
+		} else if (type.isEnum()) {
+			return TYPE_ENUM;
+		} else if (type == float.class) {
+			return TYPE_FLOAT;
+		} else if (type == double.class) {
+			return TYPE_DOUBLE;
+		} else if (type == short.class) {
+			return TYPE_SHORT;
+		} else if (type == byte.class) {
+			return TYPE_BYTE;
+		} else if (type == char.class) {
+			return TYPE_CHAR;
+		}
+		return TYPE_UNKNOWN;
+	}
+
+	/**
+	 * Type tag of an item of array, collection or map. Boxed types are
+	 * mapped to the tags of their primitive types.
+	 *
+	 * @param type runtime type of the item
+	 * @return
+	 */
+	static int itemTypeOf(Class<?> type) {
+		Integer cached = itemTypes.get(type);
+		if (cached != null) {
+			return cached.intValue();
+		}
+		int itemType;
+		if (type == Integer.class) {
+			itemType = TYPE_INT;
+		} else if (type == Long.class) {
+			itemType = TYPE_LONG;
+		} else if (type == Boolean.class) {
+			itemType = TYPE_BOOLEAN;
+		} else if (type == Float.class) {
+			itemType = TYPE_FLOAT;
+		} else if (type == Double.class) {
+			itemType = TYPE_DOUBLE;
+		} else if (type == Short.class) {
+			itemType = TYPE_SHORT;
+		} else if (type == Byte.class) {
+			itemType = TYPE_BYTE;
+		} else if (type == Character.class) {
+			itemType = TYPE_CHAR;
+		} else if (type.isPrimitive()) {
+			itemType = TYPE_UNKNOWN;
+		} else {
+			itemType = fieldTypeOf(type);
+		}
+		itemTypes.put(type, Integer.valueOf(itemType));
+		return itemType;
+	}
+
+}
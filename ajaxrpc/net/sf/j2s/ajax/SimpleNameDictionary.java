@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2007 java2script.org and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Zhou Renjian - initial API and implementation
+ *******************************************************************************/
+
+package net.sf.j2s.ajax;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sf.j2s.annotation.J2SIgnore;
+
+/**
+ * Dictionary of class names and field names of a bytes stream, such as a
+ * pipe connection, since version 206.
+ *
+ * The first time a name is written into the stream, it is written in full
+ * and both the writer and the reader add it into their dictionaries with
+ * the next id. Later the name is written as its id. So the writer and the
+ * reader must see the same names in the same order, and dictionaries must
+ * be reset when a new stream starts, e.g. on reconnecting.
+ *
+ * Names shorter than 3 chars are always written in full, and no more
+ * names are added after #MAX_NAMES names.
+ *
+ * Dictionary is not thread safe, one dictionary is used for one stream.
+ */
+@J2SIgnore
+public final class SimpleNameDictionary {
+
+	public static final int MAX_NAMES = 4096;
+
+	private static final int MIN_NAME_LENGTH = 3;
+
+	private Map<String, Integer> ids = new HashMap<String, Integer>();
+
+	private String[] names = new String[16];
+
+	private int size;
+
+	/**
+	 * Get id of the given name for writing. If the name is not in the
+	 * dictionary, it is added, and it should be written in full.
+	 *
+	 * @param name
+	 * @return id, or -1 if the name should be written in full
+	 */
+	int lookupOrAdd(String name) {
+		Integer id = ids.get(name);
+		if (id != null) {
+			return id.intValue();
+		}
+		add(name);
+		return -1;
+	}
+
+	/**
+	 * Add name which is read in full, if it is not in the dictionary.
+	 *
+	 * @param bytes
+	 * @param start
+	 * @param length
+	 */
+	void add(byte[] bytes, int start, int length) {
+		if (length < MIN_NAME_LENGTH || size >= MAX_NAMES) {
+			return;
+		}
+		String name = new String(bytes, start, length, SimpleSerializable.ISO_8859_1);
+		if (!ids.containsKey(name)) {
+			add(name);
+		}
+	}
+
+	private void add(String name) {
+		if (name.length() < MIN_NAME_LENGTH || size >= MAX_NAMES) {
+			return;
+		}
+		if (size == names.length) {
+			String[] newNames = new String[size * 2];
+			System.arraycopy(names, 0, newNames, 0, size);
+			names = newNames;
+		}
+		names[size] = name;
+		ids.put(name, Integer.valueOf(size));
+		size++;
+	}
+
+	/**
+	 * @param id
+	 * @return name of the given id, or null if there is no such id
+	 */
+	String get(int id) {
+		return id >= 0 && id < size ? names[id] : null;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Remove all names, for a new stream.
+	 */
+	public void reset() {
+		ids.clear();
+		names = new String[16];
+		size = 0;
+	}
+
+}
@@ -0,0 +1,264 @@
+/*******************************************************************************
+ * Copyright (c) 2007 java2script.org and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Zhou Renjian - initial API and implementation
+ *******************************************************************************/
+
+package net.sf.j2s.ajax;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import net.sf.j2s.annotation.J2SIgnore;
+
+/**
+ * List of serialized or deserialized objects, which indexes are used as
+ * object references.
+ *
+ * Objects are only appended. Indexes of objects are looked up by identity
+ * in an identity hash map, so looking up references does not scan the
+ * list or call #equals, and getting objects by index is in constant time.
+ *
+ * List also keeps the string table of the message, for strings which are
+ * written as references since version 208, and the names dictionary of the
+ * stream being deserialized, since version 206.
+ *
+ * List may be a branch of a parent list, for serializing a part of a
+ * message in parallel. Objects of the parent list are looked up but not
+ * modified, and indexes of the branch's own objects follow them.
+ */
+@J2SIgnore
+final class SimpleObjectList extends AbstractList<SimpleSerializable> implements RandomAccess {
+
+	/**
+	 * Objects are scanned without creating the map until there are more
+	 * objects than this.
+	 */
+	private static final int SCAN_THRESHOLD = 8;
+
+	private SimpleSerializable[] objects;
+
+	private int size;
+
+	private Map<SimpleSerializable, Integer> indexes;
+
+	private SimpleObjectList parent;
+
+	private int offset;
+
+	/**
+	 * Whether any object added into this branch is looked up or not.
+	 */
+	private boolean branchReferenced;
+
+	/**
+	 * Shorter strings are not added into the string table, as references
+	 * are not shorter.
+	 */
+	static final int MIN_TABLE_STRING_LENGTH = 4;
+
+	private List<String> strings;
+
+	private Map<String, Integer> stringIndexes;
+
+	private SimpleNameDictionary dictionary;
+
+	SimpleObjectList() {
+		objects = new SimpleSerializable[16];
+	}
+
+	SimpleObjectList(SimpleSerializable first) {
+		this();
+		add(first);
+	}
+
+	/**
+	 * Create branch of the given list. The given list should not be
+	 * modified while the branch is used, and #prepareBranches should be
+	 * called before branches are used in other threads.
+	 *
+	 * @param parent
+	 */
+	SimpleObjectList(SimpleObjectList parent) {
+		this();
+		this.parent = parent;
+		offset = parent.size();
+	}
+
+	@Override
+	public SimpleSerializable get(int index) {
+		if (index < offset) {
+			if (index < 0) {
+				throw new IndexOutOfBoundsException();
+			}
+			return parent.get(index);
+		}
+		if (index - offset >= size) {
+			throw new IndexOutOfBoundsException();
+		}
+		return objects[index - offset];
+	}
+
+	@Override
+	public int size() {
+		return offset + size;
+	}
+
+	@Override
+	public boolean add(SimpleSerializable ss) {
+		if (size == objects.length) {
+			SimpleSerializable[] newObjects = new SimpleSerializable[size << 1];
+			System.arraycopy(objects, 0, newObjects, 0, size);
+			objects = newObjects;
+		}
+		if (indexes != null && ss != null && !indexes.containsKey(ss)) {
+			indexes.put(ss, Integer.valueOf(offset + size)); // first index wins
+		}
+		objects[size++] = ss;
+		modCount++;
+		return true;
+	}
+
+	/**
+	 * @param ss
+	 * @return index of the first object which is the given object, or -1
+	 */
+	int identityIndexOf(Object ss) {
+		if (ss == null) {
+			return -1;
+		}
+		if (parent != null) {
+			int index = parent.identityIndexOf(ss);
+			if (index != -1) {
+				return index;
+			}
+		}
+		int index = -1;
+		if (indexes == null && size <= SCAN_THRESHOLD) {
+			for (int i = 0; i < size; i++) {
+				if (objects[i] == ss) {
+					index = offset + i;
+					break;
+				}
+			}
+		} else {
+			buildIndexes();
+			Integer i = indexes.get(ss);
+			if (i != null) {
+				index = i.intValue();
+			}
+		}
+		if (index != -1 && parent != null) {
+			branchReferenced = true;
+		}
+		return index;
+	}
+
+	private void buildIndexes() {
+		if (indexes != null) {
+			return;
+		}
+		indexes = new IdentityHashMap<SimpleSerializable, Integer>(size << 1);
+		for (int i = size - 1; i >= 0; i--) {
+			if (objects[i] != null) {
+				indexes.put(objects[i], Integer.valueOf(offset + i));
+			}
+		}
+	}
+
+	/**
+	 * Prepare this list and its parents for looking up objects from
+	 * branches in other threads, as looking up may build indexes.
+	 */
+	void prepareBranches() {
+		for (SimpleObjectList list = this; list != null; list = list.parent) {
+			if (list.size > SCAN_THRESHOLD) {
+				list.buildIndexes();
+			}
+		}
+	}
+
+	/**
+	 * @return whether objects added into this branch are looked up or not,
+	 * which are written as references with indexes of this branch
+	 */
+	boolean isBranchReferenced() {
+		return branchReferenced;
+	}
+
+	/**
+	 * Get index of the given string in the string table for writing. If
+	 * the string is not in the table, it is added, and it should be
+	 * written in full.
+	 *
+	 * @param s
+	 * @return index, or -1 if the string should be written in full
+	 */
+	int lookupOrAddString(String s) {
+		if (stringIndexes == null) {
+			stringIndexes = new HashMap<String, Integer>();
+		}
+		Integer index = stringIndexes.get(s);
+		if (index != null) {
+			return index.intValue();
+		}
+		stringIndexes.put(s, Integer.valueOf(stringIndexes.size()));
+		return -1;
+	}
+
+	/**
+	 * Add string which is read in full into the string table.
+	 *
+	 * @param s
+	 */
+	void addString(String s) {
+		if (strings == null) {
+			strings = new ArrayList<String>();
+		}
+		strings.add(s);
+	}
+
+	/**
+	 * @param index
+	 * @return string in the string table, or null
+	 */
+	String getString(int index) {
+		return strings != null && index >= 0 && index < strings.size() ? strings.get(index) : null;
+	}
+
+	/**
+	 * @return names dictionary of the stream being deserialized, or null
+	 */
+	SimpleNameDictionary getDictionary() {
+		return dictionary;
+	}
+
+	void setDictionary(SimpleNameDictionary dictionary) {
+		this.dictionary = dictionary;
+	}
+
+	@Override
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			objects[i] = null;
+		}
+		size = 0;
+		indexes = null;
+		branchReferenced = false;
+		strings = null;
+		stringIndexes = null;
+		dictionary = null;
+		modCount++;
+	}
+
+}
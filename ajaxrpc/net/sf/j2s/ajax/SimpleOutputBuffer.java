@@ -0,0 +1,305 @@
+/*******************************************************************************
+ * Copyright (c) 2007 java2script.org and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Zhou Renjian - initial API and implementation
+ *******************************************************************************/
+
+package net.sf.j2s.ajax;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import net.sf.j2s.annotation.J2SIgnore;
+
+/**
+ * Growable bytes buffer for serializing SimpleSerializable objects.
+ *
+ * Unlike ByteArrayOutputStream, written bytes can be patched in place
+ * and be written into other streams or buffers without being copied
+ * into a new array first. Buffer can be reset and reused.
+ */
+@J2SIgnore
+public final class SimpleOutputBuffer extends OutputStream {
+
+	private byte[] buf;
+
+	private int count;
+
+	private SimpleNameDictionary dictionary;
+
+	public SimpleOutputBuffer() {
+		this(1024);
+	}
+
+	public SimpleOutputBuffer(int size) {
+		buf = new byte[size > 0 ? size : 32];
+	}
+
+	/**
+	 * Make sure that there are enough room for given more bytes.
+	 *
+	 * @param more
+	 */
+	public void ensureCapacity(int more) {
+		int required = count + more;
+		if (required < 0) { // overflow
+			throw new OutOfMemoryError();
+		}
+		if (required > buf.length) {
+			int newLength = buf.length << 1;
+			if (newLength < required) {
+				newLength = required;
+			}
+			buf = Arrays.copyOf(buf, newLength);
+		}
+	}
+
+	@Override
+	public void write(int b) {
+		if (count == buf.length) {
+			ensureCapacity(1);
+		}
+		buf[count++] = (byte) b;
+	}
+
+	public void writeByte(int b) {
+		write(b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		ensureCapacity(len);
+		System.arraycopy(b, off, buf, count, len);
+		count += len;
+	}
+
+	/**
+	 * Write remaining bytes of the given buffer. Position of the given
+	 * buffer is not changed.
+	 *
+	 * @param src
+	 */
+	public void write(ByteBuffer src) {
+		int length = src.remaining();
+		ensureCapacity(length);
+		src.duplicate().get(buf, count, length);
+		count += length;
+	}
+
+	/**
+	 * Write low bytes of the given string's chars, as
+	 * DataOutputStream#writeBytes does.
+	 *
+	 * @param s
+	 */
+	public void writeBytes(String s) {
+		int length = s.length();
+		ensureCapacity(length);
+		for (int i = 0; i < length; i++) {
+			buf[count++] = (byte) s.charAt(i);
+		}
+	}
+
+	/**
+	 * Write unsigned varint, 7 bits in each byte with lower bits first, and
+	 * the highest bit set if there are more bytes.
+	 *
+	 * @param n
+	 */
+	public void writeVarint(long n) {
+		ensureCapacity(10);
+		while ((n & ~0x7fL) != 0) {
+			buf[count++] = (byte) ((n & 0x7f) | 0x80);
+			n >>>= 7;
+		}
+		buf[count++] = (byte) n;
+	}
+
+	/**
+	 * @param n
+	 * @return number of bytes written by #writeVarint for the given number
+	 */
+	public static int varintSize(long n) {
+		int size = 1;
+		while ((n & ~0x7fL) != 0) {
+			size++;
+			n >>>= 7;
+		}
+		return size;
+	}
+
+	/**
+	 * Write 4 bytes of the given int, in big-endian order.
+	 *
+	 * @param n
+	 */
+	public void writeInt(int n) {
+		ensureCapacity(4);
+		buf[count++] = (byte) (n >>> 24);
+		buf[count++] = (byte) (n >>> 16);
+		buf[count++] = (byte) (n >>> 8);
+		buf[count++] = (byte) n;
+	}
+
+	/**
+	 * Write 8 bytes of the given long, in big-endian order.
+	 *
+	 * @param n
+	 */
+	public void writeLong(long n) {
+		writeInt((int) (n >>> 32));
+		writeInt((int) n);
+	}
+
+	/**
+	 * Write the given string in UTF-8, same as String#getBytes(UTF_8).
+	 *
+	 * @param s
+	 */
+	public void writeUTF8(String s) {
+		int length = s.length();
+		ensureCapacity(length * 3); // at most 3 bytes for each char
+		byte[] b = buf;
+		int n = count;
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				b[n++] = (byte) c;
+			} else if (c < 0x800) {
+				b[n++] = (byte) (0xc0 | (c >> 6));
+				b[n++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isSurrogate(c)) {
+				if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+					int cp = Character.toCodePoint(c, s.charAt(++i));
+					b[n++] = (byte) (0xf0 | (cp >> 18));
+					b[n++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+					b[n++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+					b[n++] = (byte) (0x80 | (cp & 0x3f));
+				} else {
+					b[n++] = '?'; // unpaired surrogate
+				}
+			} else {
+				b[n++] = (byte) (0xe0 | (c >> 12));
+				b[n++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				b[n++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+		count = n;
+	}
+
+	/**
+	 * @param s
+	 * @return number of bytes written by #writeUTF8 for the given string
+	 */
+	public static int utf8Length(String s) {
+		int length = s.length();
+		int bytes = length;
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				continue;
+			}
+			if (c < 0x800) {
+				bytes++;
+			} else if (Character.isSurrogate(c)) {
+				if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+					bytes += 2; // 4 bytes for 2 chars
+					i++;
+				}
+			} else {
+				bytes += 2;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Replace bytes at the given position with low bytes of the given
+	 * string's chars.
+	 *
+	 * @param position
+	 * @param s
+	 */
+	public void patchBytes(int position, String s) {
+		int length = s.length();
+		if (position < 0 || position + length > count) {
+			throw new IndexOutOfBoundsException();
+		}
+		for (int i = 0; i < length; i++) {
+			buf[position + i] = (byte) s.charAt(i);
+		}
+	}
+
+	/**
+	 * Remove bytes at the given position, moving following bytes forward.
+	 *
+	 * @param position
+	 * @param length
+	 */
+	public void remove(int position, int length) {
+		if (position < 0 || length < 0 || position + length > count) {
+			throw new IndexOutOfBoundsException();
+		}
+		System.arraycopy(buf, position + length, buf, position, count - position - length);
+		count -= length;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return names dictionary of the stream which bytes are written for,
+	 * or null
+	 */
+	public SimpleNameDictionary getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * Set names dictionary of the stream which bytes are written for, such
+	 * as a pipe connection. Class names and field names are written as ids
+	 * of the dictionary since version 206.
+	 *
+	 * @param dictionary
+	 */
+	public void setDictionary(SimpleNameDictionary dictionary) {
+		this.dictionary = dictionary;
+	}
+
+	public void reset() {
+		count = 0;
+	}
+
+	/**
+	 * @return internal bytes array, only the first #size bytes are valid
+	 */
+	public byte[] array() {
+		return buf;
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buf, count);
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(buf, 0, count);
+	}
+
+	/**
+	 * @param out
+	 * @throws java.nio.BufferOverflowException if there is insufficient
+	 * space in the given buffer
+	 */
+	public void writeTo(ByteBuffer out) {
+		out.put(buf, 0, count);
+	}
+
+}
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2007 java2script.org and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Zhou Renjian - initial API and implementation
+ *******************************************************************************/
+
+package net.sf.j2s.ajax;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import net.sf.j2s.annotation.J2SIgnore;
+
+/**
+ * Serialize items of a large array or collection in parallel.
+ *
+ * Items are split into chunks, and each chunk is serialized into its own
+ * buffer on the common ForkJoinPool, with a branch of the serialized
+ * objects list. Buffers are then written in order, so lengths of the
+ * enclosing objects are patched as usual.
+ *
+ * Bytes must be the same as bytes serialized in one thread. Objects of
+ * a chunk are referenced with indexes after the objects serialized
+ * before the array, so if any chunk but the first references its own
+ * objects, or if chunks share objects, chunks are dropped and items are
+ * serialized in one thread again. Names dictionaries and string tables
+ * depend on the order of writing, so items are not serialized in
+ * parallel with them.
+ */
+@J2SIgnore
+final class SimpleParallelEncoder {
+
+	private static final int CHUNK_SIZE = 1024;
+
+	private SimpleParallelEncoder() {
+	}
+
+	/**
+	 * @param owner object which the array or collection belongs to
+	 * @param dos
+	 * @param items
+	 * @param row handlers of table columns if items are table rows, or null
+	 * @param ssObjs
+	 * @param supportsCompactBytes
+	 * @return false if items are not serialized, and they should be
+	 * serialized in one thread
+	 */
+	static boolean serialize(final SimpleSerializable owner, SimpleOutputBuffer dos, final Object[] items,
+			final SimpleCodecPlan.FieldHandler[] row, List<SimpleSerializable> ssObjs, final boolean supportsCompactBytes) {
+		if (!(ssObjs instanceof SimpleObjectList) || ForkJoinPool.getCommonPoolParallelism() <= 1) {
+			return false;
+		}
+		int version = owner.getSimpleVersion();
+		if (version >= 206 && dos.getDictionary() != null
+				|| version >= 208 && owner.stringTableMode()) {
+			return false;
+		}
+		SimpleObjectList objects = (SimpleObjectList) ssObjs;
+		objects.prepareBranches();
+		int chunks = (items.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		final SimpleOutputBuffer[] buffers = new SimpleOutputBuffer[chunks];
+		final SimpleObjectList[] branches = new SimpleObjectList[chunks];
+		RecursiveAction[] tasks = new RecursiveAction[chunks];
+		for (int i = 0; i < chunks; i++) {
+			final int index = i;
+			buffers[i] = new SimpleOutputBuffer(CHUNK_SIZE * 16);
+			branches[i] = new SimpleObjectList(objects);
+			tasks[i] = new RecursiveAction() {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					int from = index * CHUNK_SIZE;
+					int to = Math.min(from + CHUNK_SIZE, items.length);
+					try {
+						for (int j = from; j < to; j++) {
+							owner.serializeBytesItem(buffers[index], items[j], row, branches[index], supportsCompactBytes);
+						}
+					} catch (Exception e) {
+						buffers[index] = null; // serialize again to report the exception
+					}
+				}
+
+			};
+		}
+		if (ForkJoinTask.inForkJoinPool()) {
+			ForkJoinTask.invokeAll(tasks);
+		} else {
+			ForkJoinPool.commonPool().invoke(new InvokeAll(tasks));
+		}
+		int base = objects.size();
+		// objects are not looked up without references, see #bytesReferenceIndex
+		boolean references = !owner.objectExpandMode() || version >= 207;
+		Map<SimpleSerializable, Boolean> added = new IdentityHashMap<SimpleSerializable, Boolean>();
+		for (int i = 0; i < chunks; i++) {
+			if (buffers[i] == null || i > 0 && branches[i].isBranchReferenced()) {
+				return false;
+			}
+			if (!references) {
+				continue;
+			}
+			SimpleObjectList branch = branches[i];
+			for (int j = base, size = branch.size(); j < size; j++) {
+				SimpleSerializable ss = branch.get(j);
+				if (added.put(ss, Boolean.TRUE) != null) {
+					return false; // shared by chunks
+				}
+			}
+		}
+		for (int i = 0; i < chunks; i++) {
+			SimpleObjectList branch = branches[i];
+			for (int j = base, size = branch.size(); j < size; j++) {
+				objects.add(branch.get(j));
+			}
+			SimpleOutputBuffer buffer = buffers[i];
+			dos.write(buffer.array(), 0, buffer.size());
+		}
+		return true;
+	}
+
+	private static final class InvokeAll extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final RecursiveAction[] tasks;
+
+		InvokeAll(RecursiveAction[] tasks) {
+			this.tasks = tasks;
+		}
+
+		@Override
+		protected void compute() {
+			invokeAll(tasks);
+		}
+
+	}
+
+}
@@ -52,6 +52,10 @@ public abstract class SimpleRPCRunnable extends SimpleSerializable {
 	 * Whether serializing delta updates in response only or not. Supporting
 	 * delta updates will save connection bandwidth but increase the CPU usage.
 	 * 
+	 * Delta response only contains fields which are modified by #ajaxRun,
+	 * see SimpleRPCUtils#serializeDeltaBytes, and client merges it into
+	 * the original runnable.
+	 * 
 	 * This method will be called by server side.
 	 * 
 	 * @return supported
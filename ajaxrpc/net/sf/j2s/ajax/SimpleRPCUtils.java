@@ -1,10 +1,8 @@
 package net.sf.j2s.ajax;
 
-import java.lang.reflect.Field;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map;
 import java.util.Set;
 
 public class SimpleRPCUtils {
@@ -23,11 +21,10 @@ public class SimpleRPCUtils {
 	public static Set<String> compareDiffs(SimpleRPCRunnable runnable1, SimpleRPCRunnable runnable2) {
 		Set<String> diffSet = new HashSet<String>();
 		String[] ignoredFields = runnable1.fieldDiffIgnored();
-		Class<?> clazzType = runnable1.getClass();
-		Map<String, Field> allFields = SimpleSerializable.getSerializableFields(clazzType);
-		for (Iterator<String> itr = allFields.keySet().iterator(); itr.hasNext();) {
-			String name = (String) itr.next();
-			Field field = allFields.get(name);
+		SimpleCodecPlan.FieldHandler[] handlers = SimpleCodecPlan.getPlan(runnable1.getClass()).handlers;
+		for (int i = 0; i < handlers.length; i++) {
+			SimpleCodecPlan.FieldHandler field = handlers[i];
+			String name = field.name;
 			if (ignoredFields != null) {
 				boolean ignored = false;
 				for (int j = 0; j < ignoredFields.length; j++) {
@@ -40,6 +37,18 @@ public class SimpleRPCUtils {
 					continue;
 				}
 			}
+			if (field.fieldType.isPrimitive()) {
+				try {
+					if (!primitiveEquals(field, runnable1, runnable2)) {
+						diffSet.add(name);
+					}
+				} catch (IllegalArgumentException e) {
+					//e.printStackTrace();
+				} catch (IllegalAccessException e) {
+					//e.printStackTrace();
+				}
+				continue;
+			}
 			Object field1 = null;
 			try {
 				field1 = field.get(runnable1);
@@ -62,8 +71,8 @@ public class SimpleRPCUtils {
 				}
 			} else if (field2 == null) { // field1 != null
 				diffSet.add(name);
-			} else if (field.getType().isArray()) {
-				Class<?> type = field.getType();
+			} else if (field.fieldType.isArray()) {
+				Class<?> type = field.fieldType;
 				if (type == int[].class) {
 					if (!Arrays.equals((int[]) field1, (int[]) field2)) {
 						diffSet.add(name);
@@ -108,8 +117,8 @@ public class SimpleRPCUtils {
 					}
 				}
 			} else {
-				Class<?> type = field.getType();
-				if (type.isPrimitive() || type == String.class) {
+				Class<?> type = field.fieldType;
+				if (type == String.class) {
 					if (!field1.equals(field2)) {
 						diffSet.add(name);
 					}
@@ -123,4 +132,120 @@ public class SimpleRPCUtils {
 		return diffSet;
 	}
 
+	/**
+	 * Create filter for delta response, which accepts only the given fields
+	 * and serializes them even if they are in default values, so fields
+	 * changed to null or 0 are sent as explicit null or 0.
+	 * 
+	 * @param diffs names of modified fields
+	 * @return filter
+	 * 
+	 * @j2sIgnore
+	 */
+	public static SimpleFilter deltaFilter(final Set<String> diffs) {
+		return new SimpleFilter() {
+			
+			public boolean accept(String field) {
+				return diffs.contains(field);
+			}
+			
+			public boolean ignoreDefaultFields() {
+				return false;
+			}
+			
+		};
+	}
+
+	/**
+	 * Serialize response of the given runnable in bytes. If the runnable
+	 * supports delta response, only fields which are different from the
+	 * original request are serialized. Client deserializes the response
+	 * into its original runnable, so fields not in the response are kept.
+	 * 
+	 * Original runnable should be deserialized from the request separately,
+	 * or be cloned before #ajaxRun, so it is not modified by #ajaxRun.
+	 * 
+	 * @param original runnable deserialized from the request
+	 * @param runnable runnable after #ajaxRun
+	 * @param supportsCompactBytes
+	 * @return serialized bytes
+	 * @throws IOException
+	 * 
+	 * @j2sIgnore
+	 */
+	public static byte[] serializeDeltaBytes(SimpleRPCRunnable original, SimpleRPCRunnable runnable,
+			boolean supportsCompactBytes) throws IOException {
+		SimpleOutputBuffer out = new SimpleOutputBuffer();
+		serializeDeltaTo(out, original, runnable, supportsCompactBytes);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Serialize response of the given runnable into the given buffer, see
+	 * #serializeDeltaBytes.
+	 * 
+	 * @param out
+	 * @param original runnable deserialized from the request, or null for
+	 * full response
+	 * @param runnable runnable after #ajaxRun
+	 * @param supportsCompactBytes
+	 * @return number of bytes written
+	 * @throws IOException
+	 * 
+	 * @j2sIgnore
+	 */
+	public static int serializeDeltaTo(SimpleOutputBuffer out, SimpleRPCRunnable original,
+			SimpleRPCRunnable runnable, boolean supportsCompactBytes) throws IOException {
+		SimpleFilter filter = null;
+		if (original != null && runnable.supportsDeltaResponse()) {
+			filter = deltaFilter(compareDiffs(original, runnable));
+		}
+		return runnable.serializeTo(out, filter, supportsCompactBytes);
+	}
+
+	/**
+	 * Serialize response of the given runnable in string, for JavaScript
+	 * clients, see #serializeDeltaBytes.
+	 * 
+	 * @param original runnable deserialized from the request, or null for
+	 * full response
+	 * @param runnable runnable after #ajaxRun
+	 * @return serialized string
+	 * 
+	 * @j2sIgnore
+	 */
+	public static String serializeDelta(SimpleRPCRunnable original, SimpleRPCRunnable runnable) {
+		if (original == null || !runnable.supportsDeltaResponse()) {
+			return runnable.serialize(null);
+		}
+		return runnable.serialize(deltaFilter(compareDiffs(original, runnable)));
+	}
+
+	/**
+	 * Compare primitive field values without boxing them.
+	 * 
+	 * @j2sIgnore
+	 */
+	private static boolean primitiveEquals(SimpleCodecPlan.FieldHandler field, Object o1, Object o2) throws IllegalAccessException {
+		switch (field.type) {
+		case SimpleCodecPlan.TYPE_INT:
+			return field.getInt(o1) == field.getInt(o2);
+		case SimpleCodecPlan.TYPE_LONG:
+			return field.getLong(o1) == field.getLong(o2);
+		case SimpleCodecPlan.TYPE_BOOLEAN:
+			return field.getBoolean(o1) == field.getBoolean(o2);
+		case SimpleCodecPlan.TYPE_FLOAT: // same as Float#equals
+			return Float.floatToIntBits(field.getFloat(o1)) == Float.floatToIntBits(field.getFloat(o2));
+		case SimpleCodecPlan.TYPE_DOUBLE: // same as Double#equals
+			return Double.doubleToLongBits(field.getDouble(o1)) == Double.doubleToLongBits(field.getDouble(o2));
+		case SimpleCodecPlan.TYPE_SHORT:
+			return field.getShort(o1) == field.getShort(o2);
+		case SimpleCodecPlan.TYPE_BYTE:
+			return field.getByte(o1) == field.getByte(o2);
+		case SimpleCodecPlan.TYPE_CHAR:
+			return field.getChar(o1) == field.getChar(o2);
+		}
+		return true;
+	}
+
 }
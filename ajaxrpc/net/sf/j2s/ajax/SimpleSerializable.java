@@ -11,29 +11,26 @@
 
 package net.sf.j2s.ajax;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.GenericArrayType;
-import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.lang.reflect.WildcardType;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-
-import java.util.Queue;
 import java.util.Set;
 //import java.util.concurrent.ConcurrentHashMap;
 
@@ -55,6 +52,12 @@ public class SimpleSerializable implements Cloneable {
 	public static final int SIMPLE_INVALID_DATA = -2;
 	public static final int SIMPLE_ARRAY_TOO_LARGE = -3;
 	
+	/**
+	 * Returned by #skipBytesValue if data is not completed.
+	 */
+	@J2SIgnore
+	static final int SKIP_MISSING_DATA = -1;
+	
 	public static final SimpleSerializable UNKNOWN = new SimpleSerializable();
 	
 	public static final SimpleSerializable ERROR = new SimpleSerializable(); // Used to indicate that format error!
@@ -65,14 +68,35 @@ public class SimpleSerializable implements Cloneable {
 
 	public static boolean OBJECT_EXPAND_MODE = true;
 	
-	public static boolean JSON_EXPAND_MODE = true;
-
-	public static int LATEST_SIMPLE_VERSION = 202;
+	@J2SIgnore
+	public static boolean BYTES_STRING_TABLE_MODE = false;
 	
 	@J2SIgnore
-	private static Object mutex = new Object();
+	public static boolean BYTES_PARALLEL_MODE = false;
+	
+	/**
+	 * Arrays and collections with at least this number of items are
+	 * serialized in parallel in parallel mode.
+	 */
 	@J2SIgnore
-	private static Map<Class<?>, Map<String, Field>> quickFields = new HashMap<Class<?>, Map<String, Field>>();
+	public static int BYTES_PARALLEL_THRESHOLD = 4096;
+	
+	public static boolean JSON_EXPAND_MODE = true;
+
+	/**
+	 * Version 203 writes non-ASCII strings and nested objects in raw UTF-8
+	 * bytes in the bytes format, instead of in Base64. Version 204 writes
+	 * numbers and long lengths in binary in the bytes format, see
+	 * #serializeBytesNumber. Version 205 writes arrays and collections of
+	 * objects of the same class as tables, see #serializeBytesTable. Version
+	 * 206 writes class names and field names as ids of SimpleNameDictionary
+	 * if the bytes stream has one. Version 207 writes shared objects as
+	 * references in the bytes format even in object expand mode, see
+	 * #bytesReferenceIndex. Version 208 writes repeated strings of a message
+	 * as references in string table mode, see #serializeBytesString. String
+	 * format is not changed.
+	 */
+	public static int LATEST_SIMPLE_VERSION = 208;
 	
 	@J2SIgnore
 	private static Object classMutex = new Object();
@@ -175,6 +199,7 @@ public class SimpleSerializable implements Cloneable {
 			classNameMappings.put(clazzName, shortenName);
 			classAliasMappings.put(shortenName, clazzName);
 		}
+		SimpleClassCache.clear();
 	}
 	
 	/**
@@ -201,9 +226,12 @@ public class SimpleSerializable implements Cloneable {
 	 * }
 	 */
 	public static boolean removeMissedClassName(String clazzName) {
+		boolean removed = false;
 		synchronized (classMutex) {
-			return classMissed.remove(clazzName);
+			removed = classMissed.remove(clazzName);
 		}
+		SimpleClassCache.clear();
+		return removed;
 	}
 	
 	/**
@@ -214,44 +242,40 @@ public class SimpleSerializable implements Cloneable {
 		synchronized (classMutex) {
 			classMissed.clear();
 		}
+		SimpleClassCache.clear();
 	}
 	
 	@J2SIgnore
 	static Map<String, Field> getSerializableFields(Class<?> clazz) {
-		Map<String, Field> fields = quickFields.get(clazz);
-		if (fields == null) {
-			// Use LinkedHashMap instead of ConcurrentHashMap
-			// so that we preserve insertion order
-			fields = new LinkedHashMap<String, Field>();
-			//fields = new ConcurrentHashMap<String, Field>();
-			Class<?> oClazz = clazz;
-			while (oClazz != null && !"net.sf.j2s.ajax.SimpleSerializable".equals(oClazz.getName())) {
-				Field[] clazzFields = oClazz.getDeclaredFields();
-				for (int i = 0; i < clazzFields.length; i++) {
-					Field f = clazzFields[i];
-					int modifiers = f.getModifiers();
-					if ((modifiers & Modifier.PUBLIC) != 0
-							&& (modifiers & (Modifier.TRANSIENT | Modifier.STATIC)) == 0) {
-						fields.put(f.getName(), f);
-					}
-				}
-				oClazz = oClazz.getSuperclass();
-			}
-			synchronized (mutex) {
-				quickFields.put(clazz, fields);
-			}
-		}
-		return fields;
+		return SimpleCodecPlan.getPlan(clazz).fields;
 	}
 
 	@J2SIgnore
 	public long estimateSize() {
-		return 8192;
+		return estimateSize(null);
 	}
 
+	/**
+	 * Get size of data serialized in bytes at the current simple version,
+	 * by serializing into the reused buffer of current thread, so size is
+	 * known without allocating buffers for serialized bytes. Names
+	 * dictionaries of pipe streams are not used, so the size is the real
+	 * size or a little larger, and it can be used to allocate buffer once.
+	 *
+	 * @param filter
+	 * @return size in bytes
+	 */
 	@J2SIgnore
 	public long estimateSize(SimpleFilter filter) {
-		return 8192;
+		SimpleBufferPool pool = SimpleBufferPool.get();
+		SimpleOutputBuffer buffer = pool.acquireBuffer();
+		try {
+			return serializeTo(buffer, filter, true);
+		} catch (IOException e) {
+			throw new RuntimeException(e); // should never happen!
+		} finally {
+			pool.releaseBuffer(buffer);
+		}
 	}
 
 	/**
@@ -431,15 +455,13 @@ strBuf = strBuf.substring (0, headSize - sizeStr.length - 1) + sizeStr + strBuf.
 return strBuf;
 	 */
 	public String serialize() {
-		List<SimpleSerializable> objects = new LinkedList<SimpleSerializable>();
-		objects.add(this);
+		List<SimpleSerializable> objects = new SimpleObjectList(this);
 		return serialize(null, objects, true);
 	}
 	
 	@J2SIgnore
 	public byte[] serializeBytes() {
-		List<SimpleSerializable> objects = new LinkedList<SimpleSerializable>();
-		objects.add(this);
+		List<SimpleSerializable> objects = new SimpleObjectList(this);
 		try {
 			return serializeBytes(null, objects, true);
 		} catch (IOException e) {
@@ -450,15 +472,13 @@ return strBuf;
 	
 	@J2SIgnore
 	public String serialize(SimpleFilter filter) {
-		List<SimpleSerializable> objects = new LinkedList<SimpleSerializable>();
-		objects.add(this);
+		List<SimpleSerializable> objects = new SimpleObjectList(this);
 		return serialize(filter, objects, true);
 	}
 
 	@J2SIgnore
 	public byte[] serializeBytes(SimpleFilter filter) {
-		List<SimpleSerializable> objects = new LinkedList<SimpleSerializable>();
-		objects.add(this);
+		List<SimpleSerializable> objects = new SimpleObjectList(this);
 		try {
 			return serializeBytes(filter, objects, true);
 		} catch (IOException e) {
@@ -469,15 +489,13 @@ return strBuf;
 	
 	@J2SIgnore
 	public String serialize(SimpleFilter filter, boolean supportsCompactBytes) {
-		List<SimpleSerializable> objects = new LinkedList<SimpleSerializable>();
-		objects.add(this);
+		List<SimpleSerializable> objects = new SimpleObjectList(this);
 		return serialize(filter, objects, supportsCompactBytes);
 	}
 
 	@J2SIgnore
 	public byte[] serializeBytes(SimpleFilter filter, boolean supportsCompactBytes) {
-		List<SimpleSerializable> objects = new LinkedList<SimpleSerializable>();
-		objects.add(this);
+		List<SimpleSerializable> objects = new SimpleObjectList(this);
 		try {
 			return serializeBytes(filter, objects, supportsCompactBytes);
 		} catch (IOException e) {
@@ -486,6 +504,79 @@ return strBuf;
 		}
 	}
 
+	/**
+	 * Serialize this object into the given stream, without copying
+	 * serialized bytes into a new array.
+	 *
+	 * @param out
+	 * @return number of bytes written
+	 * @throws IOException
+	 */
+	@J2SIgnore
+	public int serializeTo(OutputStream out) throws IOException {
+		return serializeTo(out, null, true);
+	}
+
+	@J2SIgnore
+	public int serializeTo(OutputStream out, SimpleFilter filter, boolean supportsCompactBytes) throws IOException {
+		SimpleBufferPool pool = SimpleBufferPool.get();
+		SimpleOutputBuffer buffer = pool.acquireBuffer();
+		try {
+			serializeTo(buffer, filter, supportsCompactBytes);
+			buffer.writeTo(out);
+			return buffer.size();
+		} finally {
+			pool.releaseBuffer(buffer);
+		}
+	}
+
+	/**
+	 * Serialize this object into the given buffer. Nothing is written if
+	 * there is not enough space in the buffer.
+	 *
+	 * @param out
+	 * @return number of bytes written
+	 * @throws java.nio.BufferOverflowException if there is not enough
+	 * space in the buffer
+	 */
+	@J2SIgnore
+	public int serializeTo(ByteBuffer out) {
+		return serializeTo(out, null, true);
+	}
+
+	@J2SIgnore
+	public int serializeTo(ByteBuffer out, SimpleFilter filter, boolean supportsCompactBytes) {
+		SimpleBufferPool pool = SimpleBufferPool.get();
+		SimpleOutputBuffer buffer = pool.acquireBuffer();
+		try {
+			serializeTo(buffer, filter, supportsCompactBytes);
+			buffer.writeTo(out);
+			return buffer.size();
+		} catch (IOException e) {
+			throw new RuntimeException(e); // should never happen!
+		} finally {
+			pool.releaseBuffer(buffer);
+		}
+	}
+
+	/**
+	 * Serialize this object into the given reusable buffer, after the
+	 * existing bytes of the buffer.
+	 *
+	 * @param out
+	 * @param filter
+	 * @param supportsCompactBytes
+	 * @return number of bytes written
+	 * @throws IOException
+	 */
+	@J2SIgnore
+	public int serializeTo(SimpleOutputBuffer out, SimpleFilter filter, boolean supportsCompactBytes) throws IOException {
+		int start = out.size();
+		List<SimpleSerializable> objects = new SimpleObjectList(this);
+		serializeBytes(out, filter, objects, supportsCompactBytes);
+		return out.size() - start;
+	}
+
 	@J2SIgnore
 	static boolean isSubclassOf(Class<?> type, Class<?> superClass) {
 		if (type == null || superClass == null) {
@@ -565,8 +656,22 @@ return strBuf;
 	 */
 	@J2SIgnore
 	protected String serialize(SimpleFilter filter, List<SimpleSerializable> ssObjs, boolean supportsCompactBytes) {
+		SimpleBufferPool pool = SimpleBufferPool.get();
+		StringBuilder builder = pool.acquireBuilder();
+		try {
+			return serialize(builder, filter, ssObjs, supportsCompactBytes);
+		} finally {
+			pool.releaseBuilder(builder);
+		}
+	}
+
+	/**
+	 * Serialize into the given empty builder, which is reused by later
+	 * serializing.
+	 */
+	@J2SIgnore
+	private String serialize(StringBuilder builder, SimpleFilter filter, List<SimpleSerializable> ssObjs, boolean supportsCompactBytes) {
 		char baseChar = 'B';
-		StringBuilder builder = new StringBuilder(1024);
 		/*
 		 * "WLL" is used to mark Simple RPC, 100 is version 1.0.0, 
 		 * # is used to mark the the beginning of serialized data  
@@ -603,7 +708,8 @@ return strBuf;
 		builder.append("#00000000$"); // later the number of size will be updated!
 		int headSize = builder.length();
 
-		Map<String, Field> fields = getSerializableFields(this.getClass());
+		SimpleCodecPlan plan = SimpleCodecPlan.getPlan(this.getClass());
+		SimpleCodecPlan.FieldHandler[] handlers = plan.handlers;
 		boolean ignoring = (filter == null || filter.ignoreDefaultFields());
 		String[] fMap = null;
 		Map<String, String> fieldNameMap = null;
@@ -611,64 +717,30 @@ return strBuf;
 			fMap = fieldMapping();
 			fieldNameMap = fieldNameMapping();
 		}
+		String[] names = plan.getNameTable(fieldNameMap, fMap).names;
 		try {
-			for (Iterator<Entry<String, Field>> itr = fields.entrySet().iterator(); itr.hasNext();) {
-				Entry<String, Field> entry = (Entry<String, Field>) itr.next();
-				String name = entry.getKey();
-				Field field = entry.getValue();
-				if (filter != null && !filter.accept(name)) continue;
-				if (fieldNameMap != null) {
-					String alias = fieldNameMap.get(name);
-					if (alias != null && alias.length() > 0) {
-						name = alias;
-					}
-				} else if (fMap != null && fMap.length > 1) {
-					for (int j = 0; j < fMap.length / 2; j++) {
-						if (name.equals(fMap[j + j])) {
-							String newName = fMap[j + j + 1];
-							if (newName != null && newName.length() > 0) {
-								name = newName;
-							}
-							break;
-						}
-					}
-				}
-				if (field == null) {
-					continue;
-				}
-				//String nameStr = (char)(baseChar + name.length()) + name;
-				Class<?> type = field.getType();
-				if (type == String.class) {
-					String s = (String) field.get(this);
-					if (s == null && ignoring) continue;
-					builder.append((char)(baseChar + name.length()));
-					builder.append(name);
-					serializeString(builder, s);
-				} else if (type == int.class) {
+			for (int i = 0; i < handlers.length; i++) {
+				SimpleCodecPlan.FieldHandler field = handlers[i];
+				if (filter != null && !filter.accept(field.name)) continue;
+				String name = names[i];
+				switch (field.type) {
+				case SimpleCodecPlan.TYPE_INT: {
 					int n = field.getInt(this);
 					if (n == 0 && ignoring) continue;
 					builder.append((char)(baseChar + name.length()));
 					builder.append(name);
-					builder.append('I');
-					String value = String.valueOf(n);
-					builder.append((char) (baseChar + value.length()));
-					builder.append(value);
-				} else if (isSubclassOf(type, SimpleSerializable.class) || type == SimpleSerializable.class) {
-					SimpleSerializable ssObj = (SimpleSerializable) field.get(this);
-					if (ssObj == null && ignoring) continue;
-					builder.append((char)(baseChar + name.length()));
-					builder.append(name);
-					serializeObject(builder, ssObj, ssObjs, supportsCompactBytes);
-				} else if (type == long.class) {
+					serializeScalar(builder, 'I', String.valueOf(n));
+					break;
+				}
+				case SimpleCodecPlan.TYPE_LONG: {
 					long l = field.getLong(this);
 					if (l == 0L && ignoring) continue;
 					builder.append((char)(baseChar + name.length()));
 					builder.append(name);
-					builder.append('L');
-					String value = String.valueOf(l);
-					builder.append((char) (baseChar + value.length()));
-					builder.append(value);
-				} else if (type == boolean.class) {
+					serializeScalar(builder, 'L', String.valueOf(l));
+					break;
+				}
+				case SimpleCodecPlan.TYPE_BOOLEAN: {
 					boolean b = field.getBoolean(this);
 					if (b == false && ignoring) continue;
 					builder.append((char)(baseChar + name.length()));
@@ -676,307 +748,59 @@ return strBuf;
 					builder.append('b');
 					builder.append('C'); // ((char) (baseChar + 1));
 					builder.append(b ? '1' : '0');
-				} else if (type.isArray()) { // Array ...
-					if (type == byte[].class) {
-						byte [] bs = (byte []) field.get(this);
-						if (bs == null && ignoring) continue;
-						builder.append((char)(baseChar + name.length()));
-						builder.append(name);
-						builder.append(!bytesCompactMode() || !supportsCompactBytes ? "AB" : "A8");
-						if (bs == null) {
-							builder.append('A'); // (char) (baseChar - 1));
-						} else {
-							serializeLength(builder, bs.length);
-							if (!bytesCompactMode() || !supportsCompactBytes) {
-								for (int j = 0; j < bs.length; j++) {
-									String value = String.valueOf(bs[j]);
-									builder.append((char) (baseChar + value.length()));
-									builder.append(value);
-								}
-							} else {
-								builder.append(new String(bs, ISO_8859_1));
-							}
-						}
-					} else if (type == String[].class) {
-						String[] ss = (String []) field.get(this);
-						if (ss == null && ignoring) continue;
-						builder.append((char)(baseChar + name.length()));
-						builder.append(name);
-						builder.append("AX"); // special
-						if (ss == null) {
-							builder.append('A'); // (char) (baseChar - 1));
-						} else {
-							serializeLength(builder, ss.length);
-							for (int j = 0; j < ss.length; j++) {
-								String s = ss[j];
-								serializeString(builder, s);
-							}
-						}
-					} else if (isSubclassOf(type, SimpleSerializable[].class) || type == SimpleSerializable[].class) {
-						SimpleSerializable[] ss = (SimpleSerializable []) field.get(this);
-						if (ss == null && ignoring) continue;
-						builder.append((char)(baseChar + name.length()));
-						builder.append(name);
-						builder.append("AO"); // special
-						if (ss == null) {
-							builder.append('A'); // (char) (baseChar - 1));
-						} else {
-							serializeLength(builder, ss.length);
-							for (int j = 0; j < ss.length; j++) {
-								SimpleSerializable s = ss[j];
-								serializeObject(builder, s, ssObjs, supportsCompactBytes);
-							}
-						}
-					} else if (type == int[].class) {
-						int [] ns = (int []) field.get(this);
-						if (ns == null && ignoring) continue;
-						builder.append((char)(baseChar + name.length()));
-						builder.append(name);
-						builder.append("AI");
-						if (ns == null) {
-							builder.append('A'); // (char) (baseChar - 1));
-						} else {
-							serializeLength(builder, ns.length);
-							for (int j = 0; j < ns.length; j++) {
-								String value = String.valueOf(ns[j]);
-								builder.append((char) (baseChar + value.length()));
-								builder.append(value);
-							}
-						}
-					} else if (type == long[].class) {
-						long [] ls = (long []) field.get(this);
-						if (ls == null && ignoring) continue;
-						builder.append((char)(baseChar + name.length()));
-						builder.append(name);
-						builder.append("AL");
-						if (ls == null) {
-							builder.append('A'); // (char) (baseChar - 1));
-						} else {
-							serializeLength(builder, ls.length);
-							for (int j = 0; j < ls.length; j++) {
-								String value = String.valueOf(ls[j]);
-								builder.append((char) (baseChar + value.length()));
-								builder.append(value);
-							}
-						}
-					} else if (type == boolean[].class) {
-						boolean [] bs = (boolean []) field.get(this);
-						if (bs == null && ignoring) continue;
-						builder.append((char)(baseChar + name.length()));
-						builder.append(name);
-						builder.append("Ab");
-						if (bs == null) {
-							builder.append('A'); // (char) (baseChar - 1));
-						} else {
-							serializeLength(builder, bs.length);
-							for (int j = 0; j < bs.length; j++) {
-								builder.append('C'); // (char) (baseChar + 1));
-								builder.append(bs[j] ? '1' : '0');
-							}
-						}
-					} else if (type == float[].class) {
-						float[] fs = (float[]) field.get(this);
-						if (fs == null && ignoring) continue;
-						builder.append((char)(baseChar + name.length()));
-						builder.append(name);
-						builder.append("AF");
-						if (fs == null) {
-							builder.append('A'); // (char) (baseChar - 1));
-						} else {
-							serializeLength(builder, fs.length);
-							for (int j = 0; j < fs.length; j++) {
-								String value = String.valueOf(fs[j]);
-								builder.append((char) (baseChar + value.length()));
-								builder.append(value);
-							}
-						}
-					} else if (type == double[].class) {
-						double [] ds = (double []) field.get(this);
-						if (ds == null && ignoring) continue;
-						builder.append((char)(baseChar + name.length()));
-						builder.append(name);
-						builder.append("AD");
-						if (ds == null) {
-							builder.append('A'); // (char) (baseChar - 1));
-						} else {
-							serializeLength(builder, ds.length);
-							for (int j = 0; j < ds.length; j++) {
-								String value = String.valueOf(ds[j]);
-								builder.append((char) (baseChar + value.length()));
-								builder.append(value);
-							}
-						}
-					} else if (type == short[].class) {
-						short [] ss = (short []) field.get(this);
-						if (ss == null && ignoring) continue;
-						builder.append((char)(baseChar + name.length()));
-						builder.append(name);
-						builder.append("AS");
-						if (ss == null) {
-							builder.append('A'); // (char) (baseChar - 1));
-						} else {
-							serializeLength(builder, ss.length);
-							for (int j = 0; j < ss.length; j++) {
-								String value = String.valueOf(ss[j]);
-								builder.append((char) (baseChar + value.length()));
-								builder.append(value);
-							}
-						}
-					} else if (type == char[].class) {
-						char [] cs = (char []) field.get(this);
-						if (cs == null && ignoring) continue;
-						builder.append((char)(baseChar + name.length()));
-						builder.append(name);
-						builder.append("AC");
-						if (cs == null) {
-							builder.append('A'); // (char) (baseChar - 1));
-						} else {
-							serializeLength(builder, cs.length);
-							for (int j = 0; j < cs.length; j++) {
-								int c = cs[j];
-								String value = Integer.toString(c, 10);
-								builder.append((char) (baseChar + value.length()));
-								builder.append(value);
-							}
-						}
-					} else if (type.getComponentType().isEnum()) {
-						Enum<?>[] ss = (Enum<?>[]) field.get(this);
-						if (ss == null && ignoring) continue;
-						builder.append((char)(baseChar + name.length()));
-						builder.append(name);
-						builder.append("AE");
-						if (ss == null) {
-							builder.append('A'); // (char) (baseChar - 1));
-						} else {
-							serializeLength(builder, ss.length);
-							for (int j = 0; j < ss.length; j++) {
-								if (ss[j] == null) {
-									builder.append('A'); // (char) (baseChar - 1));
-								} else {
-									String value = ss[j].name();
-									builder.append((char) (baseChar + value.length()));
-									builder.append(value);
-								}
-							}
-						}
-					} else {
-						continue; // just ignore it
-						// others unknown or unsupported types!
-						// throw new RuntimeException("Unsupported data type in Java2Script Simple RPC!");
-					}
-				} else if (isSubInterfaceOf(type, Collection.class)) {
-					Collection<?> collection = (Collection<?>)field.get(this);
-					if (collection == null && ignoring) continue;
-					builder.append((char)(baseChar + name.length()));
-					builder.append(name);
-					builder.append('Z');
-					if (isSubInterfaceOf(type, List.class)) {
-						builder.append('Z');
-					} else if (isSubInterfaceOf(type, Set.class)) {
-						builder.append('Y');
-					} else if (isSubInterfaceOf(type, Queue.class)) {
-						builder.append('Q');
-					} else {
-						builder.append('W'); // Other collections
-					}
-					if (collection == null) {
-						builder.append('A'); // (char) (baseChar - 1));
-					} else {
-						Object[] os = collection.toArray();
-						serializeLength(builder, os.length);
-						for (int j = 0; j < os.length; j++) {
-							Object o = os[j];
-							if (o == null) {
-								builder.append("OA");
-							} else {
-								serializeArrayItem(builder, o.getClass(), o, ssObjs, supportsCompactBytes);
-							}
-						}
-					}
-				} else if (isSubInterfaceOf(type, Map.class)) {
-					Map<?, ?> map = (Map<?, ?>)field.get(this);
-					if (map == null && ignoring) continue;
-					builder.append((char)(baseChar + name.length()));
-					builder.append(name);
-					builder.append("YM");
-					if (map == null) {
-						builder.append('A'); // (char) (baseChar - 1));
-					} else {
-						serializeLength(builder, map.size() * 2);
-						for (Iterator<?> iter = map.keySet().iterator(); iter
-								.hasNext();) {
-							Object key = iter.next();
-							if (key == null) {
-								builder.append("OA");
-							} else {
-								serializeArrayItem(builder, key.getClass(), key, ssObjs, supportsCompactBytes);
-							}
-							Object value = map.get(key);
-							if (value == null) {
-								builder.append("OA");
-							} else {
-								serializeArrayItem(builder, value.getClass(), value, ssObjs, supportsCompactBytes);
-							}
-						}
-					}
-				} else if (type.isEnum()) {
-					Enum<?> e = (Enum<?>)field.get(this);
-					if (e == null && ignoring) continue;
-					builder.append((char)(baseChar + name.length()));
-					builder.append(name);
-					builder.append('E');
-					if (e == null) {
-						builder.append('A'); // (char) (baseChar - 1));
-					} else {
-						String value = String.valueOf(e.name());
-						builder.append((char) (baseChar + value.length()));
-						builder.append(value);
-					}
-				} else if (type == float.class) {
+					break;
+				}
+				case SimpleCodecPlan.TYPE_FLOAT: {
 					float f = field.getFloat(this);
 					if (f == 0.0 && ignoring) continue;
 					builder.append((char)(baseChar + name.length()));
 					builder.append(name);
-					builder.append('F');
-					String value = String.valueOf(f);
-					builder.append((char) (baseChar + value.length()));
-					builder.append(value);
-				} else if (type == double.class) {
+					serializeScalar(builder, 'F', String.valueOf(f));
+					break;
+				}
+				case SimpleCodecPlan.TYPE_DOUBLE: {
 					double d = field.getDouble(this);
 					if (d == 0.0d && ignoring) continue;
 					builder.append((char)(baseChar + name.length()));
 					builder.append(name);
-					builder.append('D');
-					String value = String.valueOf(d);
-					builder.append((char) (baseChar + value.length()));
-					builder.append(value);
-				} else if (type == short.class) {
+					serializeScalar(builder, 'D', String.valueOf(d));
+					break;
+				}
+				case SimpleCodecPlan.TYPE_SHORT: {
 					short s = field.getShort(this);
 					if (s == 0 && ignoring) continue;
 					builder.append((char)(baseChar + name.length()));
 					builder.append(name);
-					builder.append('S');
-					String value = String.valueOf(s);
-					builder.append((char) (baseChar + value.length()));
-					builder.append(value);
-				} else if (type == byte.class) {
+					serializeScalar(builder, 'S', String.valueOf(s));
+					break;
+				}
+				case SimpleCodecPlan.TYPE_BYTE: {
 					byte b = field.getByte(this);
 					if (b == 0 && ignoring) continue;
 					builder.append((char)(baseChar + name.length()));
 					builder.append(name);
-					builder.append('B');
-					String value = String.valueOf(b);
-					builder.append((char) (baseChar + value.length()));
-					builder.append(value);
-				} else if (type == char.class) {
+					serializeScalar(builder, 'B', String.valueOf(b));
+					break;
+				}
+				case SimpleCodecPlan.TYPE_CHAR: {
 					int c = 0 + field.getChar(this);
 					if (c == 0 && ignoring) continue;
 					builder.append((char)(baseChar + name.length()));
 					builder.append(name);
-					builder.append('C');
-					String value = Integer.toString(c, 10);
-					builder.append((char) (baseChar + value.length()));
-					builder.append(value);
+					serializeScalar(builder, 'C', Integer.toString(c, 10));
+					break;
+				}
+				case SimpleCodecPlan.TYPE_UNKNOWN:
+					continue; // just ignore it
+					// others unknown or unsupported types!
+					// throw new RuntimeException("Unsupported data type in Java2Script Simple RPC!");
+				default: {
+					Object value = field.get(this);
+					if (value == null && ignoring) continue;
+					builder.append((char)(baseChar + name.length()));
+					builder.append(name);
+					serializeValue(builder, field.type, value, ssObjs, supportsCompactBytes);
+				}
 				}
 			}
 		} catch (Exception e) {
@@ -1002,15 +826,22 @@ return strBuf;
 	 */
 	@J2SIgnore
 	protected byte[] serializeBytes(SimpleFilter filter, List<SimpleSerializable> ssObjs, boolean supportsCompactBytes) throws IOException {
-		char baseChar = 'B';
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
-		DataOutputStream dos = new DataOutputStream(baos);
-		/*
-		 * "WLL" is used to mark Simple RPC, 100 is version 1.0.0, 
-		 * # is used to mark the the beginning of serialized data  
-		 */
-		dos.writeBytes("WLL");
-		dos.writeBytes(String.valueOf(getSimpleVersion()));
+		SimpleBufferPool pool = SimpleBufferPool.get();
+		SimpleOutputBuffer buffer = pool.acquireBuffer();
+		try {
+			serializeBytes(buffer, filter, ssObjs, supportsCompactBytes);
+			return buffer.toByteArray();
+		} finally {
+			pool.releaseBuffer(buffer);
+		}
+	}
+
+	/**
+	 * @return class name in serialized bytes, anonymous classes are
+	 * serialized as their super classes
+	 */
+	@J2SIgnore
+	String bytesClassName() {
 		Class<?> clazz = this.getClass();
 		String clazzName = clazz.getName();
 		int idx = -1;
@@ -1027,21 +858,43 @@ return strBuf;
 			}
 			clazzName = clazz.getName();
 		}
-		boolean supportsMapping = getSimpleVersion() >= 202;
-		if (supportsMapping && classNameAbbrev) {
+		if (getSimpleVersion() >= 202 && classNameAbbrev) {
 			String shortClazzName = classNameMappings.get(clazzName);
 			if (shortClazzName != null) {
-				dos.writeBytes(shortClazzName);
-			} else {
-				dos.writeBytes(clazzName);
+				return shortClazzName;
 			}
+		}
+		return clazzName;
+	}
+
+	/**
+	 * Serialize into the given buffer, after its existing bytes. Size in
+	 * the header is patched in place after all fields are written.
+	 */
+	@J2SIgnore
+	void serializeBytes(SimpleOutputBuffer dos, SimpleFilter filter, List<SimpleSerializable> ssObjs, boolean supportsCompactBytes) throws IOException {
+		char baseChar = 'B';
+		int start = dos.size();
+		/*
+		 * "WLL" is used to mark Simple RPC, 100 is version 1.0.0, 
+		 * # is used to mark the the beginning of serialized data  
+		 */
+		dos.writeBytes("WLL");
+		dos.writeBytes(String.valueOf(getSimpleVersion()));
+		String clazzName = bytesClassName();
+		SimpleNameDictionary dictionary = getSimpleVersion() >= 206 ? dos.getDictionary() : null;
+		int nameId = dictionary == null ? -1 : dictionary.lookupOrAdd(clazzName);
+		if (nameId >= 0) {
+			dos.writeBytes("@" + nameId);
 		} else {
 			dos.writeBytes(clazzName);
 		}
+		boolean supportsMapping = getSimpleVersion() >= 202;
 		dos.writeBytes("#00000000$"); // later the number of size will be updated!
 		int headSize = dos.size();
 
-		Map<String, Field> fields = getSerializableFields(this.getClass());
+		SimpleCodecPlan plan = SimpleCodecPlan.getPlan(this.getClass());
+		SimpleCodecPlan.FieldHandler[] handlers = plan.handlers;
 		boolean ignoring = (filter == null || filter.ignoreDefaultFields());
 		String[] fMap = null;
 		Map<String, String> fieldNameMap = null;
@@ -1049,581 +902,273 @@ return strBuf;
 			fMap = fieldMapping();
 			fieldNameMap = fieldNameMapping();
 		}
+		String[] names = plan.getNameTable(fieldNameMap, fMap).names;
 		try {
-			for (Iterator<Entry<String, Field>> itr = fields.entrySet().iterator(); itr.hasNext();) {
-				Entry<String, Field> entry = (Entry<String, Field>) itr.next();
-				String name = entry.getKey();
-				Field field = entry.getValue();
-				if (filter != null && !filter.accept(name)) continue;
-				if (fieldNameMap != null) {
-					String alias = fieldNameMap.get(name);
-					if (alias != null && alias.length() > 0) {
-						name = alias;
-					}
-				} else if (fMap != null && fMap.length > 1) {
-					for (int j = 0; j < fMap.length / 2; j++) {
-						if (name.equals(fMap[j + j])) {
-							String newName = fMap[j + j + 1];
-							if (newName != null && newName.length() > 0) {
-								name = newName;
-							}
-							break;
-						}
-					}
-				}
-				//String nameStr = (char)(baseChar + name.length()) + name;
-				Class<?> type = field.getType();
-				if (type == String.class) {
-					String s = (String) field.get(this);
-					if (s == null && ignoring) continue;
-					dos.writeByte(baseChar + name.length());
-					dos.writeBytes(name);
-					serializeBytesString(dos, s);
-				} else if (type == int.class) {
-					int n = field.getInt(this);
-					if (n == 0 && ignoring) continue;
-					dos.writeByte(baseChar + name.length());
-					dos.writeBytes(name);
-					dos.writeByte('I');
-					String value = String.valueOf(n);
-					dos.writeByte(baseChar + value.length());
-					dos.writeBytes(value);
-				} else if (isSubclassOf(type, SimpleSerializable.class) || type == SimpleSerializable.class) {
-					SimpleSerializable ssObj = (SimpleSerializable) field.get(this);
-					if (ssObj == null && ignoring) continue;
-					dos.writeByte(baseChar + name.length());
-					dos.writeBytes(name);
-					serializeBytesObject(dos, ssObj, ssObjs, supportsCompactBytes);
-				} else if (type == long.class) {
-					long l = field.getLong(this);
-					if (l == 0L && ignoring) continue;
-					dos.writeByte(baseChar + name.length());
-					dos.writeBytes(name);
-					dos.writeByte('L');
-					String value = String.valueOf(l);
-					dos.writeByte(baseChar + value.length());
-					dos.writeBytes(value);
-				} else if (type == boolean.class) {
-					boolean b = field.getBoolean(this);
-					if (b == false && ignoring) continue;
-					dos.writeByte(baseChar + name.length());
-					dos.writeBytes(name);
-					dos.writeByte('b');
-					dos.writeByte('C'); // ((char) (baseChar + 1));
-					dos.writeByte(b ? '1' : '0');
-				} else if (type.isArray()) { // Array ...
-					if (type == byte[].class) {
-						byte [] bs = (byte []) field.get(this);
-						if (bs == null && ignoring) continue;
-						dos.writeByte(baseChar + name.length());
-						dos.writeBytes(name);
-						dos.writeBytes(!bytesCompactMode() || !supportsCompactBytes ? "AB" : "A8");
-						if (bs == null) {
-							dos.writeByte('A'); // (char) (baseChar - 1));
-						} else {
-							serializeBytesLength(dos, bs.length);
-							if (!bytesCompactMode() || !supportsCompactBytes) {
-								for (int j = 0; j < bs.length; j++) {
-									String value = String.valueOf(bs[j]);
-									dos.writeByte(baseChar + value.length());
-									dos.writeBytes(value);
-								}
-							} else {
-								dos.write(bs);
-							}
-						}
-					} else if (type == String[].class) {
-						String[] ss = (String []) field.get(this);
-						if (ss == null && ignoring) continue;
-						dos.writeByte(baseChar + name.length());
-						dos.writeBytes(name);
-						dos.writeBytes("AX"); // special
-						if (ss == null) {
-							dos.writeByte('A'); // (char) (baseChar - 1));
-						} else {
-							serializeBytesLength(dos, ss.length);
-							for (int j = 0; j < ss.length; j++) {
-								String s = ss[j];
-								serializeBytesString(dos, s);
-							}
-						}
-					} else if (isSubclassOf(type, SimpleSerializable[].class) || type == SimpleSerializable[].class) {
-						SimpleSerializable[] ss = (SimpleSerializable []) field.get(this);
-						if (ss == null && ignoring) continue;
-						dos.writeByte(baseChar + name.length());
-						dos.writeBytes(name);
-						dos.writeBytes("AO"); // special
-						if (ss == null) {
-							dos.writeByte('A'); // (char) (baseChar - 1));
-						} else {
-							serializeBytesLength(dos, ss.length);
-							for (int j = 0; j < ss.length; j++) {
-								SimpleSerializable s = ss[j];
-								serializeBytesObject(dos, s, ssObjs, supportsCompactBytes);
-							}
-						}
-					} else if (type == int[].class) {
-						int [] ns = (int []) field.get(this);
-						if (ns == null && ignoring) continue;
-						dos.writeByte(baseChar + name.length());
-						dos.writeBytes(name);
-						dos.writeBytes("AI");
-						if (ns == null) {
-							dos.writeByte('A'); // (char) (baseChar - 1));
-						} else {
-							serializeBytesLength(dos, ns.length);
-							for (int j = 0; j < ns.length; j++) {
-								String value = String.valueOf(ns[j]);
-								dos.writeByte(baseChar + value.length());
-								dos.writeBytes(value);
-							}
-						}
-					} else if (type == long[].class) {
-						long [] ls = (long []) field.get(this);
-						if (ls == null && ignoring) continue;
-						dos.writeByte(baseChar + name.length());
-						dos.writeBytes(name);
-						dos.writeBytes("AL");
-						if (ls == null) {
-							dos.writeByte('A'); // (char) (baseChar - 1));
-						} else {
-							serializeBytesLength(dos, ls.length);
-							for (int j = 0; j < ls.length; j++) {
-								String value = String.valueOf(ls[j]);
-								dos.writeByte(baseChar + value.length());
-								dos.writeBytes(value);
-							}
-						}
-					} else if (type == boolean[].class) {
-						boolean [] bs = (boolean []) field.get(this);
-						if (bs == null && ignoring) continue;
-						dos.writeByte(baseChar + name.length());
-						dos.writeBytes(name);
-						dos.writeBytes("Ab");
-						if (bs == null) {
-							dos.writeByte('A'); // (char) (baseChar - 1));
-						} else {
-							serializeBytesLength(dos, bs.length);
-							for (int j = 0; j < bs.length; j++) {
-								dos.writeByte('C'); // (char) (baseChar + 1));
-								dos.writeByte(bs[j] ? '1' : '0');
-							}
-						}
-					} else if (type == float[].class) {
-						float[] fs = (float[]) field.get(this);
-						if (fs == null && ignoring) continue;
-						dos.writeByte(baseChar + name.length());
-						dos.writeBytes(name);
-						dos.writeBytes("AF");
-						if (fs == null) {
-							dos.writeByte('A'); // (char) (baseChar - 1));
-						} else {
-							serializeBytesLength(dos, fs.length);
-							for (int j = 0; j < fs.length; j++) {
-								String value = String.valueOf(fs[j]);
-								dos.writeByte(baseChar + value.length());
-								dos.writeBytes(value);
-							}
-						}
-					} else if (type == double[].class) {
-						double [] ds = (double []) field.get(this);
-						if (ds == null && ignoring) continue;
-						dos.writeByte(baseChar + name.length());
-						dos.writeBytes(name);
-						dos.writeBytes("AD");
-						if (ds == null) {
-							dos.writeByte('A'); // (char) (baseChar - 1));
-						} else {
-							serializeBytesLength(dos, ds.length);
-							for (int j = 0; j < ds.length; j++) {
-								String value = String.valueOf(ds[j]);
-								dos.writeByte(baseChar + value.length());
-								dos.writeBytes(value);
-							}
-						}
-					} else if (type == short[].class) {
-						short [] ss = (short []) field.get(this);
-						if (ss == null && ignoring) continue;
-						dos.writeByte(baseChar + name.length());
-						dos.writeBytes(name);
-						dos.writeBytes("AS");
-						if (ss == null) {
-							dos.writeByte('A'); // (char) (baseChar - 1));
-						} else {
-							serializeBytesLength(dos, ss.length);
-							for (int j = 0; j < ss.length; j++) {
-								String value = String.valueOf(ss[j]);
-								dos.writeByte(baseChar + value.length());
-								dos.writeBytes(value);
-							}
-						}
-					} else if (type == char[].class) {
-						char [] cs = (char []) field.get(this);
-						if (cs == null && ignoring) continue;
-						dos.writeByte(baseChar + name.length());
-						dos.writeBytes(name);
-						dos.writeBytes("AC");
-						if (cs == null) {
-							dos.writeByte('A'); // (char) (baseChar - 1));
-						} else {
-							serializeBytesLength(dos, cs.length);
-							for (int j = 0; j < cs.length; j++) {
-								int c = cs[j];
-								String value = Integer.toString(c, 10);
-								dos.writeByte(baseChar + value.length());
-								dos.writeBytes(value);
-							}
-						}
-					} else if (type.getComponentType().isEnum()) {
-						Enum<?>[] ss = (Enum<?>[]) field.get(this);
-						if (ss == null && ignoring) continue;
-						dos.writeByte((char)(baseChar + name.length()));
-						dos.writeBytes(name);
-						dos.writeBytes("AE");
-						if (ss == null) {
-							dos.writeByte('A'); // (char) (baseChar - 1));
-						} else {
-							serializeBytesLength(dos, ss.length);
-							for (int j = 0; j < ss.length; j++) {
-								if (ss[j] == null) {
-									dos.writeByte('A'); // (char) (baseChar - 1));
-								} else {
-									String value = ss[j].name();
-									dos.writeByte((char) (baseChar + value.length()));
-									dos.writeBytes(value);
-								}
-							}
-						}
-					} else {
-						continue; // just ignore it
-						// others unknown or unsupported types!
-						// throw new RuntimeException("Unsupported data type in Java2Script Simple RPC!");
-					}
-				} else if (isSubInterfaceOf(type, Collection.class)) {
-					Collection<?> collection = (Collection<?>)field.get(this);
-					if (collection == null && ignoring) continue;
-					dos.writeByte(baseChar + name.length());
-					dos.writeBytes(name);
-					dos.writeByte('Z');
-					if (isSubInterfaceOf(type, List.class)) {
-						dos.writeByte('Z');
-					} else if (isSubInterfaceOf(type, Set.class)) {
-						dos.writeByte('Y');
-					} else if (isSubInterfaceOf(type, Queue.class)) {
-						dos.writeByte('Q');
-					} else {
-						dos.writeByte('W');
-					}
-					if (collection == null) {
-						dos.writeByte('A'); // (char) (baseChar - 1));
-					} else {
-						Object[] os = collection.toArray();
-						serializeBytesLength(dos, os.length);
-						for (int j = 0; j < os.length; j++) {
-							Object o = os[j];
-							if (o == null) {
-								dos.writeBytes("OA");
-							} else {
-								serializeBytesArrayItem(dos, o.getClass(), o, ssObjs, supportsCompactBytes);
-							}
-						}
-					}
-				} else if (isSubInterfaceOf(type, Map.class)) {
-					Map<?, ?> map = (Map<?, ?>)field.get(this);
-					if (map == null && ignoring) continue;
-					dos.writeByte(baseChar + name.length());
-					dos.writeBytes(name);
-					dos.writeBytes("YM");
-					if (map == null) {
-						dos.writeByte('A'); // (char) (baseChar - 1));
-					} else {
-						serializeBytesLength(dos, map.size() * 2);
-						for (Iterator<?> iter = map.keySet().iterator(); iter
-								.hasNext();) {
-							Object key = iter.next();
-							if (key == null) {
-								dos.writeBytes("OA");
-							} else {
-								serializeBytesArrayItem(dos, key.getClass(), key, ssObjs, supportsCompactBytes);
-							}
-							Object value = map.get(key);
-							if (value == null) {
-								dos.writeBytes("OA");
-							} else {
-								serializeBytesArrayItem(dos, value.getClass(), value, ssObjs, supportsCompactBytes);
-							}
-						}
-					}
-				} else if (type.isEnum()) {
-					Enum<?> e = (Enum<?>)field.get(this);
-					if (e == null && ignoring) continue;
-					dos.writeByte(baseChar + name.length());
-					dos.writeBytes(name);
-					dos.writeByte('E');
-					if (e == null) {
-						dos.writeByte('A'); // (char) (baseChar - 1));
-					} else {
-						String value = String.valueOf(e.name());
-						dos.writeByte(baseChar + value.length());
-						dos.writeBytes(value);
-					}
-				} else if (type == float.class) {
-					float f = field.getFloat(this);
-					if (f == 0.0 && ignoring) continue;
-					dos.writeByte(baseChar + name.length());
-					dos.writeBytes(name);
-					dos.writeByte('F');
-					String value = String.valueOf(f);
-					dos.writeByte(baseChar + value.length());
-					dos.writeBytes(value);
-				} else if (type == double.class) {
-					double d = field.getDouble(this);
-					if (d == 0.0d && ignoring) continue;
-					dos.writeByte(baseChar + name.length());
-					dos.writeBytes(name);
-					dos.writeByte('D');
-					String value = String.valueOf(d);
-					dos.writeByte(baseChar + value.length());
-					dos.writeBytes(value);
-				} else if (type == short.class) {
-					short s = field.getShort(this);
-					if (s == 0 && ignoring) continue;
-					dos.writeByte(baseChar + name.length());
-					dos.writeBytes(name);
-					dos.writeByte('S');
-					String value = String.valueOf(s);
-					dos.writeByte(baseChar + value.length());
-					dos.writeBytes(value);
-				} else if (type == byte.class) {
-					byte b = field.getByte(this);
-					if (b == 0 && ignoring) continue;
-					dos.writeByte(baseChar + name.length());
-					dos.writeBytes(name);
-					dos.writeByte('B');
-					String value = String.valueOf(b);
-					dos.writeByte(baseChar + value.length());
-					dos.writeBytes(value);
-				} else if (type == char.class) {
-					int c = 0 + field.getChar(this);
-					if (c == 0 && ignoring) continue;
-					dos.writeByte(baseChar + name.length());
-					dos.writeBytes(name);
-					dos.writeByte('C');
-					String value = Integer.toString(c, 10);
-					dos.writeByte(baseChar + value.length());
-					dos.writeBytes(value);
-				}
+			for (int i = 0; i < handlers.length; i++) {
+				SimpleCodecPlan.FieldHandler field = handlers[i];
+				if (filter != null && !filter.accept(field.name)) continue;
+				serializeBytesField(dos, field, names[i], ignoring, ssObjs, supportsCompactBytes);
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
-		int size = dos.size();
+		int size = dos.size() - start;
 		if (size > 0x1000000) { // 16 * 1024 * 1024
 			throw new RuntimeException(EXCEPTION_DATA_TOO_LARGE);
 		}
 		// update size!
-		String sizeStr = String.valueOf(size - headSize);
-		int sizeLength = sizeStr.length();
-		byte[] bytes = baos.toByteArray();
-		for (int i = 0; i < sizeLength; i++) {
-			bytes[headSize - sizeLength - 1 + i] = (byte) sizeStr.charAt(i);
-		}
-		return bytes;
+		String sizeStr = String.valueOf(dos.size() - headSize);
+		dos.patchBytes(headSize - sizeStr.length() - 1, sizeStr);
 	}
 
 	@J2SIgnore
 	private void serializeArrayItem(StringBuilder builder, Class<?> type, Object target,
 			List<SimpleSerializable> ssObjs, boolean supportsCompactBytes) throws Exception {
+		serializeValue(builder, SimpleCodecPlan.itemTypeOf(type), target, ssObjs, supportsCompactBytes);
+	}
+
+	/**
+	 * Serialize value with type, field name is not included.
+	 * 
+	 * @param builder
+	 * @param type type tag in SimpleCodecPlan
+	 * @param target value, primitive values are boxed
+	 * @param ssObjs
+	 * @param supportsCompactBytes
+	 * @throws Exception
+	 */
+	@J2SIgnore
+	private void serializeValue(StringBuilder builder, int type, Object target,
+			List<SimpleSerializable> ssObjs, boolean supportsCompactBytes) throws Exception {
 		char baseChar = 'B';
-		if (type == String.class) {
-			String s = (String) target;
-			serializeString(builder, s);
-		} else if (type == Integer.class) {
-			int n = ((Integer) target).intValue();
-			builder.append('I');
-			String value = String.valueOf(n);
-			builder.append((char) (baseChar + value.length()));
-			builder.append(value);
-		} else if (isSubclassOf(type, SimpleSerializable.class) || type == SimpleSerializable.class) {
-			SimpleSerializable ssObj = (SimpleSerializable) target;
-			serializeObject(builder, ssObj, ssObjs, supportsCompactBytes);
-		} else if (type == Long.class) {
-			long l = ((Long) target).longValue();
-			builder.append('L');
-			String value = String.valueOf(l);
-			builder.append((char) (baseChar + value.length()));
-			builder.append(value);
-		} else if (type == Boolean.class) {
-			boolean b = ((Boolean) target).booleanValue();
+		switch (type) {
+		case SimpleCodecPlan.TYPE_STRING:
+			serializeString(builder, (String) target);
+			break;
+		case SimpleCodecPlan.TYPE_INT:
+			serializeScalar(builder, 'I', String.valueOf(((Integer) target).intValue()));
+			break;
+		case SimpleCodecPlan.TYPE_OBJECT:
+			serializeObject(builder, (SimpleSerializable) target, ssObjs, supportsCompactBytes);
+			break;
+		case SimpleCodecPlan.TYPE_LONG:
+			serializeScalar(builder, 'L', String.valueOf(((Long) target).longValue()));
+			break;
+		case SimpleCodecPlan.TYPE_BOOLEAN:
 			builder.append('b');
 			builder.append('C'); // ((char) (baseChar + 1));
-			builder.append(b ? '1' : '0');
-		} else if (type.isArray()) { // Array ...
-			if (type == byte[].class) {
-				byte [] bs = (byte []) target;
-				builder.append(!bytesCompactMode() || !supportsCompactBytes ? "AB" : "A8");
-				if (bs == null) {
-					builder.append('A'); // (char) (baseChar - 1));
-				} else {
-					serializeLength(builder, bs.length);
-					if (!bytesCompactMode() || !supportsCompactBytes) {
-						for (int j = 0; j < bs.length; j++) {
-							String value = String.valueOf(bs[j]);
-							builder.append((char) (baseChar + value.length()));
-							builder.append(value);
-						}
-					} else {
-						builder.append(new String(bs, ISO_8859_1));
+			builder.append(((Boolean) target).booleanValue() ? '1' : '0');
+			break;
+		case SimpleCodecPlan.TYPE_FLOAT:
+			serializeScalar(builder, 'F', String.valueOf(((Float) target).floatValue()));
+			break;
+		case SimpleCodecPlan.TYPE_DOUBLE:
+			serializeScalar(builder, 'D', String.valueOf(((Double) target).doubleValue()));
+			break;
+		case SimpleCodecPlan.TYPE_SHORT:
+			serializeScalar(builder, 'S', String.valueOf(((Short) target).shortValue()));
+			break;
+		case SimpleCodecPlan.TYPE_BYTE:
+			serializeScalar(builder, 'B', String.valueOf(((Byte) target).byteValue()));
+			break;
+		case SimpleCodecPlan.TYPE_CHAR:
+			serializeScalar(builder, 'C', Integer.toString(((Character) target).charValue(), 10));
+			break;
+		case SimpleCodecPlan.TYPE_ENUM: {
+			Enum<?> e = (Enum<?>) target;
+			builder.append('E');
+			if (e == null) {
+				builder.append('A'); // (char) (baseChar - 1));
+			} else {
+				String value = e.name();
+				builder.append((char) (baseChar + value.length()));
+				builder.append(value);
+			}
+			break;
+		}
+		case SimpleCodecPlan.TYPE_BYTES: {
+			byte [] bs = bytesOf(target);
+			builder.append(!bytesCompactMode() || !supportsCompactBytes ? "AB" : "A8");
+			if (bs == null) {
+				builder.append('A'); // (char) (baseChar - 1));
+			} else {
+				serializeLength(builder, bs.length);
+				if (!bytesCompactMode() || !supportsCompactBytes) {
+					for (int j = 0; j < bs.length; j++) {
+						String value = String.valueOf(bs[j]);
+						builder.append((char) (baseChar + value.length()));
+						builder.append(value);
 					}
-				}
-			} else if (type == String[].class) {
-				String[] ss = (String []) target;
-				builder.append("AX"); // special
-				if (ss == null) {
-					builder.append('A'); // (char) (baseChar - 1));
 				} else {
-					serializeLength(builder, ss.length);
-					for (int j = 0; j < ss.length; j++) {
-						String s = ss[j];
-						serializeString(builder, s);
-					}
+					builder.append(new String(bs, ISO_8859_1));
 				}
-			} else if (isSubclassOf(type, SimpleSerializable[].class) || type == SimpleSerializable[].class) {
-				SimpleSerializable[] ss = (SimpleSerializable []) target;
-				builder.append("AO"); // special
-				if (ss == null) {
-					builder.append('A'); // (char) (baseChar - 1));
-				} else {
-					serializeLength(builder, ss.length);
-					for (int j = 0; j < ss.length; j++) {
-						SimpleSerializable s = ss[j];
-						serializeObject(builder, s, ssObjs, supportsCompactBytes);
-					}
+			}
+			break;
+		}
+		case SimpleCodecPlan.TYPE_STRINGS: {
+			String[] ss = (String []) target;
+			builder.append("AX"); // special
+			if (ss == null) {
+				builder.append('A'); // (char) (baseChar - 1));
+			} else {
+				serializeLength(builder, ss.length);
+				for (int j = 0; j < ss.length; j++) {
+					serializeString(builder, ss[j]);
 				}
-			} else if (type == int[].class) {
-				int [] ns = (int []) target;
-				builder.append("AI");
-				if (ns == null) {
-					builder.append('A'); // (char) (baseChar - 1));
-				} else {
-					serializeLength(builder, ns.length);
-					for (int j = 0; j < ns.length; j++) {
-						String value = String.valueOf(ns[j]);
-						builder.append((char) (baseChar + value.length()));
-						builder.append(value);
-					}
+			}
+			break;
+		}
+		case SimpleCodecPlan.TYPE_OBJECTS: {
+			SimpleSerializable[] ss = (SimpleSerializable []) target;
+			builder.append("AO"); // special
+			if (ss == null) {
+				builder.append('A'); // (char) (baseChar - 1));
+			} else {
+				serializeLength(builder, ss.length);
+				for (int j = 0; j < ss.length; j++) {
+					serializeObject(builder, ss[j], ssObjs, supportsCompactBytes);
 				}
-			} else if (type == long[].class) {
-				long [] ls = (long []) target;
-				builder.append("AL");
-				if (ls == null) {
-					builder.append('A'); // (char) (baseChar - 1));
-				} else {
-					serializeLength(builder, ls.length);
-					for (int j = 0; j < ls.length; j++) {
-						String value = String.valueOf(ls[j]);
-						builder.append((char) (baseChar + value.length()));
-						builder.append(value);
-					}
+			}
+			break;
+		}
+		case SimpleCodecPlan.TYPE_INTS: {
+			int [] ns = (int []) target;
+			builder.append("AI");
+			if (ns == null) {
+				builder.append('A'); // (char) (baseChar - 1));
+			} else {
+				serializeLength(builder, ns.length);
+				for (int j = 0; j < ns.length; j++) {
+					String value = String.valueOf(ns[j]);
+					builder.append((char) (baseChar + value.length()));
+					builder.append(value);
 				}
-			} else if (type == boolean[].class) {
-				boolean [] bs = (boolean []) target;
-				builder.append("Ab");
-				if (bs == null) {
-					builder.append('A'); // (char) (baseChar - 1));
-				} else {
-					serializeLength(builder, bs.length);
-					for (int j = 0; j < bs.length; j++) {
-						builder.append('C'); // (char) (baseChar + 1));
-						builder.append(bs[j] ? '1' : '0');
-					}
+			}
+			break;
+		}
+		case SimpleCodecPlan.TYPE_LONGS: {
+			long [] ls = (long []) target;
+			builder.append("AL");
+			if (ls == null) {
+				builder.append('A'); // (char) (baseChar - 1));
+			} else {
+				serializeLength(builder, ls.length);
+				for (int j = 0; j < ls.length; j++) {
+					String value = String.valueOf(ls[j]);
+					builder.append((char) (baseChar + value.length()));
+					builder.append(value);
 				}
-			} else if (type == float[].class) {
-				float[] fs = (float[]) target;
-				builder.append("AF");
-				if (fs == null) {
-					builder.append('A'); // (char) (baseChar - 1));
-				} else {
-					serializeLength(builder, fs.length);
-					for (int j = 0; j < fs.length; j++) {
-						String value = String.valueOf(fs[j]);
-						builder.append((char) (baseChar + value.length()));
-						builder.append(value);
-					}
+			}
+			break;
+		}
+		case SimpleCodecPlan.TYPE_BOOLEANS: {
+			boolean [] bs = (boolean []) target;
+			builder.append("Ab");
+			if (bs == null) {
+				builder.append('A'); // (char) (baseChar - 1));
+			} else {
+				serializeLength(builder, bs.length);
+				for (int j = 0; j < bs.length; j++) {
+					builder.append('C'); // (char) (baseChar + 1));
+					builder.append(bs[j] ? '1' : '0');
 				}
-			} else if (type == double[].class) {
-				double [] ds = (double []) target;
-				builder.append("AD");
-				if (ds == null) {
-					builder.append('A'); // (char) (baseChar - 1));
-				} else {
-					serializeLength(builder, ds.length);
-					for (int j = 0; j < ds.length; j++) {
-						String value = String.valueOf(ds[j]);
-						builder.append((char) (baseChar + value.length()));
-						builder.append(value);
-					}
+			}
+			break;
+		}
+		case SimpleCodecPlan.TYPE_FLOATS: {
+			float[] fs = (float[]) target;
+			builder.append("AF");
+			if (fs == null) {
+				builder.append('A'); // (char) (baseChar - 1));
+			} else {
+				serializeLength(builder, fs.length);
+				for (int j = 0; j < fs.length; j++) {
+					String value = String.valueOf(fs[j]);
+					builder.append((char) (baseChar + value.length()));
+					builder.append(value);
 				}
-			} else if (type == short[].class) {
-				short [] ss = (short []) target;
-				builder.append("AS");
-				if (ss == null) {
-					builder.append('A'); // (char) (baseChar - 1));
-				} else {
-					serializeLength(builder, ss.length);
-					for (int j = 0; j < ss.length; j++) {
-						String value = String.valueOf(ss[j]);
-						builder.append((char) (baseChar + value.length()));
-						builder.append(value);
-					}
+			}
+			break;
+		}
+		case SimpleCodecPlan.TYPE_DOUBLES: {
+			double [] ds = (double []) target;
+			builder.append("AD");
+			if (ds == null) {
+				builder.append('A'); // (char) (baseChar - 1));
+			} else {
+				serializeLength(builder, ds.length);
+				for (int j = 0; j < ds.length; j++) {
+					String value = String.valueOf(ds[j]);
+					builder.append((char) (baseChar + value.length()));
+					builder.append(value);
 				}
-			} else if (type == char[].class) {
-				char [] cs = (char []) target;
-				builder.append("AC");
-				if (cs == null) {
-					builder.append('A'); // (char) (baseChar - 1));
-				} else {
-					serializeLength(builder, cs.length);
-					for (int j = 0; j < cs.length; j++) {
-						int c = cs[j];
-						String value = Integer.toString(c, 10);
+			}
+			break;
+		}
+		case SimpleCodecPlan.TYPE_SHORTS: {
+			short [] ss = (short []) target;
+			builder.append("AS");
+			if (ss == null) {
+				builder.append('A'); // (char) (baseChar - 1));
+			} else {
+				serializeLength(builder, ss.length);
+				for (int j = 0; j < ss.length; j++) {
+					String value = String.valueOf(ss[j]);
+					builder.append((char) (baseChar + value.length()));
+					builder.append(value);
+				}
+			}
+			break;
+		}
+		case SimpleCodecPlan.TYPE_CHARS: {
+			char [] cs = (char []) target;
+			builder.append("AC");
+			if (cs == null) {
+				builder.append('A'); // (char) (baseChar - 1));
+			} else {
+				serializeLength(builder, cs.length);
+				for (int j = 0; j < cs.length; j++) {
+					int c = cs[j];
+					String value = Integer.toString(c, 10);
+					builder.append((char) (baseChar + value.length()));
+					builder.append(value);
+				}
+			}
+			break;
+		}
+		case SimpleCodecPlan.TYPE_ENUMS: {
+			Enum<?>[] ss = (Enum<?>[]) target;
+			builder.append("AE");
+			if (ss == null) {
+				builder.append('A'); // (char) (baseChar - 1));
+			} else {
+				serializeLength(builder, ss.length);
+				for (int j = 0; j < ss.length; j++) {
+					if (ss[j] == null) {
+						builder.append('A'); // (char) (baseChar - 1));
+					} else {
+						String value = ss[j].name();
 						builder.append((char) (baseChar + value.length()));
 						builder.append(value);
 					}
 				}
-			} else if (type.getComponentType().isEnum()) {
-				Enum<?>[] ss = (Enum<?>[]) target;
-				builder.append("AE");
-				if (ss == null) {
-					builder.append('A'); // (char) (baseChar - 1));
-				} else {
-					serializeLength(builder, ss.length);
-					for (int j = 0; j < ss.length; j++) {
-						if (ss[j] == null) {
-							builder.append('A'); // (char) (baseChar - 1));
-						} else {
-							String value = ss[j].name();
-							builder.append((char) (baseChar + value.length()));
-							builder.append(value);
-						}
-					}
-				}
-			} else {
-				builder.append("OA");
-				// others unknown or unsupported types!
-				// throw new RuntimeException("Unsupported data type in Java2Script Simple RPC!");
 			}
-		} else if (isSubInterfaceOf(type, Collection.class)) {
+			break;
+		}
+		case SimpleCodecPlan.TYPE_LIST:
+		case SimpleCodecPlan.TYPE_SET:
+		case SimpleCodecPlan.TYPE_QUEUE:
+		case SimpleCodecPlan.TYPE_COLLECTION: {
 			Collection<?> collection = (Collection<?>) target;
 			builder.append('Z');
-			if (isSubInterfaceOf(type, List.class)) {
+			if (type == SimpleCodecPlan.TYPE_LIST) {
 				builder.append('Z');
-			} else if (isSubInterfaceOf(type, Set.class)) {
+			} else if (type == SimpleCodecPlan.TYPE_SET) {
 				builder.append('Y');
-			} else if (isSubInterfaceOf(type, Queue.class)) {
+			} else if (type == SimpleCodecPlan.TYPE_QUEUE) {
 				builder.append('Q');
 			} else {
-				builder.append('W');
+				builder.append('W'); // Other collections
 			}
 			if (collection == null) {
 				builder.append('A'); // (char) (baseChar - 1));
@@ -1639,7 +1184,9 @@ return strBuf;
 					}
 				}
 			}
-		} else if (isSubInterfaceOf(type, Map.class)) {
+			break;
+		}
+		case SimpleCodecPlan.TYPE_MAP: {
 			Map<?, ?> map = (Map<?, ?>) target;
 			builder.append("YM");
 			if (map == null) {
@@ -1662,261 +1209,436 @@ return strBuf;
 					}
 				}
 			}
-		} else if (type.isEnum()) {
-			Enum<?> e = (Enum<?>) target;
-			builder.append('E');
-			if (e == null) {
-				builder.append('A'); // (char) (baseChar - 1));
-			} else {
-				String value = String.valueOf(e.name());
-				builder.append((char) (baseChar + value.length()));
-				builder.append(value);
-			}
-		} else if (type == Float.class) {
-			float f = ((Float) target).floatValue();
-			builder.append('F');
-			String value = String.valueOf(f);
-			builder.append((char) (baseChar + value.length()));
-			builder.append(value);
-		} else if (type == Double.class) {
-			double d = ((Double) target).doubleValue();
-			builder.append('D');
-			String value = String.valueOf(d);
-			builder.append((char) (baseChar + value.length()));
-			builder.append(value);
-		} else if (type == Short.class) {
-			short s = ((Short) target).shortValue();
-			builder.append('S');
-			String value = String.valueOf(s);
-			builder.append((char) (baseChar + value.length()));
-			builder.append(value);
-		} else if (type == Byte.class) {
-			byte b = ((Byte) target).byteValue();
-			builder.append('B');
-			String value = String.valueOf(b);
-			builder.append((char) (baseChar + value.length()));
-			builder.append(value);
-		} else if (type == Character.class) {
-			int c = 0 + ((Character) target).charValue();
-			builder.append('C');
-			String value = Integer.toString(c, 10);
-			builder.append((char) (baseChar + value.length()));
-			builder.append(value);
-		} else {
+			break;
+		}
+		default:
 			builder.append("OA");
 			// others unknown or unsupported types!
+			// throw new RuntimeException("Unsupported data type in Java2Script Simple RPC!");
 		}
 	}
 
 	@J2SIgnore
-	private void serializeBytesArrayItem(DataOutputStream dos, Class<?> type, Object target,
-			List<SimpleSerializable> ssObjs, boolean supportsCompactBytes) throws Exception {
+	private void serializeScalar(StringBuilder builder, char type, String value) {
 		char baseChar = 'B';
-		if (type == String.class) {
-			String s = (String) target;
-			serializeBytesString(dos, s);
-		} else if (type == Integer.class) {
-			int n = ((Integer) target).intValue();
-			dos.writeByte('I');
-			String value = String.valueOf(n);
-			dos.writeByte(baseChar + value.length());
-			dos.writeBytes(value);
-		} else if (isSubclassOf(type, SimpleSerializable.class) || type == SimpleSerializable.class) {
-			SimpleSerializable ssObj = (SimpleSerializable) target;
-			serializeBytesObject(dos, ssObj, ssObjs, supportsCompactBytes);
-		} else if (type == Long.class) {
-			long l = ((Long) target).longValue();
-			dos.writeByte('L');
-			String value = String.valueOf(l);
-			dos.writeByte(baseChar + value.length());
-			dos.writeBytes(value);
-		} else if (type == Boolean.class) {
-			boolean b = ((Boolean) target).booleanValue();
+		builder.append(type);
+		builder.append((char) (baseChar + value.length()));
+		builder.append(value);
+	}
+
+	/**
+	 * Serialize field with its name, or only its value if name is null.
+	 * 
+	 * @return false if field is not serialized for its default value
+	 */
+	@J2SIgnore
+	private boolean serializeBytesField(SimpleOutputBuffer dos, SimpleCodecPlan.FieldHandler field, String name,
+			boolean ignoring, List<SimpleSerializable> ssObjs, boolean supportsCompactBytes) throws Exception {
+		char baseChar = 'B';
+		switch (field.type) {
+		case SimpleCodecPlan.TYPE_INT: {
+			int n = field.getInt(this);
+			if (n == 0 && ignoring) return false;
+			serializeBytesName(dos, name);
+			serializeBytesNumber(dos, 'I', n);
+			break;
+		}
+		case SimpleCodecPlan.TYPE_LONG: {
+			long l = field.getLong(this);
+			if (l == 0L && ignoring) return false;
+			serializeBytesName(dos, name);
+			serializeBytesNumber(dos, 'L', l);
+			break;
+		}
+		case SimpleCodecPlan.TYPE_BOOLEAN: {
+			boolean b = field.getBoolean(this);
+			if (b == false && ignoring) return false;
+			serializeBytesName(dos, name);
 			dos.writeByte('b');
 			dos.writeByte('C'); // ((char) (baseChar + 1));
 			dos.writeByte(b ? '1' : '0');
-		} else if (type.isArray()) { // Array ...
-			if (type == byte[].class) {
-				byte [] bs = (byte []) target;
-				dos.writeBytes(!bytesCompactMode() || !supportsCompactBytes ? "AB" : "A8");
-				if (bs == null) {
-					dos.writeByte('A'); // (char) (baseChar - 1));
-				} else {
-					serializeBytesLength(dos, bs.length);
-					if (!bytesCompactMode() || !supportsCompactBytes) {
-						for (int j = 0; j < bs.length; j++) {
-							String value = String.valueOf(bs[j]);
-							dos.writeByte(baseChar + value.length());
-							dos.writeBytes(value);
-						}
-					} else {
-						dos.write(bs);
-					}
-				}
-			} else if (type == String[].class) {
-				String[] ss = (String []) target;
-				dos.writeBytes("AX"); // special
-				if (ss == null) {
-					dos.writeByte('A'); // (char) (baseChar - 1));
-				} else {
-					serializeBytesLength(dos, ss.length);
-					for (int j = 0; j < ss.length; j++) {
-						String s = ss[j];
-						serializeBytesString(dos, s);
-					}
-				}
-			} else if (isSubclassOf(type, SimpleSerializable[].class) || type == SimpleSerializable[].class) {
-				SimpleSerializable[] ss = (SimpleSerializable []) target;
-				dos.writeBytes("AO"); // special
-				if (ss == null) {
-					dos.writeByte('A'); // (char) (baseChar - 1));
-				} else {
-					serializeBytesLength(dos, ss.length);
-					for (int j = 0; j < ss.length; j++) {
-						SimpleSerializable s = ss[j];
-						serializeBytesObject(dos, s, ssObjs, supportsCompactBytes);
+			break;
+		}
+		case SimpleCodecPlan.TYPE_FLOAT: {
+			float f = field.getFloat(this);
+			if (f == 0.0 && ignoring) return false;
+			serializeBytesName(dos, name);
+			serializeBytesFloat(dos, f);
+			break;
+		}
+		case SimpleCodecPlan.TYPE_DOUBLE: {
+			double d = field.getDouble(this);
+			if (d == 0.0d && ignoring) return false;
+			serializeBytesName(dos, name);
+			serializeBytesDouble(dos, d);
+			break;
+		}
+		case SimpleCodecPlan.TYPE_SHORT: {
+			short s = field.getShort(this);
+			if (s == 0 && ignoring) return false;
+			serializeBytesName(dos, name);
+			serializeBytesNumber(dos, 'S', s);
+			break;
+		}
+		case SimpleCodecPlan.TYPE_BYTE: {
+			byte b = field.getByte(this);
+			if (b == 0 && ignoring) return false;
+			serializeBytesName(dos, name);
+			serializeBytesNumber(dos, 'B', b);
+			break;
+		}
+		case SimpleCodecPlan.TYPE_CHAR: {
+			int c = 0 + field.getChar(this);
+			if (c == 0 && ignoring) return false;
+			serializeBytesName(dos, name);
+			serializeBytesNumber(dos, 'C', c);
+			break;
+		}
+		case SimpleCodecPlan.TYPE_UNKNOWN:
+			return false; // just ignore it
+			// others unknown or unsupported types!
+			// throw new RuntimeException("Unsupported data type in Java2Script Simple RPC!");
+		default: {
+			Object value = field.get(this);
+			if (value == null && ignoring) return false;
+			serializeBytesName(dos, name);
+			serializeBytesValue(dos, field.type, value, ssObjs, supportsCompactBytes);
+		}
+		}
+		return true;
+	}
+
+	/**
+	 * Write field name, or 'A' and its id in the names dictionary since
+	 * version 206.
+	 */
+	@J2SIgnore
+	private void serializeBytesName(SimpleOutputBuffer dos, String name) {
+		if (name == null) {
+			return;
+		}
+		SimpleNameDictionary dictionary = getSimpleVersion() >= 206 ? dos.getDictionary() : null;
+		int id = dictionary == null ? -1 : dictionary.lookupOrAdd(name);
+		if (id >= 0) {
+			dos.writeByte('A');
+			dos.writeVarint(id);
+			return;
+		}
+		dos.writeByte('B' + name.length());
+		dos.writeBytes(name);
+	}
+
+	@J2SIgnore
+	private void serializeBytesArrayItem(SimpleOutputBuffer dos, Class<?> type, Object target,
+			List<SimpleSerializable> ssObjs, boolean supportsCompactBytes) throws Exception {
+		serializeBytesValue(dos, SimpleCodecPlan.itemTypeOf(type), target, ssObjs, supportsCompactBytes);
+	}
+
+	/**
+	 * Serialize value with type, field name is not included.
+	 * 
+	 * @param dos
+	 * @param type type tag in SimpleCodecPlan
+	 * @param target value, primitive values are boxed
+	 * @param ssObjs
+	 * @param supportsCompactBytes
+	 * @throws Exception
+	 */
+	@J2SIgnore
+	private void serializeBytesValue(SimpleOutputBuffer dos, int type, Object target,
+			List<SimpleSerializable> ssObjs, boolean supportsCompactBytes) throws Exception {
+		char baseChar = 'B';
+		switch (type) {
+		case SimpleCodecPlan.TYPE_STRING:
+			serializeBytesString(dos, (String) target, ssObjs);
+			break;
+		case SimpleCodecPlan.TYPE_INT:
+			serializeBytesNumber(dos, 'I', ((Integer) target).intValue());
+			break;
+		case SimpleCodecPlan.TYPE_OBJECT:
+			serializeBytesObject(dos, (SimpleSerializable) target, ssObjs, supportsCompactBytes);
+			break;
+		case SimpleCodecPlan.TYPE_LONG:
+			serializeBytesNumber(dos, 'L', ((Long) target).longValue());
+			break;
+		case SimpleCodecPlan.TYPE_BOOLEAN:
+			dos.writeByte('b');
+			dos.writeByte('C'); // ((char) (baseChar + 1));
+			dos.writeByte(((Boolean) target).booleanValue() ? '1' : '0');
+			break;
+		case SimpleCodecPlan.TYPE_FLOAT:
+			serializeBytesFloat(dos, ((Float) target).floatValue());
+			break;
+		case SimpleCodecPlan.TYPE_DOUBLE:
+			serializeBytesDouble(dos, ((Double) target).doubleValue());
+			break;
+		case SimpleCodecPlan.TYPE_SHORT:
+			serializeBytesNumber(dos, 'S', ((Short) target).shortValue());
+			break;
+		case SimpleCodecPlan.TYPE_BYTE:
+			serializeBytesNumber(dos, 'B', ((Byte) target).byteValue());
+			break;
+		case SimpleCodecPlan.TYPE_CHAR:
+			serializeBytesNumber(dos, 'C', ((Character) target).charValue());
+			break;
+		case SimpleCodecPlan.TYPE_ENUM: {
+			Enum<?> e = (Enum<?>) target;
+			dos.writeByte('E');
+			if (e == null) {
+				dos.writeByte('A'); // (char) (baseChar - 1));
+			} else {
+				String value = e.name();
+				dos.writeByte(baseChar + value.length());
+				dos.writeBytes(value);
+			}
+			break;
+		}
+		case SimpleCodecPlan.TYPE_BYTES: {
+			if (target instanceof ByteBuffer && bytesCompactMode() && supportsCompactBytes) {
+				ByteBuffer bb = (ByteBuffer) target;
+				dos.writeBytes("A8");
+				serializeBytesLength(dos, bb.remaining());
+				dos.write(bb);
+				break;
+			}
+			byte [] bs = bytesOf(target);
+			dos.writeBytes(!bytesCompactMode() || !supportsCompactBytes ? "AB" : "A8");
+			if (bs == null) {
+				dos.writeByte('A'); // (char) (baseChar - 1));
+			} else {
+				serializeBytesLength(dos, bs.length);
+				if (!bytesCompactMode() || !supportsCompactBytes) {
+					boolean binary = getSimpleVersion() >= 204;
+					for (int j = 0; j < bs.length; j++) {
+						if (binary) {
+							dos.writeVarint(zigZag(bs[j]));
+							continue;
+						}
+						String value = String.valueOf(bs[j]);
+						dos.writeByte(baseChar + value.length());
+						dos.writeBytes(value);
 					}
-				}
-			} else if (type == int[].class) {
-				int [] ns = (int []) target;
-				dos.writeBytes("AI");
-				if (ns == null) {
-					dos.writeByte('A'); // (char) (baseChar - 1));
 				} else {
-					serializeBytesLength(dos, ns.length);
+					dos.write(bs);
+				}
+			}
+			break;
+		}
+		case SimpleCodecPlan.TYPE_STRINGS: {
+			String[] ss = (String []) target;
+			dos.writeBytes("AX"); // special
+			if (ss == null) {
+				dos.writeByte('A'); // (char) (baseChar - 1));
+			} else {
+				serializeBytesLength(dos, ss.length);
+				for (int j = 0; j < ss.length; j++) {
+					serializeBytesString(dos, ss[j], ssObjs);
+				}
+			}
+			break;
+		}
+		case SimpleCodecPlan.TYPE_OBJECTS: {
+			SimpleSerializable[] ss = (SimpleSerializable []) target;
+			dos.writeBytes("AO"); // special
+			if (ss == null) {
+				dos.writeByte('A'); // (char) (baseChar - 1));
+			} else {
+				serializeBytesLength(dos, ss.length);
+				if (serializeBytesTable(dos, ss, ssObjs, supportsCompactBytes)) {
+					break;
+				}
+				serializeBytesItems(dos, ss, null, ssObjs, supportsCompactBytes);
+			}
+			break;
+		}
+		case SimpleCodecPlan.TYPE_INTS: {
+			int [] ns = (int []) target;
+			dos.writeBytes("AI");
+			if (ns == null) {
+				dos.writeByte('A'); // (char) (baseChar - 1));
+			} else {
+				serializeBytesLength(dos, ns.length);
+				if (getSimpleVersion() >= 204) {
 					for (int j = 0; j < ns.length; j++) {
-						String value = String.valueOf(ns[j]);
-						dos.writeByte(baseChar + value.length());
-						dos.writeBytes(value);
+						dos.writeVarint(zigZag(ns[j]));
 					}
+					break;
 				}
-			} else if (type == long[].class) {
-				long [] ls = (long []) target;
-				dos.writeBytes("AL");
-				if (ls == null) {
-					dos.writeByte('A'); // (char) (baseChar - 1));
-				} else {
-					serializeBytesLength(dos, ls.length);
+				for (int j = 0; j < ns.length; j++) {
+					String value = String.valueOf(ns[j]);
+					dos.writeByte(baseChar + value.length());
+					dos.writeBytes(value);
+				}
+			}
+			break;
+		}
+		case SimpleCodecPlan.TYPE_LONGS: {
+			long [] ls = (long []) target;
+			dos.writeBytes("AL");
+			if (ls == null) {
+				dos.writeByte('A'); // (char) (baseChar - 1));
+			} else {
+				serializeBytesLength(dos, ls.length);
+				if (getSimpleVersion() >= 204) {
 					for (int j = 0; j < ls.length; j++) {
-						String value = String.valueOf(ls[j]);
-						dos.writeByte(baseChar + value.length());
-						dos.writeBytes(value);
+						dos.writeVarint(zigZag(ls[j]));
 					}
+					break;
 				}
-			} else if (type == boolean[].class) {
-				boolean [] bs = (boolean []) target;
-				dos.writeBytes("Ab");
-				if (bs == null) {
-					dos.writeByte('A'); // (char) (baseChar - 1));
-				} else {
-					serializeBytesLength(dos, bs.length);
-					for (int j = 0; j < bs.length; j++) {
-						dos.writeByte('C'); // (char) (baseChar + 1));
-						dos.writeByte(bs[j] ? '1' : '0');
-					}
+				for (int j = 0; j < ls.length; j++) {
+					String value = String.valueOf(ls[j]);
+					dos.writeByte(baseChar + value.length());
+					dos.writeBytes(value);
 				}
-			} else if (type == float[].class) {
-				float[] fs = (float[]) target;
-				dos.writeBytes("AF");
-				if (fs == null) {
-					dos.writeByte('A'); // (char) (baseChar - 1));
-				} else {
-					serializeBytesLength(dos, fs.length);
+			}
+			break;
+		}
+		case SimpleCodecPlan.TYPE_BOOLEANS: {
+			boolean [] bs = (boolean []) target;
+			dos.writeBytes("Ab");
+			if (bs == null) {
+				dos.writeByte('A'); // (char) (baseChar - 1));
+			} else {
+				serializeBytesLength(dos, bs.length);
+				for (int j = 0; j < bs.length; j++) {
+					dos.writeByte('C'); // (char) (baseChar + 1));
+					dos.writeByte(bs[j] ? '1' : '0');
+				}
+			}
+			break;
+		}
+		case SimpleCodecPlan.TYPE_FLOATS: {
+			float[] fs = (float[]) target;
+			dos.writeBytes("AF");
+			if (fs == null) {
+				dos.writeByte('A'); // (char) (baseChar - 1));
+			} else {
+				serializeBytesLength(dos, fs.length);
+				if (getSimpleVersion() >= 204) {
 					for (int j = 0; j < fs.length; j++) {
-						String value = String.valueOf(fs[j]);
-						dos.writeByte(baseChar + value.length());
-						dos.writeBytes(value);
+						dos.writeInt(Float.floatToIntBits(fs[j]));
 					}
+					break;
 				}
-			} else if (type == double[].class) {
-				double [] ds = (double []) target;
-				dos.writeBytes("AD");
-				if (ds == null) {
-					dos.writeByte('A'); // (char) (baseChar - 1));
-				} else {
-					serializeBytesLength(dos, ds.length);
+				for (int j = 0; j < fs.length; j++) {
+					String value = String.valueOf(fs[j]);
+					dos.writeByte(baseChar + value.length());
+					dos.writeBytes(value);
+				}
+			}
+			break;
+		}
+		case SimpleCodecPlan.TYPE_DOUBLES: {
+			double [] ds = (double []) target;
+			dos.writeBytes("AD");
+			if (ds == null) {
+				dos.writeByte('A'); // (char) (baseChar - 1));
+			} else {
+				serializeBytesLength(dos, ds.length);
+				if (getSimpleVersion() >= 204) {
 					for (int j = 0; j < ds.length; j++) {
-						String value = String.valueOf(ds[j]);
-						dos.writeByte(baseChar + value.length());
-						dos.writeBytes(value);
+						dos.writeLong(Double.doubleToLongBits(ds[j]));
 					}
+					break;
 				}
-			} else if (type == short[].class) {
-				short [] ss = (short []) target;
-				dos.writeBytes("AS");
-				if (ss == null) {
-					dos.writeByte('A'); // (char) (baseChar - 1));
-				} else {
-					serializeBytesLength(dos, ss.length);
+				for (int j = 0; j < ds.length; j++) {
+					String value = String.valueOf(ds[j]);
+					dos.writeByte(baseChar + value.length());
+					dos.writeBytes(value);
+				}
+			}
+			break;
+		}
+		case SimpleCodecPlan.TYPE_SHORTS: {
+			short [] ss = (short []) target;
+			dos.writeBytes("AS");
+			if (ss == null) {
+				dos.writeByte('A'); // (char) (baseChar - 1));
+			} else {
+				serializeBytesLength(dos, ss.length);
+				if (getSimpleVersion() >= 204) {
 					for (int j = 0; j < ss.length; j++) {
-						String value = String.valueOf(ss[j]);
-						dos.writeByte(baseChar + value.length());
-						dos.writeBytes(value);
+						dos.writeVarint(zigZag(ss[j]));
 					}
+					break;
 				}
-			} else if (type == char[].class) {
-				char [] cs = (char []) target;
-				dos.writeBytes("AC");
-				if (cs == null) {
-					dos.writeByte('A'); // (char) (baseChar - 1));
-				} else {
-					serializeBytesLength(dos, cs.length);
+				for (int j = 0; j < ss.length; j++) {
+					String value = String.valueOf(ss[j]);
+					dos.writeByte(baseChar + value.length());
+					dos.writeBytes(value);
+				}
+			}
+			break;
+		}
+		case SimpleCodecPlan.TYPE_CHARS: {
+			char [] cs = (char []) target;
+			dos.writeBytes("AC");
+			if (cs == null) {
+				dos.writeByte('A'); // (char) (baseChar - 1));
+			} else {
+				serializeBytesLength(dos, cs.length);
+				if (getSimpleVersion() >= 204) {
 					for (int j = 0; j < cs.length; j++) {
-						int c = cs[j];
-						String value = Integer.toString(c, 10);
-						dos.writeByte(baseChar + value.length());
-						dos.writeBytes(value);
+						dos.writeVarint(zigZag(cs[j]));
 					}
+					break;
 				}
-			} else if (type.getComponentType().isEnum()) {
-				Enum<?>[] ss = (Enum<?>[]) target;
-				dos.writeBytes("AE");
-				if (ss == null) {
-					dos.writeByte('A'); // (char) (baseChar - 1));
-				} else {
-					serializeBytesLength(dos, ss.length);
-					for (int j = 0; j < ss.length; j++) {
-						if (ss[j] == null) {
-							dos.writeByte('A'); // (char) (baseChar - 1));
-						} else {
-							String value = ss[j].name();
-							dos.writeByte((char) (baseChar + value.length()));
-							dos.writeBytes(value);
-						}
-					}
+				for (int j = 0; j < cs.length; j++) {
+					int c = cs[j];
+					String value = Integer.toString(c, 10);
+					dos.writeByte(baseChar + value.length());
+					dos.writeBytes(value);
 				}
+			}
+			break;
+		}
+		case SimpleCodecPlan.TYPE_ENUMS: {
+			Enum<?>[] ss = (Enum<?>[]) target;
+			dos.writeBytes("AE");
+			if (ss == null) {
+				dos.writeByte('A'); // (char) (baseChar - 1));
 			} else {
-				dos.writeBytes("OA");
-				// others unknown or unsupported types!
-				// throw new RuntimeException("Unsupported data type in Java2Script Simple RPC!");
+				serializeBytesLength(dos, ss.length);
+				for (int j = 0; j < ss.length; j++) {
+					if (ss[j] == null) {
+						dos.writeByte('A'); // (char) (baseChar - 1));
+					} else {
+						String value = ss[j].name();
+						dos.writeByte(baseChar + value.length());
+						dos.writeBytes(value);
+					}
+				}
 			}
-		} else if (isSubInterfaceOf(type, Collection.class)) {
+			break;
+		}
+		case SimpleCodecPlan.TYPE_LIST:
+		case SimpleCodecPlan.TYPE_SET:
+		case SimpleCodecPlan.TYPE_QUEUE:
+		case SimpleCodecPlan.TYPE_COLLECTION: {
 			Collection<?> collection = (Collection<?>) target;
 			dos.writeByte('Z');
-			if (isSubInterfaceOf(type, List.class)) {
+			if (type == SimpleCodecPlan.TYPE_LIST) {
 				dos.writeByte('Z');
-			} else if (isSubInterfaceOf(type, Set.class)) {
+			} else if (type == SimpleCodecPlan.TYPE_SET) {
 				dos.writeByte('Y');
-			} else if (isSubInterfaceOf(type, Queue.class)) {
+			} else if (type == SimpleCodecPlan.TYPE_QUEUE) {
 				dos.writeByte('Q');
 			} else {
-				dos.writeByte('W');
+				dos.writeByte('W'); // Other collections
 			}
 			if (collection == null) {
 				dos.writeByte('A'); // (char) (baseChar - 1));
 			} else {
 				Object[] os = collection.toArray();
 				serializeBytesLength(dos, os.length);
-				for (int j = 0; j < os.length; j++) {
-					Object o = os[j];
-					if (o == null) {
-						dos.writeBytes("OA");
-					} else {
-						serializeBytesArrayItem(dos, o.getClass(), o, ssObjs, supportsCompactBytes);
-					}
+				if (type != SimpleCodecPlan.TYPE_COLLECTION && serializeBytesTable(dos, os, ssObjs, supportsCompactBytes)) {
+					break;
 				}
+				serializeBytesItems(dos, os, null, ssObjs, supportsCompactBytes);
 			}
-		} else if (isSubInterfaceOf(type, Map.class)) {
+			break;
+		}
+		case SimpleCodecPlan.TYPE_MAP: {
 			Map<?, ?> map = (Map<?, ?>) target;
 			dos.writeBytes("YM");
 			if (map == null) {
@@ -1939,50 +1661,93 @@ return strBuf;
 					}
 				}
 			}
-		} else if (type.isEnum()) {
-			Enum<?> e = (Enum<?>) target;
-			dos.writeByte('E');
-			if (e == null) {
-				dos.writeByte('A'); // (char) (baseChar - 1));
-			} else {
-				String value = String.valueOf(e.name());
-				dos.writeByte(baseChar + value.length());
-				dos.writeBytes(value);
-			}
-		} else if (type == Float.class) {
-			float f = ((Float) target).floatValue();
-			dos.writeByte('F');
-			String value = String.valueOf(f);
-			dos.writeByte(baseChar + value.length());
-			dos.writeBytes(value);
-		} else if (type == Double.class) {
-			double d = ((Double) target).doubleValue();
-			dos.writeByte('D');
-			String value = String.valueOf(d);
-			dos.writeByte(baseChar + value.length());
-			dos.writeBytes(value);
-		} else if (type == Short.class) {
-			short s = ((Short) target).shortValue();
-			dos.writeByte('S');
-			String value = String.valueOf(s);
-			dos.writeByte(baseChar + value.length());
-			dos.writeBytes(value);
-		} else if (type == Byte.class) {
-			byte b = ((Byte) target).byteValue();
-			dos.writeByte('B');
-			String value = String.valueOf(b);
-			dos.writeByte(baseChar + value.length());
-			dos.writeBytes(value);
-		} else if (type == Character.class) {
-			int c = 0 + ((Character) target).charValue();
-			dos.writeByte('C');
-			String value = Integer.toString(c, 10);
-			dos.writeByte(baseChar + value.length());
-			dos.writeBytes(value);
-		} else {
+			break;
+		}
+		default:
 			dos.writeBytes("OA");
 			// others unknown or unsupported types!
+			// throw new RuntimeException("Unsupported data type in Java2Script Simple RPC!");
+		}
+	}
+
+	/**
+	 * @param target byte[] or ByteBuffer
+	 * @return bytes, or remaining bytes of ByteBuffer
+	 */
+	@J2SIgnore
+	private static byte[] bytesOf(Object target) {
+		if (target instanceof ByteBuffer) {
+			ByteBuffer bb = ((ByteBuffer) target).duplicate();
+			byte[] bs = new byte[bb.remaining()];
+			bb.get(bs);
+			return bs;
+		}
+		return (byte[]) target;
+	}
+
+	@J2SIgnore
+	private void serializeBytesScalar(SimpleOutputBuffer dos, char type, String value) throws IOException {
+		char baseChar = 'B';
+		dos.writeByte(type);
+		dos.writeByte(baseChar + value.length());
+		dos.writeBytes(value);
+	}
+
+	/**
+	 * Serialize integer number. Since version 204, number is written in
+	 * zig-zag varint instead of decimal text.
+	 * 
+	 * @param dos
+	 * @param type 'I', 'L', 'S', 'B' or 'C'
+	 * @param n
+	 * @throws IOException
+	 */
+	@J2SIgnore
+	private void serializeBytesNumber(SimpleOutputBuffer dos, char type, long n) throws IOException {
+		if (getSimpleVersion() < 204) {
+			serializeBytesScalar(dos, type, String.valueOf(n));
+			return;
+		}
+		char baseChar = 'B';
+		long zigZag = zigZag(n);
+		dos.writeByte(type);
+		dos.writeByte(baseChar + SimpleOutputBuffer.varintSize(zigZag));
+		dos.writeVarint(zigZag);
+	}
+
+	/**
+	 * Serialize float number. Since version 204, number is written in 4
+	 * bytes of IEEE 754 bits instead of decimal text.
+	 */
+	@J2SIgnore
+	private void serializeBytesFloat(SimpleOutputBuffer dos, float f) throws IOException {
+		if (getSimpleVersion() < 204) {
+			serializeBytesScalar(dos, 'F', String.valueOf(f));
+			return;
+		}
+		dos.writeByte('F');
+		dos.writeByte('F'); // (char) (baseChar + 4)
+		dos.writeInt(Float.floatToIntBits(f));
+	}
+
+	/**
+	 * Serialize double number. Since version 204, number is written in 8
+	 * bytes of IEEE 754 bits instead of decimal text.
+	 */
+	@J2SIgnore
+	private void serializeBytesDouble(SimpleOutputBuffer dos, double d) throws IOException {
+		if (getSimpleVersion() < 204) {
+			serializeBytesScalar(dos, 'D', String.valueOf(d));
+			return;
 		}
+		dos.writeByte('D');
+		dos.writeByte('J'); // (char) (baseChar + 8)
+		dos.writeLong(Double.doubleToLongBits(d));
+	}
+
+	@J2SIgnore
+	private static long zigZag(long n) {
+		return (n << 1) ^ (n >> 63);
 	}
 
 	@J2SIgnore
@@ -2003,20 +1768,56 @@ return strBuf;
 	}
 	
 	@J2SIgnore
-	private int serializeBytesLength(DataOutputStream dos, int length) throws IOException {
-		char baseChar = 'B';
-		if (length > 52) {
-			if (length > 0x1000000) { // 16 * 1024 * 1024
-				return SIMPLE_ARRAY_TOO_LARGE;
-			}
+	private int serializeBytesLength(SimpleOutputBuffer dos, int length) throws IOException {
+		if (length > 0x1000000) { // 16 * 1024 * 1024
+			return SIMPLE_ARRAY_TOO_LARGE;
+		}
+		writeBytesLength(dos, length);
+		return SIMPLE_OK;
+	}
+
+	/**
+	 * Write length in one char, or '@' with the number of digits and the
+	 * digits for length larger than 52. Since version 204, '@' is followed
+	 * by an unsigned varint instead.
+	 * 
+	 * @param dos
+	 * @param length
+	 */
+	@J2SIgnore
+	private void writeBytesLength(SimpleOutputBuffer dos, int length) {
+		char baseChar = 'B';
+		if (length > 52) {
 			dos.writeByte('@'); // (char) (baseChar - 2));
+			if (getSimpleVersion() >= 204) {
+				dos.writeVarint(length);
+				return;
+			}
 			String value = String.valueOf(length);
 			dos.writeByte(baseChar + value.length());
 			dos.writeBytes(value);
 		} else {
 			dos.writeByte(baseChar + length);
 		}
-		return SIMPLE_OK;
+	}
+
+	/**
+	 * Write length of the bytes after the reserved room at the given
+	 * position into the room, and remove the unused room.
+	 * 
+	 * @param dos
+	 * @param position
+	 * @param reserved
+	 */
+	@J2SIgnore
+	private void patchBytesLength(SimpleOutputBuffer dos, int position, int reserved) {
+		int end = dos.size();
+		writeBytesLength(dos, end - position - reserved);
+		int lengthSize = dos.size() - end;
+		byte[] buf = dos.array();
+		System.arraycopy(buf, end, buf, position, lengthSize);
+		dos.remove(end, lengthSize);
+		dos.remove(position + lengthSize, reserved - lengthSize);
 	}
 	
 	/**
@@ -2087,9 +1888,30 @@ if (s == null) {
 		}
 	}
 
+	/**
+	 * Serialize string. In string table mode since version 208, strings of
+	 * at least SimpleObjectList#MIN_TABLE_STRING_LENGTH chars are written
+	 * as 'd' and UTF-8 bytes the first time in the message, and are added
+	 * into the string table of the message. Later the same strings are
+	 * written as 'r' and their indexes in the table.
+	 */
 	@J2SIgnore
-	private void serializeBytesString(DataOutputStream dos, String s) throws IOException {
+	private void serializeBytesString(SimpleOutputBuffer dos, String s, List<SimpleSerializable> ssObjs) throws IOException {
 		char baseChar = 'B';
+		if (s != null && getSimpleVersion() >= 208 && stringTableMode() && ssObjs instanceof SimpleObjectList
+				&& s.length() >= SimpleObjectList.MIN_TABLE_STRING_LENGTH) {
+			int idx = ((SimpleObjectList) ssObjs).lookupOrAddString(s);
+			if (idx >= 0) {
+				dos.writeByte('r');
+				dos.writeByte(baseChar + SimpleOutputBuffer.varintSize(idx));
+				dos.writeVarint(idx);
+			} else {
+				dos.writeByte('d');
+				writeBytesLength(dos, SimpleOutputBuffer.utf8Length(s));
+				dos.writeUTF8(s);
+			}
+			return;
+		}
 		if (s != null) {
 			int l4 = s.length();
 			boolean needBase64 = false;
@@ -2104,20 +1926,18 @@ if (s == null) {
 			}
 			if (!needBase64) {
 				dos.writeByte('s');
+			} else if (getSimpleVersion() >= 203) {
+				dos.writeByte('U'); // raw UTF-8 bytes
+				writeBytesLength(dos, SimpleOutputBuffer.utf8Length(s));
+				dos.writeUTF8(s);
+				return;
 			} else {
 				byte[] bytes = s.getBytes(UTF_8);
 				dos.writeByte('u');
 				s = Base64.byteArrayToBase64(bytes);
 				l4 = s.length();
 			}
-			if (l4 > 52) {
-				dos.writeByte('@'); // (char) (baseChar - 2));
-				String value = String.valueOf(l4);
-				dos.writeByte(baseChar + value.length());
-				dos.writeBytes(value);
-			} else {
-				dos.writeByte(baseChar + l4);
-			}
+			writeBytesLength(dos, l4);
 			dos.writeBytes(s);
 		} else {
 			dos.writeByte('s');
@@ -2174,7 +1994,7 @@ if (ss != null) {
 		if (ss != null) {
 			int idx = -1;
 			if (!objectExpandMode()) {
-				idx = ssObjs.indexOf(ss);
+				idx = identityIndexOf(ssObjs, ss);
 			}
 			if (idx != -1) {
 				builder.append('o');
@@ -2208,15 +2028,227 @@ if (ss != null) {
 		return OBJECT_EXPAND_MODE;
 	}
 	
+	/**
+	 * @return whether repeated strings of a message are written as
+	 * references into the string table of the message or not, since
+	 * version 208
+	 */
+	@J2SIgnore
+	protected boolean stringTableMode() {
+		return BYTES_STRING_TABLE_MODE;
+	}
+	
+	/**
+	 * @return whether large arrays and collections are serialized in
+	 * parallel or not in the bytes format. Bytes are the same as bytes
+	 * serialized in one thread.
+	 */
+	@J2SIgnore
+	protected boolean parallelMode() {
+		return BYTES_PARALLEL_MODE;
+	}
+	
+	/**
+	 * Find the given object in serialized objects, for writing it as a
+	 * reference in the bytes format. Since version 207, objects are looked
+	 * up even in object expand mode, so shared objects are not written in
+	 * full again.
+	 * 
+	 * @param ssObjs
+	 * @param ss
+	 * @return index of the serialized object, or -1
+	 */
+	@J2SIgnore
+	private int bytesReferenceIndex(List<SimpleSerializable> ssObjs, SimpleSerializable ss) {
+		if (objectExpandMode() && getSimpleVersion() < 207) {
+			return -1;
+		}
+		return identityIndexOf(ssObjs, ss);
+	}
+	
+	/**
+	 * Create list of objects for serializing or deserializing the given
+	 * object, which objects are referenced by identity, and which keeps
+	 * the string table of the message.
+	 * 
+	 * @param ss
+	 * @return
+	 */
+	@J2SIgnore
+	public static List<SimpleSerializable> newObjectList(SimpleSerializable ss) {
+		return new SimpleObjectList(ss);
+	}
+	
+	/**
+	 * Objects are referenced by identity, not by #equals, so that equal
+	 * but different objects are not merged.
+	 * 
+	 * @param ssObjs
+	 * @param ss
+	 * @return index of the given object in the list, or -1
+	 */
+	@J2SIgnore
+	static int identityIndexOf(List<SimpleSerializable> ssObjs, Object ss) {
+		if (ssObjs instanceof SimpleObjectList) {
+			return ((SimpleObjectList) ssObjs).identityIndexOf(ss);
+		}
+		int i = 0;
+		for (SimpleSerializable o : ssObjs) {
+			if (o == ss) {
+				return i;
+			}
+			i++;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Serialize objects of the same class as a table, since version 205.
+	 * Class name and field names are written only once, instead of in the
+	 * header of each object.
+	 * 
+	 * Table is 'T', class name, field names and rows. Class name and field
+	 * names may be 'A' and ids in the names dictionary. Each row is 'R', a
+	 * bitmap of serialized fields and their values, or 'o' with index of
+	 * the referenced object, or 'A' for null.
+	 * 
+	 * @param dos
+	 * @param items
+	 * @param ssObjs
+	 * @param supportsCompactBytes
+	 * @return false if items are not serialized as a table
+	 * @throws Exception
+	 */
+	@J2SIgnore
+	private boolean serializeBytesTable(SimpleOutputBuffer dos, Object[] items,
+			List<SimpleSerializable> ssObjs, boolean supportsCompactBytes) throws Exception {
+		if (getSimpleVersion() < 205 || items.length < 2) return false;
+		SimpleSerializable first = null;
+		for (int i = 0; i < items.length; i++) {
+			Object o = items[i];
+			if (o == null) continue;
+			if (!(o instanceof SimpleSerializable)) return false;
+			if (first == null) {
+				first = (SimpleSerializable) o;
+			} else if (o.getClass() != first.getClass()) {
+				return false;
+			}
+		}
+		if (first == null) return false;
+		SimpleCodecPlan plan = SimpleCodecPlan.getPlan(first.getClass());
+		SimpleCodecPlan.FieldHandler[] handlers = plan.handlers;
+		String[] names = plan.getNameTable(first.fieldNameMapping(), first.fieldMapping()).names;
+		int count = 0;
+		int[] columns = new int[handlers.length];
+		for (int i = 0; i < handlers.length; i++) {
+			if (handlers[i].type != SimpleCodecPlan.TYPE_UNKNOWN) {
+				columns[count++] = i;
+			}
+		}
+		SimpleCodecPlan.FieldHandler[] row = new SimpleCodecPlan.FieldHandler[count];
+		for (int j = 0; j < count; j++) {
+			row[j] = handlers[columns[j]];
+		}
+		String clazzName = first.bytesClassName();
+		dos.writeByte('T');
+		SimpleNameDictionary dictionary = getSimpleVersion() >= 206 ? dos.getDictionary() : null;
+		int nameId = dictionary == null ? -1 : dictionary.lookupOrAdd(clazzName);
+		if (nameId >= 0) {
+			dos.writeByte('A');
+			dos.writeVarint(nameId);
+		} else {
+			writeBytesLength(dos, clazzName.length());
+			dos.writeBytes(clazzName);
+		}
+		writeBytesLength(dos, count);
+		for (int j = 0; j < count; j++) {
+			serializeBytesName(dos, names[columns[j]]);
+		}
+		serializeBytesItems(dos, items, row, ssObjs, supportsCompactBytes);
+		return true;
+	}
+
+	/**
+	 * Serialize items of an array or a collection, in parallel if parallel
+	 * mode is on and there are enough items, see SimpleParallelEncoder.
+	 * 
+	 * @param dos
+	 * @param items
+	 * @param row handlers of table columns if items are table rows, or null
+	 * @param ssObjs
+	 * @param supportsCompactBytes
+	 * @throws Exception
+	 */
+	@J2SIgnore
+	private void serializeBytesItems(SimpleOutputBuffer dos, Object[] items, SimpleCodecPlan.FieldHandler[] row,
+			List<SimpleSerializable> ssObjs, boolean supportsCompactBytes) throws Exception {
+		if (items.length >= BYTES_PARALLEL_THRESHOLD && parallelMode()
+				&& SimpleParallelEncoder.serialize(this, dos, items, row, ssObjs, supportsCompactBytes)) {
+			return;
+		}
+		for (int i = 0; i < items.length; i++) {
+			serializeBytesItem(dos, items[i], row, ssObjs, supportsCompactBytes);
+		}
+	}
+
+	/**
+	 * Serialize an item of an array or a collection.
+	 * 
+	 * @param dos
+	 * @param item
+	 * @param row handlers of table columns if the item is a table row, or null
+	 * @param ssObjs
+	 * @param supportsCompactBytes
+	 * @throws Exception
+	 */
+	@J2SIgnore
+	void serializeBytesItem(SimpleOutputBuffer dos, Object item, SimpleCodecPlan.FieldHandler[] row,
+			List<SimpleSerializable> ssObjs, boolean supportsCompactBytes) throws Exception {
+		char baseChar = 'B';
+		if (row == null) {
+			if (item == null) {
+				dos.writeBytes("OA");
+			} else if (item instanceof SimpleSerializable) {
+				serializeBytesObject(dos, (SimpleSerializable) item, ssObjs, supportsCompactBytes);
+			} else {
+				serializeBytesArrayItem(dos, item.getClass(), item, ssObjs, supportsCompactBytes);
+			}
+			return;
+		}
+		SimpleSerializable ss = (SimpleSerializable) item;
+		if (ss == null) {
+			dos.writeByte('A'); // (char) (baseChar - 1));
+			return;
+		}
+		int idx = bytesReferenceIndex(ssObjs, ss);
+		if (idx != -1) {
+			dos.writeByte('o');
+			String value = String.valueOf(idx);
+			dos.writeByte(baseChar + value.length());
+			dos.writeBytes(value);
+			return;
+		}
+		ssObjs.add(ss);
+		ss.simpleVersion = simpleVersion;
+		dos.writeByte('R');
+		int bitmap = dos.size();
+		int count = row.length;
+		for (int j = 0, bitmapSize = (count + 7) >> 3; j < bitmapSize; j++) {
+			dos.writeByte(0);
+		}
+		for (int j = 0; j < count; j++) {
+			if (ss.serializeBytesField(dos, row[j], null, true, ssObjs, supportsCompactBytes)) {
+				dos.array()[bitmap + (j >> 3)] |= 1 << (j & 7);
+			}
+		}
+	}
+
 	@J2SIgnore
-	private void serializeBytesObject(DataOutputStream dos, SimpleSerializable ss,
+	private void serializeBytesObject(SimpleOutputBuffer dos, SimpleSerializable ss,
 			List<SimpleSerializable> ssObjs, boolean supportsCompactBytes) throws IOException {
 		char baseChar = 'B';
 		if (ss != null) {
-			int idx = -1;
-			if (!objectExpandMode()) {
-				idx = ssObjs.indexOf(ss);
-			}
+			int idx = bytesReferenceIndex(ssObjs, ss);
 			if (idx != -1) {
 				dos.writeByte('o');
 				String value = String.valueOf(idx);
@@ -2229,6 +2261,16 @@ if (ss != null) {
 		dos.writeByte((byte) 'O');
 		if (ss != null) {
 			ss.simpleVersion = simpleVersion;
+			if (getSimpleVersion() >= 203) {
+				// Serialize in bytes directly, so strings are kept in raw UTF-8.
+				// Reserve room for the longest length, and remove the unused later.
+				int position = dos.size();
+				int reserved = getSimpleVersion() >= 204 ? 5 : 10; // '@' and 4 bytes varint, or '@', 'J' and 8 digits
+				dos.writeBytes("@J00000000".substring(0, reserved));
+				ss.serializeBytes(dos, null, ssObjs, supportsCompactBytes);
+				patchBytesLength(dos, position, reserved);
+				return;
+			}
 			String s = ss.serialize(null, ssObjs, supportsCompactBytes); 
 			int l4 = s.length();
 			if (l4 > 52) {
@@ -2257,15 +2299,13 @@ if (ss != null) {
 
 	@J2SIgnore
 	public String jsonSerialize(SimpleFilter filter) {
-		List<SimpleSerializable> objects = new LinkedList<SimpleSerializable>();
-		objects.add(this);
+		List<SimpleSerializable> objects = new SimpleObjectList(this);
 		return jsonSerialize(filter, objects, true, "");
 	}
 
 	@J2SIgnore
 	public String jsonSerialize(SimpleFilter filter, String linePrefix) {
-		List<SimpleSerializable> objects = new LinkedList<SimpleSerializable>();
-		objects.add(this);
+		List<SimpleSerializable> objects = new SimpleObjectList(this);
 		return jsonSerialize(filter, objects, linePrefix != null, linePrefix);
 	}
 	
@@ -2281,7 +2321,7 @@ if (ss != null) {
 	}
 	
 	@J2SIgnore
-	private static Class<?> getRawType(Type vType) {
+	static Class<?> getRawType(Type vType) {
 		if (vType instanceof GenericArrayType) {
 			GenericArrayType aType = (GenericArrayType) vType;
 			Type valueType = aType.getGenericComponentType();
@@ -2325,28 +2365,14 @@ if (ss != null) {
 		}
 		boolean commasAppended = false;
 		boolean ignoring = (filter == null || filter.ignoreDefaultFields());
-		Class<?> clazzType = this.getClass();
-		Map<String, Field> fieldMap = getSerializableFields(clazzType);
-		String[] fMap = fieldMapping();
-		for (Iterator<String> itr = fieldMap.keySet().iterator(); itr.hasNext();) {
-			String fieldName = (String) itr.next();
-			if (filter != null && !filter.accept(fieldName)) continue;
-			Field field = fieldMap.get(fieldName);
-			if (field == null) {
-				continue;
-			}
-			if (fMap != null && fMap.length > 1) {
-				for (int j = 0; j < fMap.length / 2; j++) {
-					if (fieldName.equals(fMap[j + j])) {
-						String newName = fMap[j + j + 1];
-						if (newName != null && newName.length() > 0) {
-							fieldName = newName;
-						}
-						break;
-					}
-				}
-			}
-			Class<?> clazz = field.getType();
+		SimpleCodecPlan plan = SimpleCodecPlan.getPlan(this.getClass());
+		SimpleCodecPlan.FieldHandler[] handlers = plan.handlers;
+		String[] names = plan.getNameTable(null, fieldMapping()).names;
+		for (int k = 0; k < handlers.length; k++) {
+			SimpleCodecPlan.FieldHandler field = handlers[k];
+			if (filter != null && !filter.accept(field.name)) continue;
+			String fieldName = names[k];
+			Class<?> clazz = field.fieldType;
 			try {
 				if (clazz == int.class) {
 					int i = field.getInt(this);
@@ -2391,7 +2417,7 @@ if (ss != null) {
 					
 					int idx = -1;
 					if (!this.jsonExpandMode()) {
-						idx = ssObjs.indexOf(o);
+						idx = identityIndexOf(ssObjs, o);
 					}
 					if (idx != -1) {
 						if (withFormats) {
@@ -2407,15 +2433,8 @@ if (ss != null) {
 						ssObjs.add(o);
 						builder.append(o.jsonSerialize(null, ssObjs, withFormats, prefix));
 					}
-				} else if (List.class.isAssignableFrom(clazz)
-						|| Set.class.isAssignableFrom(clazz)) {
-					Type paramType = field.getGenericType();
-					Type valueParamType = null;
-					if (paramType instanceof ParameterizedType) {
-						valueParamType = ((ParameterizedType) paramType).getActualTypeArguments()[0];
-						clazz = getRawType(valueParamType);
-					}
-					if (clazz == String.class) {
+				} else if (field.jsonItemType != -1) { // List or Set
+					if (field.jsonItemType == SimpleCodecPlan.TYPE_STRING) {
 						@SuppressWarnings({ "rawtypes", "unchecked" })
 						List<String> xs = (List) field.get(this);
 						if (xs == null && ignoring) {
@@ -2452,7 +2471,7 @@ if (ss != null) {
 							builder.append(prefix);
 						}
 						builder.append(']');
-					} else if (isSubclassOf(clazz, SimpleSerializable.class) || clazz == SimpleSerializable.class) {
+					} else if (field.jsonItemType == SimpleCodecPlan.TYPE_OBJECT) {
 						@SuppressWarnings({ "rawtypes", "unchecked" })
 						List<SimpleSerializable> xs = (List) field.get(this);
 						if (xs == null && ignoring) {
@@ -2475,7 +2494,7 @@ if (ss != null) {
 							} else {
 								int idx = -1;
 								if (!this.jsonExpandMode()) {
-									idx = ssObjs.indexOf(o);
+									idx = identityIndexOf(ssObjs, o);
 								}
 								if (idx != -1) {
 									if (withFormats) {
@@ -2504,6 +2523,8 @@ if (ss != null) {
 							builder.append(prefix);
 						}
 						builder.append(']');
+					} else {
+						continue; // unsupported item type
 					}
 				} else if (clazz.isArray()) {
 					clazz = clazz.getComponentType();
@@ -2582,7 +2603,7 @@ if (ss != null) {
 							} else {
 								int idx = -1;
 								if (!this.jsonExpandMode()) {
-									idx = ssObjs.indexOf(o);
+									idx = identityIndexOf(ssObjs, o);
 								}
 								if (idx != -1) {
 									if (withFormats) {
@@ -3144,9 +3165,12 @@ while (index < end && index < objectEnd) {
 		} else if (type == 'U') {
 			this[fieldName] = Encoding.readUTF8(s);
 		} else if (type == 'O') {
-			var ss = net.sf.j2s.ajax.SimpleSerializable.parseInstance (s);
-			ssObjs[ssObjs.length] = ss;
-			ss.deserialize (s, 0, ssObjs);
+			var ss = null;
+			if (s != null) { // null is written for delta response
+				ss = net.sf.j2s.ajax.SimpleSerializable.parseInstance (s);
+				ssObjs[ssObjs.length] = ss;
+				ss.deserialize (s, 0, ssObjs);
+			}
 			this[fieldName] = ss;
 		} else if (type == 'o') {
 			var idx = Integer.parseInt (s);
@@ -3167,29 +3191,25 @@ while (index < end && index < objectEnd) {
 return true;
 	 */
 	public boolean deserialize(String str) {
-		List<SimpleSerializable> ssObjs = new LinkedList<SimpleSerializable>();
-		ssObjs.add(this);
+		List<SimpleSerializable> ssObjs = new SimpleObjectList(this);
 		return deserialize(str, 0, ssObjs) == SIMPLE_OK;
 	}
 	
 	@J2SIgnore
 	public boolean deserializeBytes(byte[] bytes) {
-		List<SimpleSerializable> ssObjs = new LinkedList<SimpleSerializable>();
-		ssObjs.add(this);
+		List<SimpleSerializable> ssObjs = new SimpleObjectList(this);
 		return deserializeBytes(bytes, 0, ssObjs) == SIMPLE_OK;
 	}
 	
 	@J2SIgnore
 	public boolean deserialize(String str, int start) {
-		List<SimpleSerializable> ssObjs = new LinkedList<SimpleSerializable>();
-		ssObjs.add(this);
+		List<SimpleSerializable> ssObjs = new SimpleObjectList(this);
 		return deserialize(str, start, ssObjs) == SIMPLE_OK;
 	}
 	
 	@J2SIgnore
 	public boolean deserializeBytes(byte[] bytes, int start) {
-		List<SimpleSerializable> ssObjs = new LinkedList<SimpleSerializable>();
-		ssObjs.add(this);
+		List<SimpleSerializable> ssObjs = new SimpleObjectList(this);
 		return deserializeBytes(bytes, start, ssObjs) == SIMPLE_OK;
 	}
 	
@@ -3249,11 +3269,11 @@ return true;
 			if (index + size > end) return SIMPLE_MISSING_DATA;
 		}
 		
-		Class<?> clazzType = this.getClass();
-		Map<String, Field> fieldMap = getSerializableFields(clazzType);
+		SimpleCodecPlan plan = SimpleCodecPlan.getPlan(this.getClass());
 		int objectEnd = index + size;
 		Map<String, String> fieldAliasMap = getSimpleVersion() >= 202 ? fieldAliasMapping() : null;
 		String[] fMap = fieldAliasMap == null ? fieldMapping() : null;
+		SimpleCodecPlan.AliasTable aliasTable = plan.getAliasTable(fieldAliasMap, fMap);
 		while (index < end && index < objectEnd) {
 			char c1 = str.charAt(index++);
 			int l1 = c1 - baseChar;
@@ -3261,31 +3281,9 @@ return true;
 			if (index + l1 > end) return SIMPLE_MISSING_DATA;
 			String fieldName = str.substring(index, index + l1);
 			index += l1;
-			if (fieldAliasMap != null) {
-				String trueName = fieldAliasMap.get(fieldName);
-				if (trueName != null && trueName.length() > 0) {
-					fieldName = trueName;
-				}
-			} else if (fMap != null && fMap.length > 1) {
-				for (int i = 0; i < fMap.length / 2; i++) {
-					if (fieldName.equals(fMap[i + i + 1])) {
-						String trueName = fMap[i + i];
-						if (trueName != null && trueName.length() > 0) {
-							fieldName = trueName;
-						}
-						break;
-					}
-				}
-			}
-			while (fieldName.startsWith("$")) {
-				if (fieldMap.containsKey(fieldName)) {
-					break;
-				}
-				fieldName = fieldName.substring(1);
-			}
+			SimpleCodecPlan.FieldHandler field = plan.getHandler(aliasTable, fieldName);
 			char c2 = str.charAt(index++);
 			if (c2 == 'A' || c2 == 'Z' || c2 == 'Y') {
-				Field field = (Field) fieldMap.get(fieldName);
 				c2 = str.charAt(index++);
 				char c3 = str.charAt(index++);
 				int l2 = c3 - baseChar;
@@ -3341,8 +3339,7 @@ return true;
 							}
 							Type itemType = null;
 							if (field != null) {
-								ParameterizedType pt = (ParameterizedType) field.getGenericType();
-								Type[] argTypes = pt.getActualTypeArguments();
+								Type[] argTypes = field.typeArguments;
 								if (argTypes != null && argTypes.length > 0) {
 									itemType = argTypes[0];
 								}
@@ -3362,14 +3359,11 @@ return true;
 							Type keyType = null;
 							Type valueType = null;
 							if (field != null) {
-								ParameterizedType pt = (ParameterizedType) field.getGenericType();
-								if (pt != null) {
-									Type[] argTypes = pt.getActualTypeArguments();
-									if (argTypes != null && argTypes.length > 0) {
-										keyType = argTypes[0];
-										if (argTypes.length > 1) {
-											valueType = argTypes[1];
-										}
+								Type[] argTypes = field.typeArguments;
+								if (argTypes != null && argTypes.length > 0) {
+									keyType = argTypes[0];
+									if (argTypes.length > 1) {
+										valueType = argTypes[1];
 									}
 								}
 							}
@@ -3449,8 +3443,7 @@ return true;
 							field.set(this, ss);
 							break;
 						case 'O': {
-							Class<?> fieldClazz = field.getType();
-							SimpleSerializable[] sss = (SimpleSerializable[]) Array.newInstance(fieldClazz.getComponentType(), l2);
+							SimpleSerializable[] sss = (SimpleSerializable[]) Array.newInstance(field.componentType, l2);
 							for (int i = 0; i < l2; i++) {
 								String s = ss[i];
 								if (s != null && s.length() > 0) {
@@ -3542,17 +3535,9 @@ return true;
 							break;
 						}
 						case 'E': {
-							Class<?> enumType = field.getType().getComponentType();
-							Enum<?>[] enums = (Enum<?>[]) Array.newInstance(enumType, l2);
+							Enum<?>[] enums = (Enum<?>[]) Array.newInstance(field.componentType, l2);
 							for (int i = 0; i < l2; i++) {
-								if (ss[i] == null || ss[i].length() == 0) continue;
-								Enum<?>[] enumConstants = (Enum<?> []) enumType.getEnumConstants();
-								for (int j = 0; j < enumConstants.length; j++) {
-									if (enumConstants[j].name().equals(ss[i])) {
-										enums[i] = enumConstants[j];
-										break;
-									}
-								}
+								enums[i] = field.enumOf(ss[i]);
 							}
 							field.set(this, enums);
 							break;
@@ -3587,7 +3572,6 @@ return true;
 					s = str.substring(index, index + l4);
 					index += l4;
 				}
-				Field field = (Field) fieldMap.get(fieldName);
 				if (field == null) {
 					continue;
 				}
@@ -3608,9 +3592,12 @@ return true;
 						break;
 					}
 					case 'O': {
-						SimpleSerializable ss = SimpleSerializable.parseInstance(s);
-						ssObjs.add(ss);
-						ss.deserialize(s, 0, ssObjs);
+						SimpleSerializable ss = null;
+						if (s != null) { // null is written for delta response
+							ss = SimpleSerializable.parseInstance(s);
+							ssObjs.add(ss);
+							ss.deserialize(s, 0, ssObjs);
+						}
 						field.set(this, ss);
 						break;
 					}
@@ -3632,19 +3619,7 @@ return true;
 						field.set(this, s);
 						break;
 					case 'E':
-						if (s != null && s.length() > 0) {
-							Object eo = null;
-							Enum<?>[] enumConstants = (Enum<?> []) field.getType().getEnumConstants();
-							for (int i = 0; i < enumConstants.length; i++) {
-								if (enumConstants[i].name().equals(s)) {
-									eo = enumConstants[i];
-									break;
-								}
-							}
-							field.set(this, eo);
-						} else {
-							field.set(this, null);
-						}
+						field.set(this, field.enumOf(s));
 						break;
 					case 'F':
 						field.setFloat(this, Float.parseFloat(s));
@@ -3675,8 +3650,13 @@ return true;
 	
 	@J2SIgnore
 	protected static int bytesIndexOf(byte[] bytes, byte b, int fromIndex) {
+		return bytesIndexOf(bytes, b, fromIndex, bytes.length);
+	}
+	
+	@J2SIgnore
+	protected static int bytesIndexOf(byte[] bytes, byte b, int fromIndex, int end) {
 		int i = fromIndex;
-		int max = bytes.length;
+		int max = end;
 		for (; i < max ; i++) {
 			if (bytes[i] == b) {
 				return i;
@@ -3686,502 +3666,1373 @@ return true;
 	}
 	
 	/**
-	 * Don't override this method unless optimization is a necessary.
+	 * Skip a serialized field value without decoding it, following the
+	 * same grammar as #deserializeBytes.
 	 * 
 	 * @param bytes
-	 * @param start
-	 * @param ssObjs
-	 * @return
+	 * @param index index of the value's type char
+	 * @param end
+	 * @param version simple version of the serialized object
+	 * @param counts counts[0] is increased by the number of serialized
+	 * objects in the value, including nested ones, counts[1] by the number
+	 * of object references and string references, counts[2] by the number
+	 * of strings added into the string table, and counts[3] by the number
+	 * of tables
+	 * @param strings null, or list which strings of the string table are
+	 * added into, as deserializing does
+	 * @return index after the value, or SKIP_MISSING_DATA,
+	 * SIMPLE_INVALID_DATA or SIMPLE_ARRAY_TOO_LARGE
 	 */
 	@J2SIgnore
-	public int deserializeBytes(byte[] bytes, int start, List<SimpleSerializable> ssObjs) {
+	static int skipBytesValue(byte[] bytes, int index, int end, int version, int[] counts, SimpleObjectList strings) {
 		char baseChar = 'B';
-		if (bytes == null || start < 0) return SIMPLE_MISSING_DATA;
-		int end = bytes.length;
-		int length = end - start;
-		if (length <= 7) return SIMPLE_MISSING_DATA;
-		if ('W' != bytes[start] || 'L' != bytes[start + 1] || 'L' != bytes[start + 2]) return SIMPLE_INVALID_DATA;
-		setSimpleVersion(100 * bytes[start + 3] + 10 * bytes[start + 4] + bytes[start + 5] - '0' * 111);
-		int index = bytesIndexOf(bytes, (byte) '#', start);
-		if (index == -1) return SIMPLE_MISSING_DATA;
-		index++;
-		if (index >= end) return SIMPLE_MISSING_DATA; // may be empty string!
-		
-		int size = 0;
-		char nextChar = (char) bytes[index];
-		if (nextChar >= '0' && nextChar <= '9') {
-			// have size!
-			int last = index;
-			index = bytesIndexOf(bytes, (byte) '$', last);
-			if (index == -1) {
-				if (end > last + 8) {
-					return SIMPLE_INVALID_DATA;
-				}
-				return SIMPLE_MISSING_DATA;
+		boolean binary = version >= 204;
+		if (index >= end) return SKIP_MISSING_DATA;
+		char c2 = (char) bytes[index++];
+		if (c2 != 'A' && c2 != 'Z' && c2 != 'Y') {
+			return skipBytesScalar(bytes, index, end, c2, version, counts, strings);
+		}
+		if (index + 2 > end) return SKIP_MISSING_DATA;
+		c2 = (char) bytes[index++];
+		int l2 = bytes[index++] - baseChar;
+		if (l2 == -2 && binary) {
+			l2 = readBytesVarintLength(bytes, index, end);
+			if (l2 < 0) return l2;
+			if (l2 > 0x1000000) return SIMPLE_ARRAY_TOO_LARGE; // 16 * 1024 * 1024
+			index += SimpleOutputBuffer.varintSize(l2);
+		} else if (l2 == -2) {
+			if (index >= end) return SKIP_MISSING_DATA;
+			int l3 = bytes[index++] - baseChar;
+			if (l3 < 0) return SIMPLE_INVALID_DATA;
+			if (index + l3 > end) return SKIP_MISSING_DATA;
+			l2 = parseBytesLength(bytes, index, l3);
+			if (l2 < 0) return SIMPLE_INVALID_DATA;
+			if (l2 > 0x1000000) return SIMPLE_ARRAY_TOO_LARGE; // 16 * 1024 * 1024
+			index += l3;
+		} else if (l2 < 0) {
+			return index; // null
+		}
+		if (c2 == '8') { // byte[]
+			index += l2;
+			return index > end ? SKIP_MISSING_DATA : index;
+		}
+		if (c2 == 'W') {
+			return index;
+		}
+		if ((c2 == 'Z' || c2 == 'Y' || c2 == 'Q' || c2 == 'O') && version >= 205
+				&& l2 > 0 && index < end && bytes[index] == 'T') {
+			return skipBytesTable(bytes, index + 1, end, l2, version, counts, strings);
+		}
+		if (c2 == 'Z' || c2 == 'Y' || c2 == 'Q' || c2 == 'M') {
+			int items = c2 == 'M' ? l2 / 2 * 2 : l2;
+			for (int i = 0; i < items; i++) {
+				index = skipBytesValue(bytes, index, end, version, counts, strings);
+				if (index < 0) return index;
 			}
-			for (int i = last + 1; i < index; i++) {
-				if (bytes[i] != '0') {
-					for (; i < index; i++) {
-						size = ((size << 3) + (size << 1)) + (bytes[i] - '0'); // size * 10
-					}
-//					try {
-//						size = Integer.parseInt(new String(bytes, i, index - i));
-//					} catch (NumberFormatException e) {
-//						throw new RuntimeException("Invalid simple format.");
-//					}
-					break;
-				}
+			return index;
+		}
+		if (binary && isBinaryNumber(c2)) { // packed numbers
+			if (c2 == 'F' || c2 == 'D') {
+				index += l2 * (c2 == 'F' ? 4 : 8);
+				return index > end ? SKIP_MISSING_DATA : index;
 			}
-			// all fields are in their default values or no fields
-			if (size == 0) return SIMPLE_OK;
-			index++;
-			// may be empty string or not enough string!
-			if (index + size > end) return SIMPLE_MISSING_DATA;
+			for (int i = 0; i < l2; i++) {
+				int n = varintLength(bytes, index, end);
+				if (n == 0) return SKIP_MISSING_DATA;
+				if (n < 0) return SIMPLE_INVALID_DATA;
+				index += n;
+			}
+			return index;
 		}
-		
-		Class<?> clazzType = this.getClass();
-		Map<String, Field> fieldMap = getSerializableFields(clazzType);
-		int objectEnd = index + size;
-		Map<String, String> fieldAliasMap = getSimpleVersion() >= 202 ? fieldAliasMapping() : null;
-		String[] fMap = fieldAliasMap == null ? fieldMapping() : null;
-		while (index < end && index < objectEnd) {
-			char c1 = (char) bytes[index++];
-			int l1 = c1 - baseChar;
-			if (l1 < 0) return SIMPLE_INVALID_DATA;
-			if (index + l1 > end) return SIMPLE_MISSING_DATA;
-			String fieldName = new String(bytes, index, l1);
-			index += l1;
-			if (fieldAliasMap != null) {
-				String trueName = fieldAliasMap.get(fieldName);
-				if (trueName != null && trueName.length() > 0) {
-					fieldName = trueName;
-				}
-			} else if (fMap != null && fMap.length > 1) {
-				for (int i = 0; i < fMap.length / 2; i++) {
-					if (fieldName.equals(fMap[i + i + 1])) {
-						String trueName = fMap[i + i];
-						if (trueName != null && trueName.length() > 0) {
-							fieldName = trueName;
-						}
-						break;
-					}
+		for (int i = 0; i < l2; i++) {
+			if (index >= end) return SKIP_MISSING_DATA;
+			char c4 = (char) bytes[index++];
+			if (c2 != 'X' && c2 != 'O') {
+				int l3 = c4 - baseChar;
+				if (l3 > 0) {
+					index += l3;
+					if (index > end) return SKIP_MISSING_DATA;
 				}
+			} else { // X or O
+				index = skipBytesScalar(bytes, index, end, c4, version, counts, strings);
+				if (index < 0) return index;
 			}
-			while (fieldName.startsWith("$")) {
-				if (fieldMap.containsKey(fieldName)) {
-					break;
+		}
+		return index;
+	}
+
+	@J2SIgnore
+	private static int skipBytesScalar(byte[] bytes, int index, int end, char type, int version, int[] counts, SimpleObjectList strings) {
+		char baseChar = 'B';
+		if (index >= end) return SKIP_MISSING_DATA;
+		int l2 = bytes[index++] - baseChar;
+		if (l2 == -2 && version >= 204) {
+			l2 = readBytesVarintLength(bytes, index, end);
+			if (l2 < 0) return l2;
+			index += SimpleOutputBuffer.varintSize(l2);
+		} else if (l2 == -2) {
+			if (index >= end) return SKIP_MISSING_DATA;
+			int l3 = bytes[index++] - baseChar;
+			if (l3 < 0) return SIMPLE_INVALID_DATA;
+			if (index + l3 > end) return SKIP_MISSING_DATA;
+			l2 = parseBytesLength(bytes, index, l3);
+			if (l2 < 0) return SIMPLE_INVALID_DATA;
+			index += l3;
+		} else if (l2 < 0) {
+			return index; // null
+		}
+		if (index + l2 > end) return SKIP_MISSING_DATA;
+		if (type == 'o' || type == 'r') {
+			counts[1]++;
+		} else if (type == 'd') {
+			counts[2]++;
+			if (strings != null) {
+				strings.addString(new String(bytes, index, l2, UTF_8));
+			}
+		} else if (type == 'O' && l2 > 0) {
+			counts[0]++;
+			int result = skipBytesObject(bytes, index, index + l2, counts, strings);
+			if (result < 0) return result;
+		}
+		return index + l2;
+	}
+
+	/**
+	 * Skip rows of a table serialized by #serializeBytesTable, only to count
+	 * objects inside it.
+	 */
+	@J2SIgnore
+	private static int skipBytesTable(byte[] bytes, int index, int end, int rows, int version, int[] counts, SimpleObjectList strings) {
+		counts[3]++;
+		int length = readBytesLength(bytes, index, end);
+		if (length < 0) return length;
+		index += bytesLengthSize(length) + length; // class name
+		int count = readBytesLength(bytes, index, end);
+		if (count < 0) return count;
+		index += bytesLengthSize(count);
+		for (int j = 0; j < count; j++) {
+			if (index >= end) return SKIP_MISSING_DATA;
+			int l1 = bytes[index++] - 'B';
+			if (l1 < 0) return SIMPLE_INVALID_DATA;
+			index += l1;
+		}
+		int bitmapSize = (count + 7) >> 3;
+		for (int i = 0; i < rows; i++) {
+			if (index >= end) return SKIP_MISSING_DATA;
+			char c = (char) bytes[index++];
+			if (c == 'A') continue; // null
+			if (c == 'o') {
+				index = skipBytesScalar(bytes, index, end, c, version, counts, strings);
+				if (index < 0) return index;
+				continue;
+			}
+			if (c != 'R') return SIMPLE_INVALID_DATA;
+			if (index + bitmapSize > end) return SKIP_MISSING_DATA;
+			counts[0]++;
+			int bitmap = index;
+			index += bitmapSize;
+			for (int j = 0; j < count; j++) {
+				if ((bytes[bitmap + (j >> 3)] & (1 << (j & 7))) == 0) continue;
+				index = skipBytesValue(bytes, index, end, version, counts, strings);
+				if (index < 0) return index;
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Skip fields of a nested object, only to count objects inside it.
+	 */
+	@J2SIgnore
+	private static int skipBytesObject(byte[] bytes, int start, int end, int[] counts, SimpleObjectList strings) {
+		if (end - start <= 7) return SIMPLE_INVALID_DATA;
+		int version = 100 * bytes[start + 3] + 10 * bytes[start + 4] + bytes[start + 5] - '0' * 111;
+		int index = bytesIndexOf(bytes, (byte) '#', start, end);
+		if (index == -1) return SIMPLE_INVALID_DATA;
+		index++;
+		if (index < end && bytes[index] >= '0' && bytes[index] <= '9') {
+			index = bytesIndexOf(bytes, (byte) '$', index, end);
+			if (index == -1) return SIMPLE_INVALID_DATA;
+			index++;
+		}
+		while (index < end) {
+			int l1 = bytes[index++] - 'B';
+			if (l1 < 0 || index + l1 > end) return SIMPLE_INVALID_DATA;
+			index = skipBytesValue(bytes, index + l1, end, version, counts, strings);
+			if (index == SKIP_MISSING_DATA) return SIMPLE_INVALID_DATA;
+			if (index < 0) return index;
+		}
+		return end;
+	}
+
+	/**
+	 * @return parsed length, or -1 for invalid digits
+	 */
+	@J2SIgnore
+	private static int parseBytesLength(byte[] bytes, int index, int digits) {
+		if (digits == 0 || digits > 9) return -1;
+		int length = 0;
+		for (int i = index; i < index + digits; i++) {
+			int c = bytes[i] - '0';
+			if (c < 0 || c > 9) return -1;
+			length = length * 10 + c;
+		}
+		return length;
+	}
+
+	/**
+	 * @return whether numbers of the given type are written in binary
+	 * since version 204
+	 */
+	@J2SIgnore
+	private static boolean isBinaryNumber(char type) {
+		return type == 'I' || type == 'L' || type == 'S' || type == 'B'
+				|| type == 'C' || type == 'F' || type == 'D';
+	}
+
+	/**
+	 * @return number of bytes of the varint at the given index, 0 if
+	 * bytes are not completed, or -1 if it is longer than 10 bytes
+	 */
+	@J2SIgnore
+	private static int varintLength(byte[] bytes, int index, int end) {
+		for (int i = 0; i < 10; i++) {
+			if (index + i >= end) return 0;
+			if (bytes[index + i] >= 0) return i + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Read length after '@' since version 204, which is an unsigned varint.
+	 * 
+	 * @return length, or SKIP_MISSING_DATA or SIMPLE_INVALID_DATA
+	 */
+	@J2SIgnore
+	private static int readBytesVarintLength(byte[] bytes, int index, int end) {
+		int n = varintLength(bytes, index, end);
+		if (n == 0) return SKIP_MISSING_DATA;
+		if (n < 0 || n > 5) return SIMPLE_INVALID_DATA;
+		long length = 0;
+		for (int i = 0; i < n; i++) {
+			length |= (long) (bytes[index + i] & 0x7f) << (7 * i);
+		}
+		if (length > Integer.MAX_VALUE || SimpleOutputBuffer.varintSize(length) != n) {
+			return SIMPLE_INVALID_DATA;
+		}
+		return (int) length;
+	}
+
+	/**
+	 * Read length written by #writeBytesLength since version 204.
+	 * 
+	 * @return length, or SKIP_MISSING_DATA or SIMPLE_INVALID_DATA
+	 */
+	@J2SIgnore
+	private static int readBytesLength(byte[] bytes, int index, int end) {
+		if (index >= end) return SKIP_MISSING_DATA;
+		int length = bytes[index] - 'B';
+		if (length == -2) {
+			length = readBytesVarintLength(bytes, index + 1, end);
+			return length >= 0 && length <= 52 ? SIMPLE_INVALID_DATA : length;
+		}
+		return length < 0 ? SIMPLE_INVALID_DATA : length;
+	}
+
+	/**
+	 * Read name id after 'A', and get its name in the given dictionary.
+	 * 
+	 * @return name, or null if bytes are not completed or id is invalid
+	 */
+	@J2SIgnore
+	private static String readBytesName(byte[] bytes, int index, int end, SimpleNameDictionary dictionary) {
+		int id = readBytesVarintLength(bytes, index, end);
+		return id < 0 ? null : dictionary.get(id);
+	}
+
+	/**
+	 * @param ssObjs
+	 * @return names dictionary of the stream being deserialized, which is
+	 * kept by the object list of the message
+	 */
+	@J2SIgnore
+	private static SimpleNameDictionary bytesDictionary(List<SimpleSerializable> ssObjs) {
+		return ssObjs instanceof SimpleObjectList ? ((SimpleObjectList) ssObjs).getDictionary() : null;
+	}
+
+	/**
+	 * @param ssObjs
+	 * @return names dictionary of the stream being deserialized, since
+	 * version 206
+	 */
+	@J2SIgnore
+	private SimpleNameDictionary activeDictionary(List<SimpleSerializable> ssObjs) {
+		return getSimpleVersion() >= 206 ? bytesDictionary(ssObjs) : null;
+	}
+
+	/**
+	 * @return number of bytes written by #writeBytesLength since version 204
+	 */
+	@J2SIgnore
+	private static int bytesLengthSize(int length) {
+		return length > 52 ? 1 + SimpleOutputBuffer.varintSize(length) : 1;
+	}
+
+	/**
+	 * Read zig-zag varint number, or IEEE 754 bits of float or double
+	 * number, written since version 204.
+	 * 
+	 * @param bytes
+	 * @param index
+	 * @param length number of bytes
+	 * @param type
+	 * @return number, or raw bits for 'F' and 'D'
+	 * @throws NumberFormatException if bytes are not a valid number
+	 */
+	@J2SIgnore
+	private static long readBytesNumber(byte[] bytes, int index, int length, char type) {
+		long n = 0;
+		if (type == 'F' || type == 'D') {
+			if (length != (type == 'F' ? 4 : 8)) throw new NumberFormatException();
+			for (int i = 0; i < length; i++) {
+				n = (n << 8) | (bytes[index + i] & 0xff);
+			}
+			return n;
+		}
+		if (length <= 0 || length > 10) throw new NumberFormatException();
+		for (int i = 0; i < length; i++) {
+			int b = bytes[index + i];
+			if ((b < 0) != (i < length - 1)) throw new NumberFormatException();
+			n |= (long) (b & 0x7f) << (7 * i);
+		}
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	/**
+	 * Read packed numbers array, written since version 204.
+	 * 
+	 * @param bytes
+	 * @param index index of the first number
+	 * @param end
+	 * @param type
+	 * @param length number of items
+	 * @return typed array, or error result
+	 */
+	@J2SIgnore
+	private static ItemResult deserializeBytesNumbers(byte[] bytes, int index, int end, char type, int length) {
+		if (type == 'F' || type == 'D') {
+			int size = type == 'F' ? 4 : 8;
+			if (index + length * size > end) return ItemResult.MISSING_DATA;
+			if (type == 'F') {
+				float[] fs = new float[length];
+				for (int i = 0; i < length; i++, index += size) {
+					fs[i] = Float.intBitsToFloat((int) readBytesNumber(bytes, index, size, type));
 				}
-				fieldName = fieldName.substring(1);
+				return new ItemResult(fs, index);
 			}
-			char c2 = (char) bytes[index++];
-			if (c2 == 'A' || c2 == 'Z' || c2 == 'Y') {
-				Field field = (Field) fieldMap.get(fieldName);
-				c2 = (char) bytes[index++]; // shift c2 to next char
-				char c3 = (char) bytes[index++];
-				int l2 = c3 - baseChar;
-				try {
-					if (l2 < 0 && l2 != -2) {
+			double[] ds = new double[length];
+			for (int i = 0; i < length; i++, index += size) {
+				ds[i] = Double.longBitsToDouble(readBytesNumber(bytes, index, size, type));
+			}
+			return new ItemResult(ds, index);
+		}
+		Object array = null;
+		int[] ns = null;
+		long[] ls = null;
+		short[] sts = null;
+		byte[] bs = null;
+		char[] cs = null;
+		switch (type) {
+		case 'I': array = ns = new int[length]; break;
+		case 'L': array = ls = new long[length]; break;
+		case 'S': array = sts = new short[length]; break;
+		case 'B': array = bs = new byte[length]; break;
+		default: array = cs = new char[length]; break; // 'C'
+		}
+		for (int i = 0; i < length; i++) {
+			int n = varintLength(bytes, index, end);
+			if (n == 0) return ItemResult.MISSING_DATA;
+			if (n < 0) return ItemResult.INVALID_DATA;
+			long v = readBytesNumber(bytes, index, n, type);
+			index += n;
+			switch (type) {
+			case 'I': ns[i] = (int) v; break;
+			case 'L': ls[i] = v; break;
+			case 'S': sts[i] = (short) v; break;
+			case 'B': bs[i] = (byte) v; break;
+			default: cs[i] = (char) v; break;
+			}
+		}
+		return new ItemResult(array, index);
+	}
+
+	/**
+	 * @return whether items at the given index are serialized as a table
+	 * by #serializeBytesTable
+	 */
+	@J2SIgnore
+	private boolean isBytesTable(byte[] bytes, int index, int end, int length) {
+		return length > 0 && index < end && bytes[index] == 'T' && getSimpleVersion() >= 205;
+	}
+
+	/**
+	 * Deserialize objects serialized by #serializeBytesTable.
+	 * 
+	 * @param bytes
+	 * @param index index after 'T'
+	 * @param end
+	 * @param length number of rows
+	 * @param componentType component type of the returned array
+	 * @param ssObjs
+	 * @return array of objects, or error result
+	 */
+	@J2SIgnore
+	private ItemResult deserializeBytesTable(byte[] bytes, int index, int end, int length,
+			Class<?> componentType, List<SimpleSerializable> ssObjs) {
+		SimpleNameDictionary dictionary = activeDictionary(ssObjs);
+		SimpleClassCache.Entry entry = null;
+		if (dictionary != null && index < end && bytes[index] == 'A') {
+			String clazzName = readBytesName(bytes, index + 1, end, dictionary);
+			if (clazzName == null) return index + 1 < end ? ItemResult.INVALID_DATA : ItemResult.MISSING_DATA;
+			index += 1 + SimpleOutputBuffer.varintSize(readBytesVarintLength(bytes, index + 1, end));
+			entry = SimpleClassCache.getEntry(clazzName, true);
+		} else {
+			int nameLength = readBytesLength(bytes, index, end);
+			if (nameLength == SKIP_MISSING_DATA) return ItemResult.MISSING_DATA;
+			if (nameLength < 0) return ItemResult.INVALID_DATA;
+			index += bytesLengthSize(nameLength);
+			if (index + nameLength > end) return ItemResult.MISSING_DATA;
+			entry = SimpleClassCache.getEntry(bytes, index, index + nameLength, true);
+			if (dictionary != null) {
+				dictionary.add(bytes, index, nameLength);
+			}
+			index += nameLength;
+		}
+		int count = readBytesLength(bytes, index, end);
+		if (count == SKIP_MISSING_DATA) return ItemResult.MISSING_DATA;
+		if (count < 0) return ItemResult.INVALID_DATA;
+		index += bytesLengthSize(count);
+		int[] nameStarts = new int[count];
+		int[] nameLengths = new int[count];
+		String[] names = new String[count]; // names in dictionary
+		for (int j = 0; j < count; j++) {
+			if (index >= end) return ItemResult.MISSING_DATA;
+			int l1 = bytes[index++] - 'B';
+			if (l1 == -1 && dictionary != null) {
+				names[j] = readBytesName(bytes, index, end, dictionary);
+				if (names[j] == null) return index < end ? ItemResult.INVALID_DATA : ItemResult.MISSING_DATA;
+				index += SimpleOutputBuffer.varintSize(readBytesVarintLength(bytes, index, end));
+				continue;
+			}
+			if (l1 < 0) return ItemResult.INVALID_DATA;
+			if (index + l1 > end) return ItemResult.MISSING_DATA;
+			nameStarts[j] = index;
+			nameLengths[j] = l1;
+			if (dictionary != null) {
+				dictionary.add(bytes, index, l1);
+			}
+			index += l1;
+		}
+		SimpleCodecPlan.FieldHandler[] columns = new SimpleCodecPlan.FieldHandler[count];
+		Class<?> rowClass = null;
+		int bitmapSize = (count + 7) >> 3;
+		Object[] rows = (Object[]) Array.newInstance(componentType, length);
+		for (int i = 0; i < length; i++) {
+			if (index >= end) return ItemResult.MISSING_DATA;
+			char c = (char) bytes[index++];
+			if (c == 'A') continue; // null
+			if (c == 'o') {
+				ItemResult o = deserializeBytesObject(bytes, c, index, end, ssObjs);
+				if (o.code != SIMPLE_OK) return o;
+				rows[i] = o.object;
+				index = o.index;
+				continue;
+			}
+			if (c != 'R') return ItemResult.INVALID_DATA;
+			if (index + bitmapSize > end) return ItemResult.MISSING_DATA;
+			int bitmap = index;
+			index += bitmapSize;
+			SimpleSerializable ss = newInstance(entry, getSimpleVersion());
+			ss.setSimpleVersion(getSimpleVersion());
+			ssObjs.add(ss);
+			if (ss.getClass() != rowClass) {
+				rowClass = ss.getClass();
+				SimpleCodecPlan plan = SimpleCodecPlan.getPlan(rowClass);
+				Map<String, String> fieldAliasMap = ss.fieldAliasMapping();
+				SimpleCodecPlan.AliasTable aliasTable = plan.getAliasTable(fieldAliasMap,
+						fieldAliasMap == null ? ss.fieldMapping() : null);
+				for (int j = 0; j < count; j++) {
+					columns[j] = names[j] != null ? plan.getHandler(aliasTable, names[j])
+							: plan.getHandler(aliasTable, bytes, nameStarts[j], nameLengths[j]);
+				}
+			}
+			for (int j = 0; j < count; j++) {
+				if ((bytes[bitmap + (j >> 3)] & (1 << (j & 7))) == 0) continue;
+				index = ss.deserializeBytesField(bytes, index, end, columns[j], true, ssObjs);
+				if (index <= 0) return new ItemResult(index);
+			}
+			rows[i] = ss;
+		}
+		return new ItemResult(rows, index);
+	}
+
+	/**
+	 * Deserialize string in the string table of the message, since version
+	 * 208.
+	 * 
+	 * @param bytes
+	 * @param type 'd' for string which is added into the table, or 'r' for
+	 * index of string in the table
+	 * @param index index of the length
+	 * @param end
+	 * @param ssObjs
+	 * @return string, or error result
+	 */
+	@J2SIgnore
+	private static ItemResult deserializeBytesTableString(byte[] bytes, char type, int index, int end, List<SimpleSerializable> ssObjs) {
+		if (!(ssObjs instanceof SimpleObjectList)) return ItemResult.INVALID_DATA;
+		SimpleObjectList list = (SimpleObjectList) ssObjs;
+		if (type == 'r') {
+			if (index >= end) return ItemResult.MISSING_DATA;
+			int length = bytes[index++] - 'B';
+			if (length <= 0 || length > 5) return ItemResult.INVALID_DATA;
+			if (index + length > end) return ItemResult.MISSING_DATA;
+			int idx = readBytesVarintLength(bytes, index, index + length);
+			if (idx < 0 || SimpleOutputBuffer.varintSize(idx) != length) return ItemResult.INVALID_DATA;
+			String s = list.getString(idx);
+			if (s == null) return ItemResult.INVALID_DATA;
+			return new ItemResult(s, index + length);
+		}
+		int length = readBytesLength(bytes, index, end);
+		if (length == SKIP_MISSING_DATA) return ItemResult.MISSING_DATA;
+		if (length < 0) return ItemResult.INVALID_DATA;
+		index += bytesLengthSize(length);
+		if (index + length > end) return ItemResult.MISSING_DATA;
+		String s = new String(bytes, index, length, UTF_8);
+		list.addString(s);
+		return new ItemResult(s, index + length);
+	}
+
+	/**
+	 * Deserialize nested object or object reference in place, since
+	 * version 204, as numbers in binary can not be deserialized from
+	 * string.
+	 * 
+	 * @param bytes
+	 * @param type 'O', 'o' or others for null
+	 * @param index index of the length
+	 * @param end
+	 * @param ssObjs
+	 * @return object, or error result
+	 */
+	@J2SIgnore
+	private ItemResult deserializeBytesObject(byte[] bytes, char type, int index, int end, List<SimpleSerializable> ssObjs) {
+		if (index >= end) return ItemResult.MISSING_DATA;
+		int length = bytes[index++] - 'B';
+		if (length == -2) {
+			length = readBytesVarintLength(bytes, index, end);
+			if (length == SKIP_MISSING_DATA) return ItemResult.MISSING_DATA;
+			if (length < 0) return ItemResult.INVALID_DATA;
+			index += SimpleOutputBuffer.varintSize(length);
+		} else if (length < 0) {
+			return new ItemResult(null, index);
+		}
+		if (index + length > end) return ItemResult.MISSING_DATA;
+		if (length == 0) return new ItemResult(null, index);
+		SimpleSerializable ss = null;
+		if (type == 'o') {
+			int idx = parseBytesLength(bytes, index, length);
+			if (idx < 0) return ItemResult.INVALID_DATA;
+			if (idx < ssObjs.size()) {
+				ss = ssObjs.get(idx);
+			}
+		} else if (type == 'O') {
+			ss = SimpleSerializable.parseInstance(bytes, index, null, bytesDictionary(ssObjs));
+			if (ss == null || ss == ERROR) return ItemResult.INVALID_DATA;
+			ssObjs.add(ss);
+			int result = ss.deserializeBytes(bytes, index, index + length, null, ssObjs);
+			if (result != SIMPLE_OK) return new ItemResult(result);
+		}
+		return new ItemResult(ss, index + length);
+	}
+	
+	/**
+	 * Don't override this method unless optimization is a necessary.
+	 * 
+	 * @param bytes
+	 * @param start
+	 * @param ssObjs
+	 * @return
+	 */
+	@J2SIgnore
+	public int deserializeBytes(byte[] bytes, int start, List<SimpleSerializable> ssObjs) {
+		if (bytes == null) return SIMPLE_MISSING_DATA;
+		return deserializeBytes(bytes, start, bytes.length, ssObjs);
+	}
+
+	@J2SIgnore
+	public boolean deserializeBytes(ByteBuffer buffer) {
+		List<SimpleSerializable> ssObjs = new SimpleObjectList(this);
+		return deserializeBytes(buffer, ssObjs) == SIMPLE_OK;
+	}
+
+	/**
+	 * Deserialize from the remaining bytes of the given buffer. Position of
+	 * the buffer is not changed. Heap buffers are parsed in place, while
+	 * direct or read-only buffers are copied into an array once.
+	 * 
+	 * ByteBuffer fields are set as read-only slices, which share content
+	 * with the given buffer for heap buffers.
+	 * 
+	 * @param buffer
+	 * @param ssObjs
+	 * @return
+	 */
+	@J2SIgnore
+	public int deserializeBytes(ByteBuffer buffer, List<SimpleSerializable> ssObjs) {
+		if (buffer == null) return SIMPLE_MISSING_DATA;
+		if (buffer.hasArray()) {
+			int offset = buffer.arrayOffset();
+			return deserializeBytes(buffer.array(), offset + buffer.position(), offset + buffer.limit(), ssObjs);
+		}
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return deserializeBytes(bytes, 0, bytes.length, ssObjs);
+	}
+
+	/**
+	 * Deserialize from bytes between start (inclusive) and end (exclusive).
+	 * 
+	 * @param bytes
+	 * @param start
+	 * @param end
+	 * @param ssObjs
+	 * @return
+	 */
+	@J2SIgnore
+	public int deserializeBytes(byte[] bytes, int start, int end, List<SimpleSerializable> ssObjs) {
+		return deserializeBytes(bytes, start, end, null, ssObjs);
+	}
+
+	/**
+	 * Deserialize only fields accepted by the given filter. Rejected fields
+	 * are skipped by their lengths, without creating arrays, collections or
+	 * nested objects. Strings of the string table inside are still added.
+	 * Rejected fields are deserialized and dropped if they have nested
+	 * objects since version 207, as objects are referenced in expand mode
+	 * too, or if they have nested objects or tables with names dictionary.
+	 * 
+	 * @param bytes
+	 * @param filter
+	 * @return
+	 */
+	@J2SIgnore
+	public boolean deserializeBytes(byte[] bytes, SimpleFilter filter) {
+		if (bytes == null) return false;
+		List<SimpleSerializable> ssObjs = new SimpleObjectList(this);
+		return deserializeBytes(bytes, 0, bytes.length, filter, ssObjs) == SIMPLE_OK;
+	}
+
+	/**
+	 * Deserialize fields accepted by the given filter from bytes between
+	 * start (inclusive) and end (exclusive).
+	 * 
+	 * Objects inside skipped fields are recorded as null in ssObjs, so
+	 * references to them are deserialized as null.
+	 * 
+	 * @param bytes
+	 * @param start
+	 * @param end
+	 * @param filter null for all fields
+	 * @param ssObjs
+	 * @return
+	 */
+	@J2SIgnore
+	public int deserializeBytes(byte[] bytes, int start, int end, SimpleFilter filter, List<SimpleSerializable> ssObjs) {
+		return deserializeBytesFields(bytes, start, end, filter, ssObjs);
+	}
+
+	/**
+	 * Deserialize from bytes of a stream with the given names dictionary,
+	 * which class names and field names are added into. Header of this
+	 * object should be parsed by #parseInstance(byte[], int, SimpleFilter,
+	 * SimpleNameDictionary) already. The dictionary is kept by the object
+	 * list, which is shared by nested objects, while deserializing.
+	 * 
+	 * Values of fields rejected by the given filter which have nested
+	 * objects or tables are deserialized and dropped, instead of being
+	 * skipped, so names inside are added.
+	 * 
+	 * @param bytes
+	 * @param start
+	 * @param end
+	 * @param filter null for all fields
+	 * @param dictionary null for no dictionary
+	 * @param ssObjs
+	 * @return
+	 */
+	@J2SIgnore
+	public int deserializeBytes(byte[] bytes, int start, int end, SimpleFilter filter,
+			SimpleNameDictionary dictionary, List<SimpleSerializable> ssObjs) {
+		if (!(ssObjs instanceof SimpleObjectList)) {
+			if (dictionary == null) {
+				return deserializeBytesFields(bytes, start, end, filter, ssObjs);
+			}
+			SimpleObjectList list = new SimpleObjectList();
+			list.addAll(ssObjs);
+			int size = list.size();
+			try {
+				return deserializeBytes(bytes, start, end, filter, dictionary, list);
+			} finally {
+				for (int i = size; i < list.size(); i++) {
+					ssObjs.add(list.get(i));
+				}
+			}
+		}
+		SimpleObjectList list = (SimpleObjectList) ssObjs;
+		SimpleNameDictionary existed = list.getDictionary();
+		list.setDictionary(dictionary);
+		try {
+			return deserializeBytesFields(bytes, start, end, filter, ssObjs);
+		} finally {
+			list.setDictionary(existed);
+		}
+	}
+
+	@J2SIgnore
+	private int deserializeBytesFields(byte[] bytes, int start, int end, SimpleFilter filter, List<SimpleSerializable> ssObjs) {
+		char baseChar = 'B';
+		if (bytes == null || start < 0) return SIMPLE_MISSING_DATA;
+		if (end > bytes.length) end = bytes.length;
+		int length = end - start;
+		if (length <= 7) return SIMPLE_MISSING_DATA;
+		if ('W' != bytes[start] || 'L' != bytes[start + 1] || 'L' != bytes[start + 2]) return SIMPLE_INVALID_DATA;
+		setSimpleVersion(100 * bytes[start + 3] + 10 * bytes[start + 4] + bytes[start + 5] - '0' * 111);
+		int index = bytesIndexOf(bytes, (byte) '#', start, end);
+		if (index == -1) return SIMPLE_MISSING_DATA;
+		index++;
+		if (index >= end) return SIMPLE_MISSING_DATA; // may be empty string!
+		
+		int size = 0;
+		char nextChar = (char) bytes[index];
+		if (nextChar >= '0' && nextChar <= '9') {
+			// have size!
+			int last = index;
+			index = bytesIndexOf(bytes, (byte) '$', last, end);
+			if (index == -1) {
+				if (end > last + 8) {
+					return SIMPLE_INVALID_DATA;
+				}
+				return SIMPLE_MISSING_DATA;
+			}
+			for (int i = last + 1; i < index; i++) {
+				if (bytes[i] != '0') {
+					for (; i < index; i++) {
+						size = ((size << 3) + (size << 1)) + (bytes[i] - '0'); // size * 10
+					}
+//					try {
+//						size = Integer.parseInt(new String(bytes, i, index - i));
+//					} catch (NumberFormatException e) {
+//						throw new RuntimeException("Invalid simple format.");
+//					}
+					break;
+				}
+			}
+			// all fields are in their default values or no fields
+			if (size == 0) return SIMPLE_OK;
+			index++;
+			// may be empty string or not enough string!
+			if (index + size > end) return SIMPLE_MISSING_DATA;
+		}
+		
+		SimpleCodecPlan plan = SimpleCodecPlan.getPlan(this.getClass());
+		int objectEnd = index + size;
+		Map<String, String> fieldAliasMap = getSimpleVersion() >= 202 ? fieldAliasMapping() : null;
+		String[] fMap = fieldAliasMap == null ? fieldMapping() : null;
+		SimpleCodecPlan.AliasTable aliasTable = plan.getAliasTable(fieldAliasMap, fMap);
+		boolean binary = getSimpleVersion() >= 204;
+		SimpleNameDictionary dictionary = activeDictionary(ssObjs);
+		int[] skipCounts = null;
+		while (index < end && index < objectEnd) {
+			char c1 = (char) bytes[index++];
+			int l1 = c1 - baseChar;
+			SimpleCodecPlan.FieldHandler field = null;
+			if (l1 == -1 && dictionary != null) {
+				String name = readBytesName(bytes, index, end, dictionary);
+				if (name == null) return index < end ? SIMPLE_INVALID_DATA : SIMPLE_MISSING_DATA;
+				index += SimpleOutputBuffer.varintSize(readBytesVarintLength(bytes, index, end));
+				field = plan.getHandler(aliasTable, name);
+			} else {
+				if (l1 < 0) return SIMPLE_INVALID_DATA;
+				if (index + l1 > end) return SIMPLE_MISSING_DATA;
+				field = plan.getHandler(aliasTable, bytes, index, l1);
+				if (dictionary != null) {
+					dictionary.add(bytes, index, l1);
+				}
+				index += l1;
+			}
+			if (filter != null && field != null && !filter.accept(field.name)) {
+				if (skipCounts == null) {
+					skipCounts = new int[4];
+				}
+				int valueStart = index;
+				index = skipBytesValue(bytes, index, end, getSimpleVersion(), skipCounts, null);
+				if (index < 0 && dictionary == null) return index == SKIP_MISSING_DATA ? SIMPLE_MISSING_DATA : index;
+				if (index < 0 || skipCounts[0] > 0 && (getSimpleVersion() >= 207 || dictionary != null)
+						|| skipCounts[3] > 0 && dictionary != null
+						|| skipCounts[2] > 0 && !(ssObjs instanceof SimpleObjectList)) {
+					// shared objects are referenced in expand mode too, and names of
+					// objects and tables are added into the dictionary, which are
+					// not known by skipping, deserialize and drop
+					skipCounts = null;
+					index = deserializeBytesField(bytes, valueStart, end, null, binary, ssObjs);
+					if (index <= 0) return index;
+					continue;
+				}
+				if (skipCounts[2] > 0) {
+					// strings of the string table may be referenced later
+					skipBytesValue(bytes, valueStart, end, getSimpleVersion(), skipCounts, (SimpleObjectList) ssObjs);
+				}
+				for (int i = 0; i < skipCounts[0]; i++) {
+					ssObjs.add(null); // keep indexes of later objects
+				}
+				skipCounts[0] = 0;
+				skipCounts[2] = 0;
+				skipCounts[3] = 0;
+				continue;
+			}
+			index = deserializeBytesField(bytes, index, end, field, binary, ssObjs);
+			if (index <= 0) return index;
+		}
+		return SIMPLE_OK;
+	}
+
+	/**
+	 * Deserialize field value.
+	 * 
+	 * @param bytes
+	 * @param index index of the value's type char
+	 * @param end
+	 * @param field null for unknown field, which value is dropped. Nested
+	 * objects are still deserialized, as they may be referenced later
+	 * @param binary whether numbers and lengths are in binary, since
+	 * version 204
+	 * @param ssObjs
+	 * @return index after the value, or SIMPLE_MISSING_DATA,
+	 * SIMPLE_INVALID_DATA, SIMPLE_UNKNOWN_ERROR or SIMPLE_ARRAY_TOO_LARGE,
+	 * which are all less than 1
+	 */
+	@J2SIgnore
+	int deserializeBytesField(byte[] bytes, int index, int end, SimpleCodecPlan.FieldHandler field,
+			boolean binary, List<SimpleSerializable> ssObjs) {
+		char baseChar = 'B';
+		char c2 = (char) bytes[index++];
+		if (c2 == 'A' || c2 == 'Z' || c2 == 'Y') {
+			c2 = (char) bytes[index++]; // shift c2 to next char
+			char c3 = (char) bytes[index++];
+			int l2 = c3 - baseChar;
+			try {
+				if (l2 < 0 && l2 != -2) {
+					if (field == null) {
+						return index;
+					}
+					field.set(this, null);
+				} else {
+					if (l2 == -2 && binary) {
+						l2 = readBytesVarintLength(bytes, index, end);
+						if (l2 == SKIP_MISSING_DATA) return SIMPLE_MISSING_DATA;
+						if (l2 < 0) return SIMPLE_INVALID_DATA;
+						if (l2 > 0x1000000) return SIMPLE_ARRAY_TOO_LARGE; // 16 * 1024 * 1024
+						index += SimpleOutputBuffer.varintSize(l2);
+					} else if (l2 == -2) {
+						char c4 = (char) bytes[index++];
+						int l3 = c4 - baseChar;
+						if (l3 < 0) return SIMPLE_INVALID_DATA;
+						if (index + l3 > end) return SIMPLE_MISSING_DATA;
+						l2 = Integer.parseInt(new String(bytes, index, l3));
+						index += l3;
+						if (l2 < 0) return SIMPLE_INVALID_DATA;
+						if (l2 > 0x1000000) { // 16 * 1024 * 1024
+							/*
+							 * Some malicious string may try to allocate huge size of array!
+							 * Limit the size of array here! 
+							 */
+							return SIMPLE_ARRAY_TOO_LARGE;
+						}
+					}
+					if (c2 == '8') { // byte[]
+						if (index + l2 > end) return SIMPLE_MISSING_DATA;
+						index += l2;
 						if (field == null) {
-							continue;
+							return index;
 						}
-						field.set(this, null);
-					} else {
-						if (l2 == -2) {
-							char c4 = (char) bytes[index++];
-							int l3 = c4 - baseChar;
-							if (l3 < 0) return SIMPLE_INVALID_DATA;
-							if (index + l3 > end) return SIMPLE_MISSING_DATA;
-							l2 = Integer.parseInt(new String(bytes, index, l3));
-							index += l3;
-							if (l2 < 0) return SIMPLE_INVALID_DATA;
-							if (l2 > 0x1000000) { // 16 * 1024 * 1024
-								/*
-								 * Some malicious string may try to allocate huge size of array!
-								 * Limit the size of array here! 
-								 */
-								return SIMPLE_ARRAY_TOO_LARGE;
-							}
+						if (field.byteBuffer) { // slice, without copying
+							field.set(this, ByteBuffer.wrap(bytes, index - l2, l2).slice().asReadOnlyBuffer());
+							return index;
 						}
-						if (c2 == '8') { // byte[]
-							if (index + l2 > end) return SIMPLE_MISSING_DATA;
-							index += l2;
-							if (field == null) {
-								continue;
-							}
-							byte[] bs = new byte[l2];
-							System.arraycopy(bytes, index - l2, bs, 0, l2);
-							field.set(this, bs);
-							continue;
+						byte[] bs = new byte[l2];
+						System.arraycopy(bytes, index - l2, bs, 0, l2);
+						field.set(this, bs);
+						return index;
+					}
+					if (c2 == 'W') {
+						if (field == null) {
+							return index;
 						}
-						if (c2 == 'W') {
-							if (field == null) {
-								continue;
-							}
-							field.set(this, null);
-							continue;
+						field.set(this, null);
+						return index;
+					}
+					if (c2 == 'Z' || c2 == 'Y' || c2 == 'Q') {
+						Collection<Object> objCollection = null;
+						if (c2 == 'Z') {
+							objCollection = new ArrayList<Object>(l2);
+						} else if (c2 == 'Y') {
+							objCollection = new HashSet<Object>(l2);
+						} else {
+							objCollection = new LinkedList<Object>();
 						}
-						if (c2 == 'Z' || c2 == 'Y' || c2 == 'Q') {
-							Collection<Object> objCollection = null;
-							if (c2 == 'Z') {
-								objCollection = new ArrayList<Object>(l2);
-							} else if (c2 == 'Y') {
-								objCollection = new HashSet<Object>(l2);
-							} else {
-								objCollection = new LinkedList<Object>();
-							}
-							Type itemType = null;
-							if (field != null) {
-								ParameterizedType pt = (ParameterizedType) field.getGenericType();
-								Type[] argTypes = pt.getActualTypeArguments();
-								if (argTypes != null && argTypes.length > 0) {
-									itemType = argTypes[0];
-								}
+						Type itemType = null;
+						if (field != null) {
+							Type[] argTypes = field.typeArguments;
+							if (argTypes != null && argTypes.length > 0) {
+								itemType = argTypes[0];
 							}
+						}
+						if (isBytesTable(bytes, index, end, l2)) {
+							ItemResult rows = deserializeBytesTable(bytes, index + 1, end, l2, SimpleSerializable.class, ssObjs);
+							if (rows.code != SIMPLE_OK) return rows.code;
+							Collections.addAll(objCollection, (Object[]) rows.object);
+							index = rows.index;
+						} else {
 							for (int i = 0; i < l2; i++) {
 								ItemResult o = deserializeBytesArrayItem(bytes, index, end, ssObjs, itemType);
 								if (o.code != SIMPLE_OK) return o.code;
 								objCollection.add(o.object);
 								index = o.index;
 							}
-							if (field == null) {
-								continue;
-							}
-							field.set(this, objCollection);
-							continue;
-						} else if (c2 == 'M') {
-							Type keyType = null;
-							Type valueType = null;
-							if (field != null) {
-								ParameterizedType pt = (ParameterizedType) field.getGenericType();
-								Type[] argTypes = pt.getActualTypeArguments();
-								if (argTypes != null && argTypes.length > 0) {
-									keyType = argTypes[0];
-									if (argTypes.length > 1) {
-										valueType = argTypes[1];
-									}
+						}
+						if (field == null) {
+							return index;
+						}
+						field.set(this, objCollection);
+						return index;
+					} else if (c2 == 'M') {
+						Type keyType = null;
+						Type valueType = null;
+						if (field != null) {
+							Type[] argTypes = field.typeArguments;
+							if (argTypes != null && argTypes.length > 0) {
+								keyType = argTypes[0];
+								if (argTypes.length > 1) {
+									valueType = argTypes[1];
 								}
 							}
-							Map<Object, Object> objMap = new HashMap<Object, Object>(l2);
-							for (int i = 0; i < l2 / 2; i++) {
-								ItemResult key = deserializeBytesArrayItem(bytes, index, end, ssObjs, keyType);
-								if (key.code != SIMPLE_OK) return key.code;
-								index = key.index;
-								ItemResult value = deserializeBytesArrayItem(bytes, index, end, ssObjs, valueType);
-								if (value.code != SIMPLE_OK) return value.code;
-								index = value.index;
-								objMap.put(key.object, value.object);
+						}
+						Map<Object, Object> objMap = new HashMap<Object, Object>(l2);
+						for (int i = 0; i < l2 / 2; i++) {
+							ItemResult key = deserializeBytesArrayItem(bytes, index, end, ssObjs, keyType);
+							if (key.code != SIMPLE_OK) return key.code;
+							index = key.index;
+							ItemResult value = deserializeBytesArrayItem(bytes, index, end, ssObjs, valueType);
+							if (value.code != SIMPLE_OK) return value.code;
+							index = value.index;
+							objMap.put(key.object, value.object);
+						}
+						if (field == null) {
+							return index;
+						}
+						field.set(this, objMap);
+						return index;
+					}
+					if (binary && (isBinaryNumber(c2) || c2 == 'O')) {
+						ItemResult items = null;
+						if (c2 == 'O') {
+							Class<?> componentType = field == null ? SimpleSerializable.class : field.componentType;
+							if (isBytesTable(bytes, index, end, l2)) {
+								items = deserializeBytesTable(bytes, index + 1, end, l2, componentType, ssObjs);
+								if (items.code != SIMPLE_OK) return items.code;
+								index = items.index;
+								if (field == null) {
+									return index;
+								}
+								field.set(this, items.object);
+								return index;
 							}
-							if (field == null) {
-								continue;
+							SimpleSerializable[] sss = (SimpleSerializable[]) Array.newInstance(componentType, l2);
+							for (int i = 0; i < l2; i++) {
+								if (index >= end) return SIMPLE_MISSING_DATA;
+								char c4 = (char) bytes[index++];
+								ItemResult o = deserializeBytesObject(bytes, c4, index, end, ssObjs);
+								if (o.code != SIMPLE_OK) return o.code;
+								sss[i] = (SimpleSerializable) o.object;
+								index = o.index;
 							}
-							field.set(this, objMap);
+							items = new ItemResult(sss, index);
+						} else {
+							items = deserializeBytesNumbers(bytes, index, end, c2, l2);
+							if (items.code != SIMPLE_OK) return items.code;
+							index = items.index;
+						}
+						if (field == null) {
+							return index;
+						}
+						field.set(this, items.object);
+						return index;
+					}
+					String[] ss = new String[l2];
+					for (int i = 0; i < l2; i++) {
+						char c4 = (char) bytes[index++];
+						if (c2 == 'X' && (c4 == 'd' || c4 == 'r')) {
+							ItemResult str = deserializeBytesTableString(bytes, c4, index, end, ssObjs);
+							if (str.code != SIMPLE_OK) return str.code;
+							ss[i] = (String) str.object;
+							index = str.index;
 							continue;
 						}
-						String[] ss = new String[l2];
-						for (int i = 0; i < l2; i++) {
-							char c4 = (char) bytes[index++];
-							if (c2 != 'X' && c2 != 'O') {
-								int l3 = c4 - baseChar;
-								if (l3 > 0) {
-									if (index + l3 > end) return SIMPLE_MISSING_DATA;
-									if (c4 == 'u') {
-										ss[i] = new String(Base64.base64ToByteArray(new String(bytes, index, l3)), UTF_8);
-									} else if (c4 == 'U') { // not supported in v202
-									 	ss[i] = new String(bytes, index, l3, UTF_8);
-									} else {
-										ss[i] = new String(bytes, index, l3); // c4 == 's' or others
-									}
-									index += l3;
-								} else if (l3 == 0) {
-									ss[i] = "";
+						if (c2 != 'X' && c2 != 'O') {
+							int l3 = c4 - baseChar;
+							if (l3 > 0) {
+								if (index + l3 > end) return SIMPLE_MISSING_DATA;
+								if (c4 == 'u') {
+									ss[i] = new String(Base64.base64ToByteArray(new String(bytes, index, l3)), UTF_8);
+								} else if (c4 == 'U') { // since v203
+								 	ss[i] = new String(bytes, index, l3, UTF_8);
+								} else {
+									ss[i] = new String(bytes, index, l3); // c4 == 's' or others
 								}
-							} else { // X or O
-								char c5 = (char) bytes[index++];
-								int l3 = c5 - baseChar;
-								if (l3 > 0) {
-									if (index + l3 > end) return SIMPLE_MISSING_DATA;
-									if (c4 == 'u') {
-										ss[i] = new String(Base64.base64ToByteArray(new String(bytes, index, l3)), UTF_8);
-									} else if (c4 == 'O' || c4 == 'U') {
-										ss[i] = new String(bytes, index, l3, c4 == 'U' ? UTF_8 : ISO_8859_1);
-									} else {
-										ss[i] = new String(bytes, index, l3); // c4 == 's' or others
-									}
-									index += l3;
-								} else if (l3 == 0) {
-									ss[i] = "";
-								} else if (l3 == -2) {
+								index += l3;
+							} else if (l3 == 0) {
+								ss[i] = "";
+							}
+						} else { // X or O
+							char c5 = (char) bytes[index++];
+							int l3 = c5 - baseChar;
+							if (l3 > 0) {
+								if (index + l3 > end) return SIMPLE_MISSING_DATA;
+								if (c4 == 'u') {
+									ss[i] = new String(Base64.base64ToByteArray(new String(bytes, index, l3)), UTF_8);
+								} else if (c4 == 'O' || c4 == 'U') {
+									ss[i] = new String(bytes, index, l3, c4 == 'U' ? UTF_8 : ISO_8859_1);
+								} else {
+									ss[i] = new String(bytes, index, l3); // c4 == 's' or others
+								}
+								index += l3;
+							} else if (l3 == 0) {
+								ss[i] = "";
+							} else if (l3 == -2) {
+								int l5 = 0;
+								if (binary) {
+									l5 = readBytesVarintLength(bytes, index, end);
+									if (l5 == SKIP_MISSING_DATA) return SIMPLE_MISSING_DATA;
+									if (l5 < 0) return SIMPLE_INVALID_DATA;
+									index += SimpleOutputBuffer.varintSize(l5);
+								} else {
 									char c6 = (char) bytes[index++];
 									int l4 = c6 - baseChar;
 									if (l4 < 0) return SIMPLE_INVALID_DATA;
 									if (index + l4 > end) return SIMPLE_MISSING_DATA;
-									int l5 = Integer.parseInt(new String(bytes, index, l4));
+									l5 = Integer.parseInt(new String(bytes, index, l4));
 									index += l4;
-									if (l5 < 0) return SIMPLE_INVALID_DATA;
-									if (index + l5 > end) return SIMPLE_MISSING_DATA;
-									if (c4 == 'u') {
-										ss[i] = new String(Base64.base64ToByteArray(new String(bytes, index, l5)), UTF_8);
-									} else if (c4 == 'O' || c4 == 'U') {
-										ss[i] = new String(bytes, index, l5, c4 == 'U' ? UTF_8 : ISO_8859_1);
-									} else {
-										ss[i] = new String(bytes, index, l5); // c4 == 's' or others
-									}
-									index += l5;
+								}
+								if (l5 < 0) return SIMPLE_INVALID_DATA;
+								if (index + l5 > end) return SIMPLE_MISSING_DATA;
+								if (c4 == 'u') {
+									ss[i] = new String(Base64.base64ToByteArray(new String(bytes, index, l5)), UTF_8);
+								} else if (c4 == 'O' || c4 == 'U') {
+									ss[i] = new String(bytes, index, l5, c4 == 'U' ? UTF_8 : ISO_8859_1);
 								} else {
-									continue;
+									ss[i] = new String(bytes, index, l5); // c4 == 's' or others
 								}
+								index += l5;
+							} else {
+								continue;
 							}
 						}
-						if (field == null) {
-							continue;
-						}
-						switch (c2) {
-						case 'I': {
-							int[] ns = new int[l2];
-							for (int i = 0; i < l2; i++) {
-								if (ss[i] != null) {
-									ns[i] = Integer.parseInt(ss[i]);
-								}
+					}
+					if (field == null) {
+						return index;
+					}
+					switch (c2) {
+					case 'I': {
+						int[] ns = new int[l2];
+						for (int i = 0; i < l2; i++) {
+							if (ss[i] != null) {
+								ns[i] = Integer.parseInt(ss[i]);
 							}
-							field.set(this, ns);
-							break;
 						}
-						case 'X':
-							field.set(this, ss);
-							break;
-						case 'O': {
-							Class<?> fieldClazz = field.getType();
-							SimpleSerializable[] sss = (SimpleSerializable[]) Array.newInstance(fieldClazz.getComponentType(), l2);
-							for (int i = 0; i < l2; i++) {
-								String s = ss[i];
-								if (s != null && s.length() > 0) {
-									if (s.startsWith("WLL")) {
-										SimpleSerializable ssObj = SimpleSerializable.parseInstance(s);
-										ssObjs.add(ssObj);
-										ssObj.deserialize(s, 0, ssObjs);
-										sss[i] = ssObj;
-									} else { // 'o'
-										int idx = Integer.parseInt(s);
-										if (idx < ssObjs.size()) {
-											sss[i] = ssObjs.get(idx);
-										}
+						field.set(this, ns);
+						break;
+					}
+					case 'X':
+						field.set(this, ss);
+						break;
+					case 'O': {
+						SimpleSerializable[] sss = (SimpleSerializable[]) Array.newInstance(field.componentType, l2);
+						for (int i = 0; i < l2; i++) {
+							String s = ss[i];
+							if (s != null && s.length() > 0) {
+								if (s.startsWith("WLL")) {
+									SimpleSerializable ssObj = SimpleSerializable.parseInstance(s);
+									ssObjs.add(ssObj);
+									ssObj.deserialize(s, 0, ssObjs);
+									sss[i] = ssObj;
+								} else { // 'o'
+									int idx = Integer.parseInt(s);
+									if (idx < ssObjs.size()) {
+										sss[i] = ssObjs.get(idx);
 									}
 								}
 							}
-							field.set(this, sss);
-							break;
-						}
-						case 'L': {
-							long[] ls = new long[l2];
-							for (int i = 0; i < l2; i++) {
-								if (ss[i] != null) {
-									ls[i] = Long.parseLong(ss[i]);
-								}
-							}
-							field.set(this, ls);
-							break;
 						}
-						case 'b': {
-							boolean[] bs = new boolean[l2];
-							for (int i = 0; i < l2; i++) {
-								if (ss[i] != null && ss[i].length() > 0) {
-									char c = ss[i].charAt(0);
-									bs[i] = (c == '1' || c == 't');
-								}
+						field.set(this, sss);
+						break;
+					}
+					case 'L': {
+						long[] ls = new long[l2];
+						for (int i = 0; i < l2; i++) {
+							if (ss[i] != null) {
+								ls[i] = Long.parseLong(ss[i]);
 							}
-							field.set(this, bs);
-							break;
 						}
-						case 'F': {
-							float[] fs = new float[l2];
-							for (int i = 0; i < l2; i++) {
-								if (ss[i] != null) {
-									fs[i] = Float.parseFloat(ss[i]);
-								}
+						field.set(this, ls);
+						break;
+					}
+					case 'b': {
+						boolean[] bs = new boolean[l2];
+						for (int i = 0; i < l2; i++) {
+							if (ss[i] != null && ss[i].length() > 0) {
+								char c = ss[i].charAt(0);
+								bs[i] = (c == '1' || c == 't');
 							}
-							field.set(this, fs);
-							break;
 						}
-						case 'D': {
-							double[] ds = new double[l2];
-							for (int i = 0; i < l2; i++) {
-								if (ss[i] != null) {
-									ds[i] = Double.parseDouble(ss[i]);
-								}
+						field.set(this, bs);
+						break;
+					}
+					case 'F': {
+						float[] fs = new float[l2];
+						for (int i = 0; i < l2; i++) {
+							if (ss[i] != null) {
+								fs[i] = Float.parseFloat(ss[i]);
 							}
-							field.set(this, ds);
-							break;
 						}
-						case 'S': {
-							short[] sts = new short[l2];
-							for (int i = 0; i < l2; i++) {
-								if (ss[i] != null) {
-									sts[i] = Short.parseShort(ss[i]);
-								}
+						field.set(this, fs);
+						break;
+					}
+					case 'D': {
+						double[] ds = new double[l2];
+						for (int i = 0; i < l2; i++) {
+							if (ss[i] != null) {
+								ds[i] = Double.parseDouble(ss[i]);
 							}
-							field.set(this, sts);
-							break;
 						}
-						case 'B': {
-							byte[] bs = new byte[l2];
-							for (int i = 0; i < l2; i++) {
-								if (ss[i] != null) {
-									bs[i] = Byte.parseByte(ss[i]);
-								}
+						field.set(this, ds);
+						break;
+					}
+					case 'S': {
+						short[] sts = new short[l2];
+						for (int i = 0; i < l2; i++) {
+							if (ss[i] != null) {
+								sts[i] = Short.parseShort(ss[i]);
 							}
-							field.set(this, bs);
-							break;
 						}
-						case 'C': {
-							char[] cs = new char[l2];
-							for (int i = 0; i < l2; i++) {
-								if (ss[i] != null) {
-									cs[i] = (char) Integer.parseInt(ss[i]);
-								}
+						field.set(this, sts);
+						break;
+					}
+					case 'B': {
+						byte[] bs = new byte[l2];
+						for (int i = 0; i < l2; i++) {
+							if (ss[i] != null) {
+								bs[i] = Byte.parseByte(ss[i]);
 							}
-							field.set(this, cs);
-							break;
 						}
-						case 'E': {
-							Class<?> enumType = field.getType().getComponentType();
-							Enum<?>[] enums = (Enum<?>[]) Array.newInstance(enumType, l2);
-							for (int i = 0; i < l2; i++) {
-								if (ss[i] == null || ss[i].length() == 0) continue;
-								Enum<?>[] enumConstants = (Enum<?> []) enumType.getEnumConstants();
-								for (int j = 0; j < enumConstants.length; j++) {
-									if (enumConstants[j].name().equals(ss[i])) {
-										enums[i] = enumConstants[j];
-										break;
-									}
-								}
+						field.set(this, bs);
+						break;
+					}
+					case 'C': {
+						char[] cs = new char[l2];
+						for (int i = 0; i < l2; i++) {
+							if (ss[i] != null) {
+								cs[i] = (char) Integer.parseInt(ss[i]);
 							}
-							field.set(this, enums);
-							break;
 						}
+						field.set(this, cs);
+						break;
+					}
+					case 'E': {
+						Enum<?>[] enums = (Enum<?>[]) Array.newInstance(field.componentType, l2);
+						for (int i = 0; i < l2; i++) {
+							enums[i] = field.enumOf(ss[i]);
 						}
+						field.set(this, enums);
+						break;
 					}
-				} catch (NumberFormatException e) {
-					return SIMPLE_INVALID_DATA;
-				} catch (Exception e) {
-					e.printStackTrace();
-					return SIMPLE_UNKNOWN_ERROR;
-				}
-			} else {
-				char c3 = (char) bytes[index++];
-				int l2 = c3 - baseChar;
-				String s = null;
-				if (l2 > 0) {
-					if (index + l2 > end) return SIMPLE_MISSING_DATA;
-					if (c2 == 'u') {
-						s = new String(Base64.base64ToByteArray(new String(bytes, index, l2)), UTF_8);
-					} else if (c2 == 'U' || c2 == 'O') {
-						s = new String(bytes, index, l2, c2 == 'U' ? UTF_8 : ISO_8859_1);
-					} else {
-						s = new String(bytes, index, l2); // c2 == 's' and others
 					}
-					index += l2;
-				} else if (l2 == 0) {
-					s = "";
-				} else if (l2 == -2) {
+				}
+			} catch (NumberFormatException e) {
+				return SIMPLE_INVALID_DATA;
+			} catch (Exception e) {
+				e.printStackTrace();
+				return SIMPLE_UNKNOWN_ERROR;
+			}
+		} else if (c2 == 'd' || c2 == 'r') {
+			ItemResult str = deserializeBytesTableString(bytes, c2, index, end, ssObjs);
+			if (str.code != SIMPLE_OK) return str.code;
+			if (field == null) {
+				return str.index;
+			}
+			try {
+				field.set(this, str.object);
+			} catch (Exception e) {
+				e.printStackTrace();
+				return SIMPLE_UNKNOWN_ERROR;
+			}
+			return str.index;
+		} else {
+			char c3 = (char) bytes[index++];
+			int l2 = c3 - baseChar;
+			String s = null;
+			int objectStart = -1; // nested object is deserialized in place
+			int numberStart = -1; // binary number is read in place
+			if (l2 > 0) {
+				if (index + l2 > end) return SIMPLE_MISSING_DATA;
+				if (c2 == 'O' && (binary || field != null && field.type == SimpleCodecPlan.TYPE_OBJECT)) {
+					objectStart = index;
+				} else if (binary && isBinaryNumber(c2)) {
+					numberStart = index;
+				} else if (c2 == 'u') {
+					s = new String(Base64.base64ToByteArray(new String(bytes, index, l2)), UTF_8);
+				} else if (c2 == 'U' || c2 == 'O') {
+					s = new String(bytes, index, l2, c2 == 'U' ? UTF_8 : ISO_8859_1);
+				} else {
+					s = new String(bytes, index, l2); // c2 == 's' and others
+				}
+				index += l2;
+			} else if (l2 == 0) {
+				s = "";
+			} else if (l2 == -2) {
+				int l4 = 0;
+				if (binary) {
+					l4 = readBytesVarintLength(bytes, index, end);
+					if (l4 == SKIP_MISSING_DATA) return SIMPLE_MISSING_DATA;
+					if (l4 < 0) return SIMPLE_INVALID_DATA;
+					index += SimpleOutputBuffer.varintSize(l4);
+				} else {
 					char c4 = (char) bytes[index++];
 					int l3 = c4 - baseChar;
 					if (l3 < 0) return SIMPLE_INVALID_DATA;
 					if (index + l3 > end) return SIMPLE_MISSING_DATA;
-					int l4 = Integer.parseInt(new String(bytes, index, l3));
+					l4 = Integer.parseInt(new String(bytes, index, l3));
 					index += l3;
-					if (l4 < 0) return SIMPLE_INVALID_DATA;
-					if (index + l4 > end) return SIMPLE_MISSING_DATA;
-					if (c2 == 'u') {
-						s = new String(Base64.base64ToByteArray(new String(bytes, index, l4)), UTF_8);
-					} else if (c2 == 'U' || c2 == 'O') {
-						s = new String(bytes, index, l4, c2 == 'U' ? UTF_8 : ISO_8859_1);
-					} else {
-						s = new String(bytes, index, l4);
-					}
-					index += l4;
 				}
-				Field field = (Field) fieldMap.get(fieldName);
-				if (field == null) {
-					continue;
+				if (l4 < 0) return SIMPLE_INVALID_DATA;
+				if (index + l4 > end) return SIMPLE_MISSING_DATA;
+				if (c2 == 'O' && (binary || field != null && field.type == SimpleCodecPlan.TYPE_OBJECT)) {
+					objectStart = index;
+				} else if (c2 == 'u') {
+					s = new String(Base64.base64ToByteArray(new String(bytes, index, l4)), UTF_8);
+				} else if (c2 == 'U' || c2 == 'O') {
+					s = new String(bytes, index, l4, c2 == 'U' ? UTF_8 : ISO_8859_1);
+				} else {
+					s = new String(bytes, index, l4);
 				}
-				try {
+				index += l4;
+			}
+			if (field == null && objectStart >= 0) {
+				// deserialize and drop, so later references and names are resolved
+				SimpleSerializable ss = SimpleSerializable.parseInstance(bytes, objectStart, null, bytesDictionary(ssObjs));
+				if (ss == null || ss == ERROR) return SIMPLE_INVALID_DATA;
+				ssObjs.add(ss);
+				int result = ss.deserializeBytes(bytes, objectStart, index, null, ssObjs);
+				return result != SIMPLE_OK ? result : index;
+			}
+			if (field == null) {
+				return index;
+			}
+			try {
+				if (numberStart >= 0) {
+					long n = readBytesNumber(bytes, numberStart, l2, c2);
 					switch (c2) {
-					case 'I':
-						field.setInt(this, Integer.parseInt(s));
-						break;
-					case 's':
-						field.set(this, s);
-						break;
-					case 'L':
-						field.setLong(this, Long.parseLong(s));
-						break;
-					case 'b': {
-						char c = s.charAt(0);
-						field.setBoolean(this, c == '1' || c == 't');
-						break;
-					}
-					case 'O': {
-						SimpleSerializable ss = SimpleSerializable.parseInstance(s);
+					case 'I': field.setInt(this, (int) n); break;
+					case 'L': field.setLong(this, n); break;
+					case 'F': field.setFloat(this, Float.intBitsToFloat((int) n)); break;
+					case 'D': field.setDouble(this, Double.longBitsToDouble(n)); break;
+					case 'S': field.setShort(this, (short) n); break;
+					case 'B': field.setByte(this, (byte) n); break;
+					case 'C': field.setChar(this, (char) n); break;
+					}
+					return index;
+				}
+				switch (c2) {
+				case 'I':
+					field.setInt(this, Integer.parseInt(s));
+					break;
+				case 's':
+					field.set(this, s);
+					break;
+				case 'L':
+					field.setLong(this, Long.parseLong(s));
+					break;
+				case 'b': {
+					char c = s.charAt(0);
+					field.setBoolean(this, c == '1' || c == 't');
+					break;
+				}
+				case 'O': {
+					SimpleSerializable ss = null;
+					if (objectStart >= 0) {
+						ss = SimpleSerializable.parseInstance(bytes, objectStart, null, bytesDictionary(ssObjs));
+						ssObjs.add(ss);
+						ss.deserializeBytes(bytes, objectStart, index, null, ssObjs);
+					} else if (s != null) { // null is written for delta response
+						ss = SimpleSerializable.parseInstance(s);
 						ssObjs.add(ss);
 						ss.deserialize(s, 0, ssObjs);
-						field.set(this, ss);
-						break;
-					}
-					case 'o': {
-						int idx = Integer.parseInt(s);
-						SimpleSerializable ss = null;
-						if (idx < ssObjs.size()) {
-							ss = ssObjs.get(idx);
-						}
-						field.set(this, ss);
-						break;
 					}
-					case 'u':
-						field.set(this, s);
-						break;
-					case 'U':
-						field.set(this, s);
-						break;
-					case 'E':
-						if (s != null && s.length() > 0) {
-							Object eo = null;
-							Enum<?>[] enumConstants = (Enum<?> []) field.getType().getEnumConstants();
-							for (int i = 0; i < enumConstants.length; i++) {
-								if (enumConstants[i].name().equals(s)) {
-									eo = enumConstants[i];
-									break;
-								}
-							}
-							field.set(this, eo);
-						} else {
-							field.set(this, null);
-						}
-						break;
-					case 'F':
-						field.setFloat(this, Float.parseFloat(s));
-						break;
-					case 'D':
-						field.setDouble(this, Double.parseDouble(s));
-						break;
-					case 'S':
-						field.setShort(this, Short.parseShort(s));
-						break;
-					case 'B':
-						field.setByte(this, Byte.parseByte(s));
-						break;
-					case 'C':
-						field.setChar(this, (char) Integer.parseInt(s));
-						break;
+					field.set(this, ss);
+					break;
+				}
+				case 'o': {
+					int idx = Integer.parseInt(s);
+					SimpleSerializable ss = null;
+					if (idx < ssObjs.size()) {
+						ss = ssObjs.get(idx);
 					}
-				} catch (NumberFormatException e) {
-					return SIMPLE_INVALID_DATA;
-				} catch (Exception e) {
-					e.printStackTrace();
-					return SIMPLE_UNKNOWN_ERROR;
+					field.set(this, ss);
+					break;
+				}
+				case 'u':
+					field.set(this, s);
+					break;
+				case 'U':
+					field.set(this, s);
+					break;
+				case 'E':
+					field.set(this, field.enumOf(s));
+					break;
+				case 'F':
+					field.setFloat(this, Float.parseFloat(s));
+					break;
+				case 'D':
+					field.setDouble(this, Double.parseDouble(s));
+					break;
+				case 'S':
+					field.setShort(this, Short.parseShort(s));
+					break;
+				case 'B':
+					field.setByte(this, Byte.parseByte(s));
+					break;
+				case 'C':
+					field.setChar(this, (char) Integer.parseInt(s));
+					break;
 				}
+			} catch (NumberFormatException e) {
+				return SIMPLE_INVALID_DATA;
+			} catch (Exception e) {
+				e.printStackTrace();
+				return SIMPLE_UNKNOWN_ERROR;
 			}
 		}
-		return SIMPLE_OK;
+		return index;
 	}
 
 	@J2SIgnore
@@ -4210,15 +5061,7 @@ return true;
 			extraGenericType = pt.getRawType();
 		}
 		
-		String extraType = extraGenericType.toString();
-		if (extraType.startsWith("class ")) {
-			extraType = extraType.substring(6);
-		}
-		try {
-			return Class.forName(extraType);
-		} catch (Exception e) {
-		}
-		return null;
+		return SimpleClassCache.getGenericClass(extraGenericType);
 	}
 
 	/**
@@ -4589,6 +5432,7 @@ return true;
 	@J2SIgnore
 	protected ItemResult deserializeBytesArrayItem(byte[] bytes, int index, int end, List<SimpleSerializable> ssObjs, Type extraType) {
 		char baseChar = 'B';
+		boolean binary = getSimpleVersion() >= 204;
 		char c2 = (char) bytes[index++];
 		if (c2 == 'A' || c2 == 'Z' || c2 == 'Y') {
 			c2 = (char) bytes[index++];
@@ -4598,7 +5442,13 @@ return true;
 				if (l2 < 0 && l2 != -2) {
 					return new ItemResult(null, index); // throw error?
 				} else {
-					if (l2 == -2) {
+					if (l2 == -2 && binary) {
+						l2 = readBytesVarintLength(bytes, index, end);
+						if (l2 == SKIP_MISSING_DATA) return ItemResult.MISSING_DATA;
+						if (l2 < 0) return ItemResult.INVALID_DATA;
+						if (l2 > 0x1000000) return ItemResult.ARRAY_TOO_LARGE; // 16 * 1024 * 1024
+						index += SimpleOutputBuffer.varintSize(l2);
+					} else if (l2 == -2) {
 						char c4 = (char) bytes[index++];
 						int l3 = c4 - baseChar;
 						if (l3 < 0) return ItemResult.INVALID_DATA;
@@ -4643,11 +5493,18 @@ return true;
 								itemType = argTypes[0];
 							}
 						}
-						for (int i = 0; i < l2; i++) {
-							ItemResult o = deserializeBytesArrayItem(bytes, index, end, ssObjs, itemType);
-							if (o.code != SIMPLE_OK) return o;
-							objCollection.add(o.object);
-							index = o.index;
+						if (isBytesTable(bytes, index, end, l2)) {
+							ItemResult rows = deserializeBytesTable(bytes, index + 1, end, l2, SimpleSerializable.class, ssObjs);
+							if (rows.code != SIMPLE_OK) return rows;
+							Collections.addAll(objCollection, (Object[]) rows.object);
+							index = rows.index;
+						} else {
+							for (int i = 0; i < l2; i++) {
+								ItemResult o = deserializeBytesArrayItem(bytes, index, end, ssObjs, itemType);
+								if (o.code != SIMPLE_OK) return o;
+								objCollection.add(o.object);
+								index = o.index;
+							}
 						}
 						return new ItemResult(objCollection, index);
 					} else if (c2 == 'M') {
@@ -4675,9 +5532,33 @@ return true;
 						}
 						return new ItemResult(objMap, index);
 					}
+					if (binary && isBinaryNumber(c2)) {
+						return deserializeBytesNumbers(bytes, index, end, c2, l2);
+					} else if (binary && c2 == 'O') {
+						if (isBytesTable(bytes, index, end, l2)) {
+							return deserializeBytesTable(bytes, index + 1, end, l2, SimpleSerializable.class, ssObjs);
+						}
+						SimpleSerializable[] sss = new SimpleSerializable[l2];
+						for (int i = 0; i < l2; i++) {
+							if (index >= end) return ItemResult.MISSING_DATA;
+							char c4 = (char) bytes[index++];
+							ItemResult o = deserializeBytesObject(bytes, c4, index, end, ssObjs);
+							if (o.code != SIMPLE_OK) return o;
+							sss[i] = (SimpleSerializable) o.object;
+							index = o.index;
+						}
+						return new ItemResult(sss, index);
+					}
 					String[] ss = new String[l2];
 					for (int i = 0; i < l2; i++) {
 						char c4 = (char) bytes[index++];
+						if (c2 == 'X' && (c4 == 'd' || c4 == 'r')) {
+							ItemResult str = deserializeBytesTableString(bytes, c4, index, end, ssObjs);
+							if (str.code != SIMPLE_OK) return str;
+							ss[i] = (String) str.object;
+							index = str.index;
+							continue;
+						}
 						if (c2 != 'X' && c2 != 'O') {
 							int l3 = c4 - baseChar;
 							if (l3 > 0) {
@@ -4709,12 +5590,20 @@ return true;
 							} else if (l3 == 0) {
 								ss[i] = "";
 							} else if (l3 == -2) {
-								char c6 = (char) bytes[index++];
-								int l4 = c6 - baseChar;
-								if (l4 < 0) return ItemResult.INVALID_DATA;
-								if (index + l4 > end) return ItemResult.MISSING_DATA;
-								int l5 = Integer.parseInt(new String(bytes, index, l4));
-								index += l4;
+								int l5 = 0;
+								if (binary) {
+									l5 = readBytesVarintLength(bytes, index, end);
+									if (l5 == SKIP_MISSING_DATA) return ItemResult.MISSING_DATA;
+									if (l5 < 0) return ItemResult.INVALID_DATA;
+									index += SimpleOutputBuffer.varintSize(l5);
+								} else {
+									char c6 = (char) bytes[index++];
+									int l4 = c6 - baseChar;
+									if (l4 < 0) return ItemResult.INVALID_DATA;
+									if (index + l4 > end) return ItemResult.MISSING_DATA;
+									l5 = Integer.parseInt(new String(bytes, index, l4));
+									index += l4;
+								}
 								if (l5 < 0) return ItemResult.INVALID_DATA;
 								if (index + l5 > end) return ItemResult.MISSING_DATA;
 								if (c4 == 'u') {
@@ -4857,8 +5746,32 @@ return true;
 				return ItemResult.UNKNOWN_ERROR;
 			}
 		} else {
+			if (binary && (c2 == 'O' || c2 == 'o')) {
+				return deserializeBytesObject(bytes, c2, index, end, ssObjs);
+			}
+			if (c2 == 'd' || c2 == 'r') {
+				return deserializeBytesTableString(bytes, c2, index, end, ssObjs);
+			}
 			char c3 = (char) bytes[index++];
 			int l2 = c3 - baseChar;
+			if (binary && isBinaryNumber(c2) && l2 > 0) {
+				if (index + l2 > end) return ItemResult.MISSING_DATA;
+				try {
+					long n = readBytesNumber(bytes, index, l2, c2);
+					index += l2;
+					switch (c2) {
+					case 'I': return new ItemResult(Integer.valueOf((int) n), index);
+					case 'L': return new ItemResult(Long.valueOf(n), index);
+					case 'F': return new ItemResult(Float.valueOf(Float.intBitsToFloat((int) n)), index);
+					case 'D': return new ItemResult(Double.valueOf(Double.longBitsToDouble(n)), index);
+					case 'S': return new ItemResult(Short.valueOf((short) n), index);
+					case 'B': return new ItemResult(Byte.valueOf((byte) n), index);
+					default: return new ItemResult(Character.valueOf((char) n), index); // 'C'
+					}
+				} catch (NumberFormatException e) {
+					return ItemResult.INVALID_DATA;
+				}
+			}
 			String s = null;
 			if (l2 > 0) {
 				if (index + l2 > end) return ItemResult.MISSING_DATA;
@@ -4872,6 +5785,20 @@ return true;
 				index += l2;
 			} else if (l2 == 0) {
 				s = "";
+			} else if (l2 == -2 && binary) {
+				int l4 = readBytesVarintLength(bytes, index, end);
+				if (l4 == SKIP_MISSING_DATA) return ItemResult.MISSING_DATA;
+				if (l4 < 0) return ItemResult.INVALID_DATA;
+				index += SimpleOutputBuffer.varintSize(l4);
+				if (index + l4 > end) return ItemResult.MISSING_DATA;
+				if (c2 == 'u') {
+					s = new String(Base64.base64ToByteArray(new String(bytes, index, l4)), UTF_8);
+				} else if (c2 == 'U') {
+					s = new String(bytes, index, l4, UTF_8);
+				} else {
+					s = new String(bytes, index, l4); // c2 == 's' or others
+				}
+				index += l4;
 			} else if (l2 == -2) {
 				char c4 = (char) bytes[index++];
 				int l3 = c4 - baseChar;
@@ -4973,10 +5900,8 @@ return true;
 		if (clazzName == null) {
 			return null;
 		}
-		String longClazzName = classAliasMappings.get(clazzName);
-		if (longClazzName != null) {
-			clazzName = longClazzName;
-		}
+		SimpleClassCache.Entry entry = SimpleClassCache.getEntry(clazzName, true);
+		clazzName = entry.className;
 		SimpleFactory fb = fallbackFactory;
 		if (fb != null && classMissed.contains(clazzName)) {
 			SimpleSerializable ssInst = fb.createInstance();
@@ -4984,7 +5909,7 @@ return true;
 				return ssInst;
 			}
 		}
-		Object inst = loadSimpleInstance(clazzName);
+		Object inst = entry.newInstance();
 		if (fb != null && inst == null) {
 			synchronized (classMutex) {
 				classMissed.add(clazzName);
@@ -5007,36 +5932,19 @@ return true;
 		if (longClazzName != null) {
 			clazzName = longClazzName;
 		}
-		Map<String, Field> fieldMap = getSerializableFields(this.getClass());
-		String[] fMap = fieldMapping();
+		SimpleCodecPlan plan = SimpleCodecPlan.getPlan(this.getClass());
+		SimpleCodecPlan.AliasTable aliasTable = plan.getAliasTable(null, fieldMapping());
 		for (Iterator<String> itr = properties.keySet().iterator(); itr.hasNext();) {
 			String fieldName = (String) itr.next();
 			if ("class".equalsIgnoreCase(fieldName)) {
 				continue;
 			}
 			Object o = properties.get(fieldName);
-			if (fMap != null && fMap.length > 1) {
-				for (int i = 0; i < fMap.length / 2; i++) {
-					if (fieldName.equals(fMap[i + i + 1])) {
-						String trueName = fMap[i + i];
-						if (trueName != null && trueName.length() > 0) {
-							fieldName = trueName;
-						}
-						break;
-					}
-				}
-			}
-			while (fieldName.startsWith("$")) {
-				if (fieldMap.containsKey(fieldName)) {
-					break;
-				}
-				fieldName = fieldName.substring(1);
-			}
-			Field field = fieldMap.get(fieldName);
+			SimpleCodecPlan.FieldHandler field = plan.getHandler(aliasTable, fieldName);
 			if (field == null) {
 				continue;
 			}
-			Class<?> clazz = field.getType();
+			Class<?> clazz = field.fieldType;
 			try {
 				if (clazz == int.class) {
 					field.setInt(this, Integer.parseInt((String) o));
@@ -5160,31 +6068,16 @@ return true;
 					} else if (clazz.isEnum()) {
 						List<?> list = (List<?>) o;
 						int size = list.size();
-						Class<?> enumType = field.getType().getComponentType();
-						Enum<?>[] enums = (Enum<?>[]) Array.newInstance(enumType, size);
+						Enum<?>[] enums = (Enum<?>[]) Array.newInstance(clazz, size);
 						for (int i = 0; i < size; i++) {
-							String s = (String) list.get(i);
-							if (s == null || s.length() == 0) continue;
-							Enum<?>[] enumConstants = (Enum<?> []) enumType.getEnumConstants();
-							for (int j = 0; j < enumConstants.length; j++) {
-								if (enumConstants[j].name().equals(s)) {
-									enums[i] = enumConstants[j];
-									break;
-								}
-							}
+							enums[i] = field.enumOf((String) list.get(i));
 						}
 						field.set(this, enums);
 					}
 				} else if (clazz.isEnum()) {
 					Object eo = null;
-					if (o != null && o instanceof String && ((String) o).length() > 0) {
-						Enum<?>[] enumConstants = (Enum<?> []) clazz.getEnumConstants();
-						for (int i = 0; i < enumConstants.length; i++) {
-							if (enumConstants[i].name().equals(o)) {
-								eo = enumConstants[i];
-								break;
-							}
-						}
+					if (o != null && o instanceof String) {
+						eo = field.enumOf((String) o);
 					}
 					field.set(this, eo);
 				} else if (clazz == float.class) {
@@ -5286,11 +6179,10 @@ return true;
 		SimpleSerializable clone = (SimpleSerializable) super.clone();
 		clone.simpleVersion = simpleVersion;
 		
-		Class<? extends SimpleSerializable> clazz = this.getClass();
-		Map<String, Field> fields = getSerializableFields(clazz);
-		for (Iterator<Field> itr = fields.values().iterator(); itr.hasNext();) {
-			Field field = (Field) itr.next();
-			Class<?> type = field.getType();
+		SimpleCodecPlan.FieldHandler[] handlers = SimpleCodecPlan.getPlan(this.getClass()).handlers;
+		for (int i = 0; i < handlers.length; i++) {
+			SimpleCodecPlan.FieldHandler field = handlers[i];
+			Class<?> type = field.fieldType;
 			if (!type.isArray()) {
 				continue; // already clone in super.clone
 			}
@@ -5342,6 +6234,7 @@ return true;
 		if (loaders != null) {
 			allLoaders = loaders;
 			hasClassReloaded = true;
+			SimpleClassCache.clear();
 		}
 	}
 	
@@ -5354,17 +6247,24 @@ return true;
 	 * @return 
 	 */
 	static Object loadSimpleInstance(String clazzName) {
+		return SimpleClassCache.getEntry(clazzName, false).newInstance();
+	}
+
+	/**
+	 * Load given class by the class loader set by #setClassLoaders, or by
+	 * Class#forName.
+	 * 
+	 * @param clazzName
+	 * @return class, or null if it is not found
+	 */
+	@J2SIgnore
+	static Class<?> loadSimpleClass(String clazzName) {
 		try {
-			Class<?> runnableClass = null;
 			ClassLoader classLoader = hasClassReloaded ? allLoaders.get(clazzName) : null;
 			if (classLoader != null) {
-				runnableClass = classLoader.loadClass(clazzName);
-			} else {
-				runnableClass = Class.forName(clazzName);
-			}
-			if (runnableClass != null) {
-				return runnableClass.getDeclaredConstructor().newInstance();
+				return classLoader.loadClass(clazzName);
 			}
+			return Class.forName(clazzName);
 		} catch (Exception e) {
 			//e.printStackTrace();
 		}
@@ -5478,6 +6378,34 @@ return ssz.UNKNOWN;
 		return parseInstance(bytes, 0, filter);
 	}
 	
+	/**
+	 * Get SimpleSerializable instance according to the remaining bytes of
+	 * the given buffer. Only header bytes are read, and position of the
+	 * buffer is not changed.
+	 * 
+	 * @param buffer
+	 * @param filter
+	 * @return
+	 */
+	@J2SIgnore // Only public to Java!
+	public static SimpleSerializable parseInstance(ByteBuffer buffer, SimpleFilter filter) {
+		if (buffer == null) return null;
+		int position = buffer.position();
+		int limit = buffer.limit();
+		int headerEnd = Math.min(limit, position + 16);
+		for (int i = position; i < limit; i++) {
+			if (buffer.get(i) == '#') {
+				headerEnd = i + 1;
+				break;
+			}
+		}
+		byte[] header = new byte[headerEnd - position];
+		for (int i = 0; i < header.length; i++) {
+			header[i] = buffer.get(position + i);
+		}
+		return parseInstance(header, 0, filter);
+	}
+	
 	/**
 	 * Get SimpleSerializable instance according to the given string starting from
 	 * the given index and the filter. 
@@ -5500,13 +6428,9 @@ return ssz.UNKNOWN;
 		}
 		int index = str.indexOf('#', start);
 		if (index == -1) return null;
-		String clazzName = str.substring(start + 6, index);
-		//if (v >= 202) {
-			String longClazzName = classAliasMappings.get(clazzName);
-			if (longClazzName != null) {
-				clazzName = longClazzName;
-			}
-		//}
+		// shorten class names are mapped for all versions
+		SimpleClassCache.Entry entry = SimpleClassCache.getEntry(str, start + 6, index, true);
+		String clazzName = entry.className;
 		if (filter != null) {
 			if (!filter.accept(clazzName)) return null;
 		}
@@ -5517,7 +6441,7 @@ return ssz.UNKNOWN;
 				return ssInst;
 			}
 		}
-		Object inst = loadSimpleInstance(clazzName);
+		Object inst = entry.newInstance();
 		if (fb != null && inst == null) {
 			synchronized (classMutex) {
 				classMissed.add(clazzName);
@@ -5530,7 +6454,7 @@ return ssz.UNKNOWN;
 		if (inst != null && inst instanceof SimpleSerializable) {
 			SimpleSerializable ss = (SimpleSerializable) inst;
 			if (v >= 202) {
-				ss.classNameAbbrev = !clazzName.equals(str.substring(start + 6, index));
+				ss.classNameAbbrev = entry.aliased;
 			}
 			return ss;
 		}
@@ -5539,6 +6463,22 @@ return ssz.UNKNOWN;
 	
 	@J2SIgnore // Only public to Java!
 	public static SimpleSerializable parseInstance(byte[] bytes, int start, SimpleFilter filter) {
+		return parseInstance(bytes, start, filter, null);
+	}
+
+	/**
+	 * Parse instance from the header of bytes of a stream with the given
+	 * names dictionary. Class name in full is added into the dictionary,
+	 * and class name "@" with id is resolved by the dictionary.
+	 * 
+	 * @param bytes
+	 * @param start
+	 * @param filter
+	 * @param dictionary null for no dictionary
+	 * @return
+	 */
+	@J2SIgnore
+	public static SimpleSerializable parseInstance(byte[] bytes, int start, SimpleFilter filter, SimpleNameDictionary dictionary) {
 		if (bytes == null || start < 0) return null;
 		int length = bytes.length - start;
 		if (length <= 7) return null;
@@ -5547,16 +6487,32 @@ return ssz.UNKNOWN;
 		if (v < 0 || v > 999) return ERROR;
 		int index = bytesIndexOf(bytes, (byte) '#', start);
 		if (index == -1) return null;
-		String clazzName = new String(bytes, start + 6, index - (start + 6));
-		if (v >= 202) {
-			String longClazzName = classAliasMappings.get(clazzName);
-			if (longClazzName != null) {
-				clazzName = longClazzName;
+		SimpleClassCache.Entry entry = null;
+		if (dictionary != null && v >= 206 && bytes[start + 6] == '@') {
+			int id = parseBytesLength(bytes, start + 7, index - start - 7);
+			String clazzName = id < 0 ? null : dictionary.get(id);
+			if (clazzName == null) return ERROR;
+			entry = SimpleClassCache.getEntry(clazzName, true);
+		} else {
+			// class name is resolved without creating strings
+			entry = SimpleClassCache.getEntry(bytes, start + 6, index, v >= 202);
+			if (dictionary != null && v >= 206) {
+				dictionary.add(bytes, start + 6, index - start - 6);
 			}
 		}
 		if (filter != null) {
-			if (!filter.accept(clazzName)) return null;
+			if (!filter.accept(entry.className)) return null;
 		}
+		return newInstance(entry, v);
+	}
+
+	/**
+	 * @return new instance of the resolved class, or fallback instance, or
+	 * UNKNOWN
+	 */
+	@J2SIgnore
+	private static SimpleSerializable newInstance(SimpleClassCache.Entry entry, int v) {
+		String clazzName = entry.className;
 		SimpleFactory fb = fallbackFactory;
 		if (fb != null && classMissed.contains(clazzName)) {
 			SimpleSerializable ssInst = fb.createInstance();
@@ -5564,7 +6520,7 @@ return ssz.UNKNOWN;
 				return ssInst;
 			}
 		}
-		Object inst = loadSimpleInstance(clazzName);
+		Object inst = entry.newInstance();
 		if (fb != null && inst == null) {
 			synchronized (classMutex) {
 				classMissed.add(clazzName);
@@ -5577,7 +6533,7 @@ return ssz.UNKNOWN;
 		if (inst != null && inst instanceof SimpleSerializable) {
 			SimpleSerializable ss = (SimpleSerializable) inst;
 			if (v >= 202) {
-				ss.classNameAbbrev = !clazzName.equals(new String(bytes, start + 6, index - (start + 6)));
+				ss.classNameAbbrev = entry.aliased;
 			}
 			return ss;
 		}
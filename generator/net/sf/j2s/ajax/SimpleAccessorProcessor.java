@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * Copyright (c) 2007 java2script.org and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Zhou Renjian - initial API and implementation
+ *******************************************************************************/
+
+package net.sf.j2s.ajax;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Annotation processor that generates ISimpleFieldAccessor classes for
+ * SimpleSerializable classes with @SimpleIn, @SimpleOut, @SimpleInOut
+ * or @SimpleComment annotations.
+ *
+ * Only field accessors are generated, not serializeBytes,
+ * deserializeBytes or jsonSerialize bodies. Those methods write every
+ * simple version, filters, compact bytes, tables, names dictionaries and
+ * string tables, and generated copies of them would have to follow each
+ * format change. Fields are still listed and their types are still
+ * resolved by reflection once per class in SimpleCodecPlan, so generated
+ * accessors only replace reflective reads and writes of field values,
+ * and classes still need reflective access to their declared fields.
+ *
+ * Processor is registered in META-INF/services, so javac runs it when
+ * this jar is on the processor path. Pass "-proc:none" to disable it.
+ *
+ * @author zhourenjian
+ *
+ * @j2sIgnore
+ */
+@SupportedAnnotationTypes({
+	"net.sf.j2s.ajax.annotation.SimpleIn",
+	"net.sf.j2s.ajax.annotation.SimpleOut",
+	"net.sf.j2s.ajax.annotation.SimpleInOut",
+	"net.sf.j2s.ajax.annotation.SimpleComment"
+})
+public class SimpleAccessorProcessor extends AbstractProcessor {
+
+	static final String ACCESSOR_SUFFIX = "$SimpleAccessor";
+
+	private static final String SIMPLE_SERIALIZABLE = "net.sf.j2s.ajax.SimpleSerializable";
+
+	private static final String[][] PRIMITIVES = new String[][] {
+		{ "int", "Int" },
+		{ "long", "Long" },
+		{ "boolean", "Boolean" },
+		{ "float", "Float" },
+		{ "double", "Double" },
+		{ "short", "Short" },
+		{ "byte", "Byte" },
+		{ "char", "Char" },
+	};
+
+	private Set<String> generated = new HashSet<String>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		TypeElement ssType = processingEnv.getElementUtils().getTypeElement(SIMPLE_SERIALIZABLE);
+		if (ssType == null) {
+			return false;
+		}
+		for (TypeElement annotation : annotations) {
+			for (Element e : roundEnv.getElementsAnnotatedWith(annotation)) {
+				Element type = e;
+				if (e.getKind() == ElementKind.FIELD) {
+					type = e.getEnclosingElement();
+				}
+				if (!(type instanceof TypeElement) || type.getKind() != ElementKind.CLASS) {
+					continue;
+				}
+				TypeElement clazz = (TypeElement) type;
+				if (!isAccessible(clazz) || !processingEnv.getTypeUtils().isSubtype(
+						processingEnv.getTypeUtils().erasure(clazz.asType()),
+						processingEnv.getTypeUtils().erasure(ssType.asType()))) {
+					continue;
+				}
+				String binaryName = processingEnv.getElementUtils().getBinaryName(clazz).toString();
+				if (!generated.add(binaryName)) {
+					continue;
+				}
+				try {
+					generateAccessor(clazz, binaryName);
+				} catch (IOException ex) {
+					processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+							"Failed to generate simple accessor: " + ex.getMessage(), clazz);
+				}
+			}
+		}
+		return false;
+	}
+
+	private boolean isAccessible(TypeElement clazz) {
+		Element e = clazz;
+		while (e instanceof TypeElement) {
+			if (e.getModifiers().contains(Modifier.PRIVATE)) {
+				return false;
+			}
+			e = e.getEnclosingElement();
+		}
+		return true;
+	}
+
+	/**
+	 * Collect serializable fields in the same order and with the same
+	 * hiding rules as SimpleSerializable#getSerializableFields.
+	 */
+	private List<VariableElement> collectFields(TypeElement clazz) {
+		Map<String, VariableElement> fields = new LinkedHashMap<String, VariableElement>();
+		TypeElement type = clazz;
+		while (type != null && !SIMPLE_SERIALIZABLE.equals(type.getQualifiedName().toString())) {
+			for (VariableElement f : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+				Set<Modifier> modifiers = f.getModifiers();
+				if (modifiers.contains(Modifier.PUBLIC) && !modifiers.contains(Modifier.STATIC)
+						&& !modifiers.contains(Modifier.TRANSIENT)) {
+					fields.put(f.getSimpleName().toString(), f);
+				}
+			}
+			TypeMirror superType = type.getSuperclass();
+			if (superType.getKind() != TypeKind.DECLARED) {
+				break;
+			}
+			type = (TypeElement) ((DeclaredType) superType).asElement();
+		}
+		return new ArrayList<VariableElement>(fields.values());
+	}
+
+	private void generateAccessor(TypeElement clazz, String binaryName) throws IOException {
+		PackageElement pkg = processingEnv.getElementUtils().getPackageOf(clazz);
+		String packageName = pkg.isUnnamed() ? null : pkg.getQualifiedName().toString();
+		String accessorName = binaryName + ACCESSOR_SUFFIX;
+		String simpleAccessorName = packageName == null ? accessorName : accessorName.substring(packageName.length() + 1);
+		List<VariableElement> fields = collectFields(clazz);
+
+		StringBuilder source = new StringBuilder();
+		source.append("/**\r\n");
+		source.append(" * Generated by Java2Script. Do not edit.\r\n");
+		source.append(" */\r\n");
+		if (packageName != null) {
+			source.append("package ").append(packageName).append(";\r\n");
+		}
+		source.append("\r\n");
+		source.append("@SuppressWarnings({ \"rawtypes\", \"unchecked\" })\r\n");
+		source.append("public final class ").append(simpleAccessorName).append(" implements net.sf.j2s.ajax.ISimpleFieldAccessor {\r\n");
+		source.append("\r\n");
+		source.append("\tprivate static final String[] FIELD_NAMES = new String[] {");
+		for (int i = 0; i < fields.size(); i++) {
+			source.append(i == 0 ? " \"" : ", \"").append(fields.get(i).getSimpleName()).append('\"');
+		}
+		source.append(" };\r\n");
+		source.append("\r\n");
+		source.append("\tpublic String[] fieldNames() {\r\n");
+		source.append("\t\treturn FIELD_NAMES.clone();\r\n");
+		source.append("\t}\r\n");
+
+		generateMethods(source, fields, null, "Object", "");
+		for (int i = 0; i < PRIMITIVES.length; i++) {
+			generateMethods(source, fields, PRIMITIVES[i][0], PRIMITIVES[i][0], PRIMITIVES[i][1]);
+		}
+		source.append("\r\n");
+		source.append("}\r\n");
+
+		JavaFileObject file = processingEnv.getFiler().createSourceFile(accessorName, clazz);
+		Writer writer = file.openWriter();
+		try {
+			writer.write(source.toString());
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Generate getter and setter switching on field indexes.
+	 *
+	 * @param primitive primitive type name, or null for object fields
+	 */
+	private void generateMethods(StringBuilder source, List<VariableElement> fields,
+			String primitive, String valueType, String suffix) {
+		StringBuilder getter = new StringBuilder();
+		StringBuilder setter = new StringBuilder();
+		for (int i = 0; i < fields.size(); i++) {
+			VariableElement f = fields.get(i);
+			TypeMirror type = processingEnv.getTypeUtils().erasure(f.asType());
+			if (primitive == null ? type.getKind().isPrimitive() : !primitive.equals(type.toString())) {
+				continue;
+			}
+			String owner = ((TypeElement) f.getEnclosingElement()).getQualifiedName().toString();
+			String access = "((" + owner + ") o)." + f.getSimpleName();
+			getter.append("\t\tcase ").append(i).append(":\r\n");
+			getter.append("\t\t\treturn ").append(access).append(";\r\n");
+			if (!f.getModifiers().contains(Modifier.FINAL)) {
+				setter.append("\t\tcase ").append(i).append(":\r\n");
+				setter.append("\t\t\t").append(access).append(" = ");
+				if (primitive == null) {
+					setter.append("(").append(type.toString()).append(") ");
+				}
+				setter.append("value;\r\n");
+				setter.append("\t\t\treturn;\r\n");
+			}
+		}
+		source.append("\r\n");
+		source.append("\tpublic ").append(valueType).append(" get").append(suffix).append("(Object o, int index) {\r\n");
+		if (getter.length() > 0) {
+			source.append("\t\tswitch (index) {\r\n");
+			source.append(getter);
+			source.append("\t\t}\r\n");
+		}
+		source.append("\t\tthrow new IllegalArgumentException(\"No ").append(valueType).append(" field at \" + index);\r\n");
+		source.append("\t}\r\n");
+		source.append("\r\n");
+		source.append("\tpublic void set").append(suffix).append("(Object o, int index, ").append(valueType).append(" value) {\r\n");
+		if (setter.length() > 0) {
+			source.append("\t\tswitch (index) {\r\n");
+			source.append(setter);
+			source.append("\t\t}\r\n");
+		}
+		source.append("\t\tthrow new IllegalArgumentException(\"No writable ").append(valueType).append(" field at \" + index);\r\n");
+		source.append("\t}\r\n");
+	}
+
+}